@@ -0,0 +1,73 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of one sample by the ResultAggregator, from one thread and from several threads at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationBenchmark {
+    private static final int EVENTS = 1024;
+    private static final int LABELS = 16;
+
+    private final SampleEvent[] events = new SampleEvent[EVENTS];
+    private ResultAggregator results;
+
+    @Setup
+    public void setUp() {
+        JMeterRuntime.getInstance().ensureInitialized();
+        results = new ResultAggregator();
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < EVENTS; i++) {
+            SampleResult result = SampleResult.createTestSample(now, now + 1 + random.nextInt(500));
+            result.setSampleLabel("request " + i % LABELS);
+            result.setSuccessful(random.nextInt(100) != 0);
+            result.setBytes(200L + random.nextInt(2000));
+            events[i] = new SampleEvent(result, "users");
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void sampleOccurred(Cursor cursor) {
+        results.sampleOccurred(events[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sampleOccurred4Threads(Cursor cursor) {
+        results.sampleOccurred(events[cursor.next()]);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        int next() {
+            return index++ & (EVENTS - 1);
+        }
+    }
+}
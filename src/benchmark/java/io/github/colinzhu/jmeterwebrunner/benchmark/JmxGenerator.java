@@ -0,0 +1,115 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class writes JMX files of a given size for the benchmarks: thread groups of 100 HTTP samplers, each sampler
+ * with a header manager and a response assertion. Every tenth sampler is disabled.
+ */
+public class JmxGenerator {
+    private static final int SAMPLERS_PER_GROUP = 100;
+
+    private JmxGenerator() {
+    }
+
+    /**
+     * Write a JMX file to a temp file
+     *
+     * @param samplers number of HTTP samplers
+     * @return the JMX file, deleted on exit
+     * @throws IOException if the file can't be written
+     */
+    public static File generate(int samplers) throws IOException {
+        File file = File.createTempFile("benchmark-" + samplers + "-", ".jmx");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<jmeterTestPlan version=\"1.2\" properties=\"5.0\" jmeter=\"5.5\">");
+            out.println("<hashTree>");
+            out.println("<TestPlan guiclass=\"TestPlanGui\" testclass=\"TestPlan\" testname=\"Benchmark plan\" enabled=\"true\">");
+            out.println("  <boolProp name=\"TestPlan.functional_mode\">false</boolProp>");
+            out.println("  <elementProp name=\"TestPlan.user_defined_variables\" elementType=\"Arguments\" guiclass=\"ArgumentsPanel\" testclass=\"Arguments\" enabled=\"true\">");
+            out.println("    <collectionProp name=\"Arguments.arguments\"/>");
+            out.println("  </elementProp>");
+            out.println("</TestPlan>");
+            out.println("<hashTree>");
+            for (int i = 0; i < samplers; i++) {
+                if (i % SAMPLERS_PER_GROUP == 0) {
+                    if (i > 0) {
+                        out.println("</hashTree>");
+                    }
+                    writeThreadGroup(out, i / SAMPLERS_PER_GROUP);
+                    out.println("<hashTree>");
+                }
+                writeSampler(out, i);
+            }
+            if (samplers > 0) {
+                out.println("</hashTree>");
+            }
+            out.println("</hashTree>");
+            out.println("</hashTree>");
+            out.println("</jmeterTestPlan>");
+        }
+        return file;
+    }
+
+    private static void writeThreadGroup(PrintWriter out, int number) {
+        out.println("<ThreadGroup guiclass=\"ThreadGroupGui\" testclass=\"ThreadGroup\" testname=\"users " + number + "\" enabled=\"true\">");
+        out.println("  <stringProp name=\"ThreadGroup.on_sample_error\">continue</stringProp>");
+        out.println("  <elementProp name=\"ThreadGroup.main_controller\" elementType=\"LoopController\" guiclass=\"LoopControlPanel\" testclass=\"LoopController\" enabled=\"true\">");
+        out.println("    <boolProp name=\"LoopController.continue_forever\">false</boolProp>");
+        out.println("    <stringProp name=\"LoopController.loops\">1</stringProp>");
+        out.println("  </elementProp>");
+        out.println("  <stringProp name=\"ThreadGroup.num_threads\">10</stringProp>");
+        out.println("  <stringProp name=\"ThreadGroup.ramp_time\">1</stringProp>");
+        out.println("  <boolProp name=\"ThreadGroup.scheduler\">false</boolProp>");
+        out.println("</ThreadGroup>");
+    }
+
+    private static void writeSampler(PrintWriter out, int number) {
+        out.println("<HTTPSamplerProxy guiclass=\"HttpTestSampleGui\" testclass=\"HTTPSamplerProxy\" testname=\"GET item " + number
+                + "\" enabled=\"" + (number % 10 != 9) + "\">");
+        out.println("  <elementProp name=\"HTTPsampler.Arguments\" elementType=\"Arguments\" guiclass=\"HTTPArgumentsPanel\" testclass=\"Arguments\" enabled=\"true\">");
+        out.println("    <collectionProp name=\"Arguments.arguments\">");
+        out.println("      <elementProp name=\"id\" elementType=\"HTTPArgument\">");
+        out.println("        <boolProp name=\"HTTPArgument.always_encode\">false</boolProp>");
+        out.println("        <stringProp name=\"Argument.value\">${__Random(1,1000)}</stringProp>");
+        out.println("        <stringProp name=\"Argument.metadata\">=</stringProp>");
+        out.println("        <boolProp name=\"HTTPArgument.use_equals\">true</boolProp>");
+        out.println("        <stringProp name=\"Argument.name\">id</stringProp>");
+        out.println("      </elementProp>");
+        out.println("    </collectionProp>");
+        out.println("  </elementProp>");
+        out.println("  <stringProp name=\"HTTPSampler.domain\">localhost</stringProp>");
+        out.println("  <stringProp name=\"HTTPSampler.port\">8080</stringProp>");
+        out.println("  <stringProp name=\"HTTPSampler.protocol\">http</stringProp>");
+        out.println("  <stringProp name=\"HTTPSampler.path\">/api/items/" + number + "</stringProp>");
+        out.println("  <stringProp name=\"HTTPSampler.method\">GET</stringProp>");
+        out.println("  <boolProp name=\"HTTPSampler.follow_redirects\">true</boolProp>");
+        out.println("  <boolProp name=\"HTTPSampler.use_keepalive\">true</boolProp>");
+        out.println("</HTTPSamplerProxy>");
+        out.println("<hashTree>");
+        out.println("  <HeaderManager guiclass=\"HeaderPanel\" testclass=\"HeaderManager\" testname=\"headers\" enabled=\"true\">");
+        out.println("    <collectionProp name=\"HeaderManager.headers\">");
+        out.println("      <elementProp name=\"\" elementType=\"Header\">");
+        out.println("        <stringProp name=\"Header.name\">Accept</stringProp>");
+        out.println("        <stringProp name=\"Header.value\">application/json</stringProp>");
+        out.println("      </elementProp>");
+        out.println("    </collectionProp>");
+        out.println("  </HeaderManager>");
+        out.println("  <hashTree/>");
+        out.println("  <ResponseAssertion guiclass=\"AssertionGui\" testclass=\"ResponseAssertion\" testname=\"status 200\" enabled=\"true\">");
+        out.println("    <collectionProp name=\"Asserion.test_strings\">");
+        out.println("      <stringProp name=\"49586\">200</stringProp>");
+        out.println("    </collectionProp>");
+        out.println("    <stringProp name=\"Assertion.test_field\">Assertion.response_code</stringProp>");
+        out.println("    <boolProp name=\"Assertion.assume_success\">false</boolProp>");
+        out.println("    <intProp name=\"Assertion.test_type\">8</intProp>");
+        out.println("  </ResponseAssertion>");
+        out.println("  <hashTree/>");
+        out.println("</hashTree>");
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRunner;
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanSnapshotLoader;
+import io.github.colinzhu.jmeterwebrunner.plan.StreamingPlanLoader;
+import org.apache.jmeter.JMeter;
+import org.apache.jmeter.engine.TreeCloner;
+import org.apache.jmeter.save.SaveService;
+import org.apache.jorphan.collections.HashTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a JMX file and removing its disabled elements, with SaveService or the StreamingPlanLoader, or loading its
+ * binary snapshot, for a small and a very large test plan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlanBenchmark {
+    @Param({"10", "5000"})
+    public int samplers;
+
+    private File jmx;
+    private HashTree loadedTree;
+    private final StreamingPlanLoader streamingLoader = new StreamingPlanLoader();
+    private final PlanSnapshotLoader snapshotLoader = new PlanSnapshotLoader(JMeterRunner::loadJmxAsTestPlan, false);
+
+    @Setup
+    public void setUp() throws Exception {
+        JMeterRuntime.getInstance().ensureInitialized();
+        jmx = JmxGenerator.generate(samplers);
+        loadedTree = SaveService.loadTree(jmx);
+        snapshotLoader.compile(jmx).deleteOnExit();
+    }
+
+    @Benchmark
+    public HashTree loadJmxAsTestPlan() {
+        return JMeterRunner.loadJmxAsTestPlan(jmx);
+    }
+
+    @Benchmark
+    public HashTree loadWithStreamingPlanLoader() throws Exception {
+        return streamingLoader.load(jmx);
+    }
+
+    @Benchmark
+    public HashTree loadWithPlanSnapshotLoader() throws Exception {
+        return snapshotLoader.load(jmx);
+    }
+
+    @Benchmark
+    public HashTree convertSubTree(LoadedTree tree) {
+        JMeter.convertSubTree(tree.tree, false);
+        return tree.tree;
+    }
+
+    /**
+     * convertSubTree changes the tree, so each invocation gets a fresh copy of the loaded tree
+     */
+    @State(Scope.Thread)
+    public static class LoadedTree {
+        private HashTree tree;
+
+        @Setup(Level.Invocation)
+        public void setUp(PlanBenchmark plan) {
+            TreeCloner cloner = new TreeCloner(false);
+            plan.loadedTree.traverse(cloner);
+            tree = cloner.getClonedTree();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRunner;
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanLoader;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanSnapshotLoader;
+import io.github.colinzhu.jmeterwebrunner.plan.StreamingPlanLoader;
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * This benchmark compares SaveService.loadTree (+ convertSubTree) with the StreamingPlanLoader and with the binary
+ * snapshot of the plan (PlanSnapshotLoader, including the hash of the JMX file) on generated plans:
+ * the load time, the peak heap during the load, the bytes allocated by the load, and the heap retained by the plan.
+ * The peak heap depends on when the GC runs, so the loaders are run in turns several times, with the same max heap.
+ * <p>
+ * mvn -Pbenchmark compile exec:exec@plan-loader -DjmeterHome=/test/apache-jmeter-5.5 -Dbenchmark.samplers=5000,50000
+ */
+public class PlanLoaderBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        String samplers = args.length > 0 ? args[0] : "5000,50000";
+        JMeterRuntime.getInstance().ensureInitialized();
+        PlanLoader xstream = JMeterRunner::loadJmxAsTestPlan;
+        PlanLoader stax = new StreamingPlanLoader();
+        PlanSnapshotLoader snapshot = new PlanSnapshotLoader(xstream, false);
+
+        System.out.printf("%-8s %8s %8s %10s %12s %12s %12s%n",
+                "loader", "samplers", "file MB", "time ms", "peak MB", "alloc MB", "retained MB");
+        for (String count : samplers.split(",")) {
+            int size = Integer.parseInt(count.trim());
+            File jmx = JmxGenerator.generate(size);
+            measure("xstream", xstream, jmx, size, false); // warm-up
+            measure("stax", stax, jmx, size, false);
+            snapshot.compile(jmx).deleteOnExit();
+            measure("snapshot", snapshot, jmx, size, false);
+            for (int round = 0; round < ROUNDS; round++) {
+                measure("xstream", xstream, jmx, size, true);
+                measure("stax", stax, jmx, size, true);
+                measure("snapshot", snapshot, jmx, size, true);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void measure(String name, PlanLoader loader, File jmx, int samplers, boolean print) throws Exception {
+        long baseline = usedHeapAfterGc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        HashTree plan = loader.load(jmx);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        allocated = allocatedBytes() - allocated;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        long retained = usedHeapAfterGc() - baseline;
+        if (plan.isEmpty()) { // keeps the plan reachable until here
+            throw new IllegalStateException("Empty plan: " + jmx);
+        }
+        if (print) {
+            System.out.printf("%-8s %8d %8.1f %10d %12.1f %12.1f %12.1f%n", name, samplers, jmx.length() / 1048576.0, millis, (peak - baseline) / 1048576.0, allocated / 1048576.0,
+                    retained / 1048576.0);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
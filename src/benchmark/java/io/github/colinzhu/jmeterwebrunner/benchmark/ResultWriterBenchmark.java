@@ -0,0 +1,107 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.result.BinaryResultWriter;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.SampleSaveConfiguration;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples per second which 4 sampler threads can save, with the binary result writer and with the stock result
+ * collector writing CSV and XML. Every writer gets a new copy of a prepared sample. The time of testEnded is not measured, the binary writer may still be writing then.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(4)
+public class ResultWriterBenchmark {
+    private static final int EVENTS = 1024;
+
+    @Param({"binary", "csv", "xml"})
+    public String writer;
+
+    private final SampleEvent[] events = new SampleEvent[EVENTS];
+    private File file;
+    private SampleListener listener;
+
+    @Setup
+    public void setUp() throws IOException {
+        JMeterRuntime.getInstance().ensureInitialized();
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < EVENTS; i++) {
+            SampleResult result = SampleResult.createTestSample(now + i, now + i + 1 + random.nextInt(500));
+            result.setSampleLabel("GET /api/items/" + i % 16);
+            result.setThreadName("users 1-" + i % 100);
+            result.setResponseCode(i % 100 == 0 ? "500" : "200");
+            result.setResponseMessage(i % 100 == 0 ? "Internal Server Error" : "OK");
+            result.setSuccessful(i % 100 != 0);
+            result.setBytes(200L + random.nextInt(2000));
+            result.setAllThreads(100);
+            result.setGroupThreads(100);
+            events[i] = new SampleEvent(result, "users");
+        }
+
+        file = File.createTempFile("results-", "." + writer);
+        if ("binary".equals(writer)) {
+            listener = new BinaryResultWriter(file);
+        } else {
+            SampleSaveConfiguration config = new SampleSaveConfiguration();
+            config.setAsXml("xml".equals(writer));
+            config.setFieldNames(true);
+            ResultCollector collector = new ResultCollector();
+            collector.setFilename(file.getAbsolutePath());
+            collector.setSaveConfig(config);
+            listener = collector;
+        }
+        ((TestStateListener) listener).testStarted();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ((TestStateListener) listener).testEnded();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void sampleOccurred(Cursor cursor) {
+        SampleEvent event = events[cursor.next()];
+        // a copy, as the result collector saves a sample result only once per file
+        listener.sampleOccurred(new SampleEvent(new SampleResult(event.getResult()), event.getThreadGroup()));
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        int next() {
+            return index++ & (EVENTS - 1);
+        }
+    }
+}
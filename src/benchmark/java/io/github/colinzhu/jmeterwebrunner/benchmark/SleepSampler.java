@@ -0,0 +1,39 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * A sampler which only waits, like a user waiting for a slow response, so a benchmark measures the runner and not
+ * the system under test.
+ */
+public class SleepSampler extends AbstractSampler {
+    private static final long serialVersionUID = 1L;
+    private static final String SLEEP_MILLIS = "SleepSampler.sleepMillis";
+
+    public SleepSampler() {
+        // for cloning
+    }
+
+    public SleepSampler(String name, long sleepMillis) {
+        setName(name);
+        setProperty(SLEEP_MILLIS, sleepMillis);
+    }
+
+    @Override
+    public SampleResult sample(Entry entry) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.sampleStart();
+        try {
+            Thread.sleep(getPropertyAsLong(SLEEP_MILLIS));
+            result.setSuccessful(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setSuccessful(false);
+        }
+        result.sampleEnd();
+        return result;
+    }
+}
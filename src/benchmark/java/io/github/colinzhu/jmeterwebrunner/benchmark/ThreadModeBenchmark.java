@@ -0,0 +1,121 @@
+package io.github.colinzhu.jmeterwebrunner.benchmark;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.workload.VirtualThreads;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * This benchmark compares platform threads and virtual threads for the users of a thread group. Each user waits
+ * 1 s per sample, so N users should make N samples per second. For each mode, the number of users is increased until
+ * the throughput is below 90% of the expected one or the threads can't be started, and the heap used per user is
+ * measured after a GC. The heap doesn't include the native stacks of the platform threads.
+ * <p>
+ * mvn -Pbenchmark compile exec:exec@thread-mode -DjmeterHome=/test/apache-jmeter-5.5 -Dbenchmark.users=1000,5000,10000,50000
+ */
+public class ThreadModeBenchmark {
+    private static final long SLEEP_MILLIS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String users = args.length > 0 ? args[0] : "1000,5000,10000";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        JMeterRuntime.getInstance().ensureInitialized();
+
+        System.out.printf("%-10s %8s %10s %10s %12s %12s %s%n",
+                "mode", "users", "tps", "expected", "heap/user", "jvmThreads", "sustainable");
+        measureMode(false, users, seconds);
+        if (VirtualThreads.isSupported()) {
+            measureMode(true, users, seconds);
+        } else {
+            System.out.println("virtual    skipped, JDK 21+ is required, current JDK: " + System.getProperty("java.version"));
+        }
+        System.exit(0);
+    }
+
+    private static void measureMode(boolean virtual, String users, int seconds) throws InterruptedException {
+        for (String count : users.split(",")) {
+            if (!measure(virtual, Integer.parseInt(count.trim()), seconds)) {
+                break;
+            }
+        }
+    }
+
+    private static boolean measure(boolean virtual, int users, int seconds) throws InterruptedException {
+        ResultAggregator results = new ResultAggregator();
+        HashTree plan = createPlan(users, seconds, results);
+        if (virtual) {
+            VirtualThreads.apply(plan);
+        }
+        long baselineHeap = usedHeapAfterGc();
+
+        StandardJMeterEngine engine = JMeterRuntime.getInstance().newEngine();
+        engine.configure(plan);
+        Throwable[] failure = new Throwable[1];
+        Thread runner = new Thread(() -> {
+            try {
+                engine.run();
+            } catch (Throwable e) { // e.g. OutOfMemoryError: unable to create native thread
+                failure[0] = e;
+            }
+        }, "benchmark-engine");
+        runner.start();
+
+        Thread.sleep(seconds * 1000L / 3);
+        long count1 = totalCount(results);
+        long time1 = System.nanoTime();
+        int started = JMeterContextService.getNumberOfThreads();
+        long heapPerUser = (usedHeapAfterGc() - baselineHeap) / Math.max(users, 1);
+        int jvmThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        Thread.sleep(seconds * 1000L / 3);
+        double tps = (totalCount(results) - count1) * 1e9 / (System.nanoTime() - time1);
+
+        engine.stopTest(true);
+        runner.join();
+        double expected = users * 1000.0 / SLEEP_MILLIS;
+        boolean sustainable = failure[0] == null && started >= users && tps >= expected * 0.9;
+        System.out.printf("%-10s %8d %10.0f %10.0f %10d B %12d %s%n", virtual ? "virtual" : "platform", users, tps,
+                expected, heapPerUser, jvmThreads, sustainable ? "yes" : "no" + (failure[0] != null ? " " + failure[0] : ""));
+        return sustainable;
+    }
+
+    private static HashTree createPlan(int users, int seconds, ResultAggregator results) {
+        LoopController loop = new LoopController();
+        loop.setLoops(LoopController.INFINITE_LOOP_COUNT);
+        loop.setContinueForever(true);
+        ThreadGroup group = new ThreadGroup();
+        group.setName("users");
+        group.setNumThreads(users);
+        group.setRampUp(0);
+        group.setSamplerController(loop);
+        group.setScheduler(true);
+        group.setDuration(seconds);
+
+        TestPlan testPlan = new TestPlan("thread mode benchmark");
+        HashTree plan = new ListedHashTree();
+        HashTree testPlanTree = plan.add(testPlan);
+        testPlanTree.add(results);
+        testPlanTree.add(group).add(new SleepSampler("sleep", SLEEP_MILLIS));
+        return plan;
+    }
+
+    private static long totalCount(ResultAggregator results) {
+        List<LabelStats.Snapshot> snapshot = results.snapshot();
+        return snapshot.get(snapshot.size() - 1).getCount();
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
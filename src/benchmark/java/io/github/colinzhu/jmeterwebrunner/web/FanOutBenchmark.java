@@ -0,0 +1,92 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of one frame (a plan report, the only frames the console doesn't send on its own) from the web console to the connected browsers, measured until every WebSocket client
+ * has received it. The frame is encoded once, every client gets the same pooled buffer. The clients run in the same
+ * JVM on their own Vert.x instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final String REPORT = "{\"type\":\"plan\",\"file\":\"/plans/test.jmx\",\"elements\":42,"
+            + "\"errors\":[],\"warnings\":[\"Test Plan > users > request 1: the variable ${host} is not defined in the plan\"]}";
+
+    @Param({"1", "10", "100"})
+    public int clients;
+
+    private Vertx clientVertx;
+    private volatile CountDownLatch received;
+
+    @Setup
+    public void setUp() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        WebConsole.start(null, args -> {
+        }, new HttpServerOptions().setPort(port));
+
+        clientVertx = Vertx.vertx();
+        HttpClient client = clientVertx.createHttpClient(new HttpClientOptions().setMaxWebSockets(clients));
+        for (int i = 0; i < clients; i++) {
+            WebSocket webSocket = connect(client, port);
+            webSocket.binaryMessageHandler(frame -> {
+                if (frame.getByte(1) == ConsoleFrame.PLAN) {
+                    received.countDown();
+                }
+            });
+        }
+    }
+
+    private static WebSocket connect(HttpClient client, int port) throws Exception {
+        for (int attempt = 0; ; attempt++) { // the web console starts asynchronously
+            try {
+                return client.webSocket(port, "localhost", "/").toCompletionStage().toCompletableFuture()
+                        .get(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        clientVertx.close();
+    }
+
+    @Benchmark
+    public boolean publishFrame() throws InterruptedException {
+        received = new CountDownLatch(clients);
+        WebConsole.publish(ConsoleFrame.text(ConsoleFrame.PLAN, 0, REPORT));
+        return received.await(5, TimeUnit.SECONDS);
+    }
+}
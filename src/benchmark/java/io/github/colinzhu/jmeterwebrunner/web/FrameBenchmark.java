@@ -0,0 +1,115 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.result.MetricsTick;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.RunStatus;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Encoding of the frames sent to the browsers: a batch of 100 log lines, plain and compressed, and the metrics of a
+ * run with 20 labels (a delta frame and its key frame), next to the JSON text frames they replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> runs = new ArrayList<>(Collections.nCopies(100, "1"));
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final MetricsEncoder encoder = new MetricsEncoder(1);
+    private MetricsTick tick;
+
+    @Setup
+    public void setUp() {
+        JMeterRuntime.getInstance().ensureInitialized();
+        for (int i = 0; i < 100; i++) {
+            lines.add("2023-06-01 10:00:00,000 [users 1-" + i + "] INFO  12  o.a.jmeter.threads.JMeterThread - "
+                    + "Thread started: users 1-" + i + " \"quoted\" \\ path");
+        }
+        ResultAggregator results = new ResultAggregator();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10_000; i++) {
+            SampleResult result = SampleResult.createTestSample(now, now + i % 300);
+            result.setSampleLabel("request " + i % 20);
+            result.setSuccessful(true);
+            results.sampleOccurred(new SampleEvent(result, "users"));
+        }
+        tick = results.tick();
+    }
+
+    @Benchmark
+    public int encodeLogBatch() {
+        return release(LogBatcher.encode(lines, runs, 0));
+    }
+
+    @Benchmark
+    public int encodeCompressedLogBatch() {
+        return release(LogBatcher.encode(lines, runs, 0).deflate(deflater));
+    }
+
+    @Benchmark
+    public int encodeMetrics() {
+        ConsoleFrame frame = encoder.encode(RunStatus.RUNNING, tick, null);
+        int bytes = frame.getPayloadBytes() + frame.getKeyFrame().getPayloadBytes();
+        frame.releaseAll();
+        return bytes;
+    }
+
+    @Benchmark
+    public String encodeLogBatchJson() {
+        return new JsonObject()
+                .put("type", "log")
+                .put("lines", new JsonArray(lines))
+                .put("runs", new JsonArray(runs))
+                .put("dropped", 0)
+                .encode();
+    }
+
+    @Benchmark
+    public String encodeMetricsJson() {
+        JsonArray labels = new JsonArray();
+        tick.getLabels().forEach(label -> labels.add(new JsonArray().add(label.getLabel())
+                .add(label.getCount() / tick.getSeconds()).add(label.getErrors()).add(label.getP95()).add(label.getP99())));
+        return new JsonObject()
+                .put("type", "metrics")
+                .put("run", 1)
+                .put("status", RunStatus.RUNNING)
+                .put("time", tick.getTime())
+                .put("tps", tick.getThroughput())
+                .put("errorRate", tick.getErrorRate())
+                .put("threads", tick.getActiveThreads())
+                .put("p95", tick.getTotal().getP95())
+                .put("p99", tick.getTotal().getP99())
+                .put("labels", labels)
+                .encode();
+    }
+
+    private static int release(ConsoleFrame frame) {
+        int bytes = frame.getPayloadBytes();
+        frame.release();
+        return bytes;
+    }
+}
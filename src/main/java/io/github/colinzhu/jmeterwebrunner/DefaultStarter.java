@@ -1,7 +1,11 @@
 package io.github.colinzhu.jmeterwebrunner;
 
-import io.github.colinzhu.webconsole.WebConsole;
+import io.github.colinzhu.jmeterwebrunner.web.MetricsPublisher;
+import io.github.colinzhu.jmeterwebrunner.web.RunApi;
+import io.github.colinzhu.jmeterwebrunner.web.WebConsole;
+import io.vertx.core.http.HttpServerOptions;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -9,10 +13,14 @@ import java.util.Objects;
  */
 public class DefaultStarter {
     private static final String PARAM_PORT = "port";
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String portStr = System.getProperty(PARAM_PORT);
         Objects.requireNonNull(portStr, "VM option -Dport is required. e.g. -Dport=8080");
 
-        WebConsole.start(null, JMeterRunner::main, Integer.parseInt(portStr));
+        RunApi runApi = new RunApi(JMeterRunner.getScheduler(), JMeterRunner.getPlanWatcher());
+        WebConsole.start(null, JMeterRunner::main, new HttpServerOptions().setPort(Integer.parseInt(portStr)),
+                runApi::mount);
+        new MetricsPublisher(JMeterRunner.getScheduler()).start();
+        JMeterRunner.getPlanWatcher().start();
     }
 }
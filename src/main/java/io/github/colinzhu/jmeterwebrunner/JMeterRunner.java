@@ -1,66 +1,273 @@
 package io.github.colinzhu.jmeterwebrunner;
 
+import io.github.colinzhu.jmeterwebrunner.distributed.Coordinator;
+import io.github.colinzhu.jmeterwebrunner.distributed.UserSplit;
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorMonitor;
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorReport;
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanCache;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanLoader;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanReport;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanSnapshotLoader;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanWatcher;
+import io.github.colinzhu.jmeterwebrunner.plan.ScriptCache;
+import io.github.colinzhu.jmeterwebrunner.plan.ScriptCacheListener;
+import io.github.colinzhu.jmeterwebrunner.plan.StreamingPlanLoader;
+import io.github.colinzhu.jmeterwebrunner.result.AsyncResultWriter;
+import io.github.colinzhu.jmeterwebrunner.result.BinaryResultWriter;
+import io.github.colinzhu.jmeterwebrunner.result.ColumnarResultWriter;
+import io.github.colinzhu.jmeterwebrunner.result.CoordinatedOmissionCorrector;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.Run;
+import io.github.colinzhu.jmeterwebrunner.run.RunContext;
+import io.github.colinzhu.jmeterwebrunner.run.RunOptions;
+import io.github.colinzhu.jmeterwebrunner.run.RunScheduler;
+import io.github.colinzhu.jmeterwebrunner.tuning.MaxThroughputSearch;
+import io.github.colinzhu.jmeterwebrunner.workload.ArrivalProfile;
+import io.github.colinzhu.jmeterwebrunner.workload.OpenWorkload;
+import io.github.colinzhu.jmeterwebrunner.workload.VirtualThreads;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.jmeter.JMeter;
 import org.apache.jmeter.engine.StandardJMeterEngine;
 import org.apache.jmeter.save.SaveService;
-import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.collections.HashTree;
 
 import java.io.File;
-import java.util.Objects;
+import java.io.IOException;
 
 /**
  * This class invokes the StandardJMeterEngine to run the JMX file when receives an event from the browser
  */
 @Slf4j
 public class JMeterRunner {
-    private static final String PARAM_JMETER_HOME = "jmeterHome";
+    private static final String PARAM_PLAN_CACHE_MAX_ENTRIES = "planCacheMaxEntries";
+    private static final String PARAM_PLAN_CACHE_MAX_MB = "planCacheMaxMb";
+    private static final String PARAM_PLAN_LOADER = "planLoader";
+    private static final String PARAM_PLAN_SNAPSHOT = "planSnapshot";
+    private static final String PARAM_PLANS_DIR = "plansDir";
+    private static final String PARAM_RUN_ISOLATION = "runIsolation";
+    private static final PlanCache PLAN_CACHE = new PlanCache(snapshotLoader(),
+            Integer.getInteger(PARAM_PLAN_CACHE_MAX_ENTRIES, 16),
+            Long.getLong(PARAM_PLAN_CACHE_MAX_MB, 256L) * 1024 * 1024);
+    private static final PlanWatcher PLAN_WATCHER = new PlanWatcher(PLAN_CACHE,
+            System.getProperty(PARAM_PLANS_DIR) != null ? new File(System.getProperty(PARAM_PLANS_DIR)) : null);
+    private static final String RUN_ID_PLACEHOLDER = "{id}";
+    private static final RunScheduler SCHEDULER = new RunScheduler(JMeterRunner::execute);
+
+    static {
+        // e.g. on Ctrl+C or docker stop, the runs are stopped first so that their results are written, then the logs
+        // of their end are written before logback stops
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            SCHEDULER.shutdown();
+            AsyncRunAppender.stopLogging();
+        }, "run-shutdown"));
+    }
 
     /**
-     * This method invokes StandardJMeterEngine to run the JMX file
+     * This method queues a run of the JMX file and waits until the run has ended
      *
-     * @param args JMX file name
+     * @param args JMX file name, optionally followed by key=value run options e.g. priority=1
      */
     public static void main(String[] args) {
-        setupJMeter();
-
-        String jmxFile = getJmxFileName(args);
-        HashTree testPlan = loadJmxAsTestPlan(jmxFile);
+        Run run = SCHEDULER.submit(RunOptions.parse(args));
+        run.await();
+    }
 
-        StandardJMeterEngine jmeter = new StandardJMeterEngine();
-        jmeter.configure(testPlan);
-        jmeter.run();
+    public static RunScheduler getScheduler() {
+        return SCHEDULER;
+    }
 
-        log.info("Test completed.");
+    /**
+     * @return the watcher of the plans directory given by -DplansDir, not started yet
+     */
+    public static PlanWatcher getPlanWatcher() {
+        return PLAN_WATCHER;
     }
 
-    private static String getJmxFileName(String[] args) {
-        String jmxFile = args != null && args.length > 0 && args[0].trim().length() > 0 ? args[0] : null;
-        Objects.requireNonNull(jmxFile, "Please provide a JMX test file name.");
-        return jmxFile;
+    /**
+     * This method invokes StandardJMeterEngine to run the JMX file of the run, on the thread given by the scheduler.
+     * <p>
+     * JMeter keeps part of the state of a test in the whole JVM (the start time and thread counters of
+     * JMeterContextService, the engine list of StandardJMeterEngine, the JMeterUtils properties), so a run which starts
+     * or ends would reset them for the other runs of this JVM. A run which starts while another run is active in this
+     * JVM is therefore executed in a worker JVM of its own (see Coordinator), unless -DrunIsolation=none.
+     *
+     * @param run the run to execute
+     */
+    private static void execute(Run run) throws IOException, InterruptedException {
+        JMeterRuntime runtime = JMeterRuntime.getInstance();
+        boolean shared = "none".equals(System.getProperty(PARAM_RUN_ISOLATION, "process"));
+        if (!runtime.tryAcquire(shared)) {
+            log.info("Another run is active in this JVM, run {} is executed in a worker JVM of its own", run.getId());
+            execute(run, runtime, true);
+            return;
+        }
+        try {
+            execute(run, runtime, false);
+        } finally {
+            runtime.release();
+        }
     }
 
-    @SneakyThrows
-    private static void setupJMeter() {
-        String jmeterHome = System.getProperty(PARAM_JMETER_HOME);
-        Objects.requireNonNull(jmeterHome, "VM option -DjmeterHome is required. e.g. -DjmeterHome=/test/apache-jmeter-5.5");
+    /**
+     * @param isolated true to execute the run in one worker JVM, even without the option workers
+     */
+    private static void execute(Run run, JMeterRuntime runtime, boolean isolated)
+            throws IOException, InterruptedException {
+        ResultAggregator results = new ResultAggregator();
+        run.setResults(results);
+        String workers = run.getOptions().get(RunOptions.WORKERS);
+        boolean findMax = run.getOptions().get(RunOptions.FIND_MAX) != null;
+        if (findMax && (workers != null || run.getOptions().get(RunOptions.ARRIVAL_RATE) != null)) {
+            throw new IllegalArgumentException("findMax steps the load itself, it can't be combined with workers or arrivalRate");
+        }
+        if (!"false".equals(run.getOptions().get(RunOptions.VALIDATE))) {
+            PlanReport report = PLAN_WATCHER.validate(run.getOptions().getJmxFile());
+            if (report.hasErrors()) {
+                throw new IllegalArgumentException("The plan has " + report.getErrors().size()
+                        + " errors, fix them or run it with validate=false:\n" + PlanWatcher.format(report));
+            }
+        }
+        if (workers != null || isolated) {
+            int workerCount = workers != null ? Integer.parseInt(workers) : 1;
+            new Coordinator(run, workerCount, results).execute();
+            log.info("Test completed on {} workers. Summary:\n{}", workerCount, results.formatSummary());
+            return;
+        }
+        HashTree testPlan = PLAN_CACHE.get(run.getOptions().getJmxFile());
+        Object testPlanRoot = testPlan.getArray()[0];
+        testPlan.add(testPlanRoot, new RunContext(run.getId()));
+        testPlan.add(testPlanRoot, results);
+        int workerCount = Integer.parseInt(run.getOptions().getValues().getOrDefault(RunOptions.WORKER_COUNT, "1"));
+        int workerIndex = Integer.parseInt(run.getOptions().getValues().getOrDefault(RunOptions.WORKER_INDEX, "0"));
+        String resultFile = run.getOptions().get(RunOptions.RESULT_FILE);
+        if (resultFile != null) {
+            File file = new File(resultFile.replace(RUN_ID_PLACEHOLDER, String.valueOf(run.getId())));
+            AsyncResultWriter.removeFileCollectors(testPlan, file.getPath());
+            testPlan.add(testPlanRoot, new BinaryResultWriter(file));
+        }
+        String resultDir = run.getOptions().get(RunOptions.RESULT_DIR);
+        if (resultDir != null) {
+            File directory = new File(resultDir.replace(RUN_ID_PLACEHOLDER, String.valueOf(run.getId())));
+            AsyncResultWriter.removeFileCollectors(testPlan, directory.getPath());
+            testPlan.add(testPlanRoot, new ColumnarResultWriter(directory));
+            run.setResultDir(directory);
+        }
+        String arrivalRate = run.getOptions().get(RunOptions.ARRIVAL_RATE);
+        if (arrivalRate != null) {
+            int maxThreads = maxThreads(run);
+            // the workers of a coordinator share the arrival rate, the users are started on demand
+            ArrivalProfile profile = ArrivalProfile.parse(arrivalRate).scale(1.0 / workerCount);
+            OpenWorkload.apply(testPlan, profile, results, maxThreads);
+            log.info("Open workload, arrival rate: {}{}, max threads per thread group: {}", arrivalRate,
+                    workerCount > 1 ? " / " + workerCount + " workers" : "", maxThreads);
+        } else if (workerCount > 1) {
+            log.info("Worker {} of {}, users: {}", workerIndex, workerCount,
+                    UserSplit.apply(testPlan, workerIndex, workerCount));
+        }
+        if (Boolean.parseBoolean(run.getOptions().get(RunOptions.VIRTUAL_THREADS))) {
+            log.info("Thread groups on virtual threads: {}", VirtualThreads.apply(testPlan));
+        }
+        MaxThroughputSearch search = null;
+        if (findMax) {
+            search = MaxThroughputSearch.create(run.getOptions(), results);
+            search.prepare(testPlan, maxThreads(run));
+            run.setSearch(search);
+        }
+        if (Boolean.parseBoolean(run.getOptions().get(RunOptions.CORRECT_LATENCY))) {
+            if (arrivalRate != null) {
+                log.info("The latency of an open workload is already measured from the intended start times");
+            } else {
+                testPlan.add(testPlanRoot, CoordinatedOmissionCorrector.create(testPlan, results));
+            }
+        }
+        // the last element of the plan, see ScriptCacheListener
+        ScriptCacheListener scripts = ScriptCache.getInstance().prepare(testPlan);
+        run.setScriptStats(scripts.getStats());
+        log.info("Scripts: {}", scripts.getStats());
 
-        log.info("JMeter home: " + jmeterHome);
+        StandardJMeterEngine jmeter = runtime.newEngine();
+        run.setEngine(jmeter);
+        if (run.isStopRequested()) {
+            log.info("Run {} was stopped before it started", run.getId());
+            return;
+        }
+        jmeter.configure(testPlan);
+        GeneratorReport generator = GeneratorMonitor.getInstance().watch();
+        run.setGeneratorReport(generator);
+        if (search != null) {
+            search.start(jmeter);
+        }
+        try {
+            jmeter.run();
+        } finally {
+            GeneratorMonitor.getInstance().unwatch(generator);
+            if (search != null) {
+                search.finish();
+            }
+        }
 
-        JMeterUtils.loadJMeterProperties( jmeterHome + "/bin/jmeter.properties");
-        JMeterUtils.setJMeterHome(jmeterHome);
-        JMeterUtils.initLocale();
+        log.info("Test completed. Summary:\n{}", results.formatSummary());
+        if (search != null) {
+            log.info(search.format());
+        }
+        if (generator.isSaturated()) {
+            log.warn(generator.format());
+        } else {
+            log.info(generator.format());
+        }
+        log.info("JMeter runtime: {}, plan cache: {}, script cache: {}", runtime.getStats(), PLAN_CACHE.getStats(),
+                ScriptCache.getInstance().getStats());
+    }
 
-        SaveService.loadProperties();
+    /**
+     * @return the loader of the JMX files given by -DplanLoader: "xstream" (SaveService, the default) or "stax"
+     */
+    public static PlanLoader planLoader() {
+        String loader = System.getProperty(PARAM_PLAN_LOADER, "xstream");
+        switch (loader) {
+            case "xstream":
+                return JMeterRunner::loadJmxAsTestPlan;
+            case "stax":
+                return new StreamingPlanLoader();
+            default:
+                throw new IllegalArgumentException("Invalid -D" + PARAM_PLAN_LOADER + "=" + loader + ", it must be xstream or stax");
+        }
     }
 
+    /**
+     * @return the loader of the plan cache given by -DplanSnapshot: "read" (the default) uses the fresh snapshots of
+     * the JMX files, "write" also writes the snapshot of every JMX file it loads, "off" always loads the JMX files
+     */
+    private static PlanLoader snapshotLoader() {
+        String mode = System.getProperty(PARAM_PLAN_SNAPSHOT, "read");
+        switch (mode) {
+            case "off":
+                return planLoader();
+            case "read":
+            case "write":
+                return new PlanSnapshotLoader(planLoader(), mode.equals("write"));
+            default:
+                throw new IllegalArgumentException("Invalid -D" + PARAM_PLAN_SNAPSHOT + "=" + mode + ", it must be off, read or write");
+        }
+    }
+
+    private static int maxThreads(Run run) {
+        return Integer.parseInt(run.getOptions().getValues().getOrDefault(RunOptions.ARRIVAL_MAX_THREADS, "1000"));
+    }
+
+    /**
+     * Load the JMX file and remove the disabled test elements
+     *
+     * @param jmxFile the JMX file
+     * @return the test plan, not cloned
+     */
     @SneakyThrows
-    private static HashTree loadJmxAsTestPlan(String jmxFile) {
-        HashTree testPlanTree = SaveService.loadTree(new File(jmxFile));
+    public static HashTree loadJmxAsTestPlan(File jmxFile) {
+        HashTree testPlanTree = SaveService.loadTree(jmxFile);
         JMeter.convertSubTree(testPlanTree, false); // Remove disabled test elements
         return testPlanTree;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+package io.github.colinzhu.jmeterwebrunner;
+
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.save.SaveService;
+import org.apache.jmeter.util.JMeterUtils;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * This class keeps JMeter initialised for the whole process, so that later runs don't pay the setup cost again.
+ * JMeter is set up again only when the JMeter home or its jmeter.properties file has changed, and no run is active:
+ * the JMeter properties are global, so they are never reloaded under a running test.
+ */
+@Slf4j
+public class JMeterRuntime {
+    private static final String PARAM_JMETER_HOME = "jmeterHome";
+    private static final JMeterRuntime INSTANCE = new JMeterRuntime();
+
+    private String jmeterHome;
+    private long propertiesLastModified;
+    private long propertiesLength;
+    private int activeRuns;
+    private boolean changeDeferred;
+
+    private long initCount;
+    private long reuseCount;
+    private long lastInitNanos;
+    private long totalInitNanos;
+
+    private JMeterRuntime() {
+    }
+
+    public static JMeterRuntime getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set up JMeter if it has not been set up yet, or if the JMeter home or jmeter.properties has changed since and
+     * no run is active. Otherwise the change is applied once the active runs have ended.
+     *
+     * @return this runtime, ready to create engines
+     */
+    public synchronized JMeterRuntime ensureInitialized() {
+        String home = System.getProperty(PARAM_JMETER_HOME);
+        Objects.requireNonNull(home, "VM option -DjmeterHome is required. e.g. -DjmeterHome=/test/apache-jmeter-5.5");
+
+        File propertiesFile = new File(home, "bin/jmeter.properties");
+        boolean changed = !home.equals(jmeterHome)
+                || propertiesFile.lastModified() != propertiesLastModified
+                || propertiesFile.length() != propertiesLength;
+        if (changed && jmeterHome != null && activeRuns > 0) {
+            if (!changeDeferred) {
+                changeDeferred = true;
+                log.info("JMeter home or jmeter.properties has changed, JMeter is set up again once the {} active runs "
+                        + "have ended", activeRuns);
+            }
+            changed = false;
+        }
+        if (!changed) {
+            reuseCount++;
+            log.info("JMeter runtime reused, saved about {} ms of startup time", lastInitNanos / 1_000_000);
+            return this;
+        }
+
+        if (jmeterHome != null) {
+            log.info("JMeter home or jmeter.properties has changed, set up JMeter again");
+        }
+        changeDeferred = false;
+        long start = System.nanoTime();
+        setupJMeter(home, propertiesFile);
+        lastInitNanos = System.nanoTime() - start;
+        totalInitNanos += lastInitNanos;
+        initCount++;
+
+        jmeterHome = home;
+        propertiesLastModified = propertiesFile.lastModified();
+        propertiesLength = propertiesFile.length();
+        log.info("JMeter runtime initialised in {} ms", lastInitNanos / 1_000_000);
+        return this;
+    }
+
+    /**
+     * Set up JMeter like ensureInitialized, then count a run as active until release is called, so that JMeter is
+     * not set up again under it
+     *
+     * @return this runtime, ready to create engines
+     */
+    public synchronized JMeterRuntime acquire() {
+        ensureInitialized();
+        activeRuns++;
+        return this;
+    }
+
+    /**
+     * Like acquire, unless another run is active and the run may not share this JVM with it
+     *
+     * @param shared true if the run may run next to the active runs, in this JVM
+     * @return true if the run is counted as active, release must then be called, false if another run is active
+     */
+    public synchronized boolean tryAcquire(boolean shared) {
+        if (activeRuns > 0 && !shared) {
+            return false;
+        }
+        acquire();
+        return true;
+    }
+
+    /**
+     * The run which called acquire has ended
+     */
+    public synchronized void release() {
+        activeRuns--;
+    }
+
+    /**
+     * Create a new engine on top of the initialised JMeter runtime
+     *
+     * @return a new StandardJMeterEngine
+     */
+    public StandardJMeterEngine newEngine() {
+        ensureSetUp();
+        return new StandardJMeterEngine();
+    }
+
+    /**
+     * Set up JMeter if it has never been set up, without checking for changes nor counting a reuse, e.g. for the work
+     * done on behalf of a run which has already called acquire
+     *
+     * @return this runtime
+     */
+    public synchronized JMeterRuntime ensureSetUp() {
+        if (jmeterHome == null) {
+            ensureInitialized();
+        }
+        return this;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(initCount, reuseCount, lastInitNanos / 1_000_000, totalInitNanos / 1_000_000,
+                reuseCount * lastInitNanos / 1_000_000);
+    }
+
+    @SneakyThrows
+    private static void setupJMeter(String jmeterHome, File propertiesFile) {
+        log.info("JMeter home: " + jmeterHome);
+
+        JMeterUtils.loadJMeterProperties(propertiesFile.getPath());
+        JMeterUtils.setJMeterHome(jmeterHome);
+        JMeterUtils.initLocale();
+
+        SaveService.loadProperties();
+    }
+
+    /**
+     * Startup metrics of the runtime. The saved time is estimated with the duration of the last initialisation.
+     */
+    @Value
+    public static class Stats {
+        long initCount;
+        long reuseCount;
+        long lastInitMillis;
+        long totalInitMillis;
+        long estimatedSavedMillis;
+    }
+}
@@ -0,0 +1,271 @@
+package io.github.colinzhu.jmeterwebrunner.distributed;
+
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.Run;
+import io.github.colinzhu.jmeterwebrunner.run.RunContext;
+import io.github.colinzhu.jmeterwebrunner.run.RunOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class runs a test across worker JVMs on the same host, for loads one JVM can't drive because of its GC and
+ * lock contention. It starts the workers, which connect back over a localhost socket, gives each worker its share of
+ * the users, and merges the histogram deltas sent by the workers into the results of the run, so the live metrics and
+ * the summary show the whole load.
+ * <p>
+ * The workers get the JVM options of this process, minus debug agents, plus -DworkerJvmArgs (e.g. "-Xmx2g").
+ * Their output is logged as lines of the run, prefixed with the worker index.
+ */
+@Slf4j
+public class Coordinator {
+    private static final String PARAM_WORKER_JVM_ARGS = "workerJvmArgs";
+    private static final String PARAM_WORKER_START_TIMEOUT_MS = "workerStartTimeoutMs";
+    private static final String RUN_ID_PLACEHOLDER = "{id}";
+
+    private final Run run;
+    private final int workerCount;
+    private final ResultAggregator results;
+    /** the active threads of each worker, written by the reader of each worker */
+    private final AtomicIntegerArray activeThreads;
+
+    public Coordinator(Run run, int workerCount, ResultAggregator results) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("The number of workers must be positive: " + workerCount);
+        }
+        this.run = run;
+        this.workerCount = workerCount;
+        this.results = results;
+        this.activeThreads = new AtomicIntegerArray(workerCount);
+    }
+
+    /**
+     * Run the test on the workers and wait until all of them have ended
+     *
+     * @throws IOException           if a worker can't be started or is lost
+     * @throws IllegalStateException if the run of a worker has failed
+     */
+    public void execute() throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        List<WorkerConnection> connections = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0, workerCount, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(Integer.getInteger(PARAM_WORKER_START_TIMEOUT_MS, 60_000));
+            for (int i = 0; i < workerCount; i++) {
+                processes.add(startWorker(server.getLocalPort(), i));
+            }
+            for (int i = 0; i < workerCount; i++) {
+                Socket socket = server.accept();
+                WorkerConnection connection = new WorkerConnection(socket);
+                connections.add(connection);
+                WorkerProtocol.writeOptions(connection.out, workerOptions(connection.index));
+                connection.reader.start();
+            }
+            log.info("{} workers started", workerCount);
+            awaitWorkers(connections);
+        } finally {
+            for (WorkerConnection connection : connections) {
+                connection.close();
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            results.setActiveThreads(0);
+        }
+        for (WorkerConnection connection : connections) {
+            if (connection.error != null) {
+                throw new IllegalStateException("Worker " + connection.index + " failed: " + connection.error);
+            }
+        }
+    }
+
+    private void awaitWorkers(List<WorkerConnection> connections) throws IOException, InterruptedException {
+        boolean stopSent = false;
+        boolean stopNowSent = false;
+        while (true) {
+            boolean allEnded = true;
+            for (WorkerConnection connection : connections) {
+                allEnded &= !connection.reader.isAlive();
+            }
+            if (allEnded) {
+                return;
+            }
+            if (run.isStopRequested() && (!stopSent || run.isStopNow() && !stopNowSent)) {
+                stopSent = true;
+                stopNowSent = run.isStopNow();
+                for (WorkerConnection connection : connections) {
+                    connection.send(stopNowSent ? WorkerProtocol.STOP_NOW : WorkerProtocol.STOP);
+                }
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private Process startWorker(int port, int index) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!arg.startsWith("-agentlib") && !arg.startsWith("-javaagent") && !arg.startsWith("-Xrunjdwp")
+                    && !arg.startsWith("-Dport=")) {
+                command.add(arg);
+            }
+        }
+        File runLogDir = AsyncRunAppender.getRunLogDir();
+        if (runLogDir != null) {
+            // the run ids of a worker start from 1, its logs go to a directory of its own
+            command.add("-DrunLogDir=" + new File(runLogDir, "run-" + run.getId() + "-worker" + index).getPath());
+        }
+        String workerJvmArgs = System.getProperty(PARAM_WORKER_JVM_ARGS, "").trim();
+        if (!workerJvmArgs.isEmpty()) {
+            for (String arg : workerJvmArgs.split("\\s+")) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(InetAddress.getLoopbackAddress().getHostAddress());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(index));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Thread output = new Thread(() -> relayOutput(process, index, run.getId()), "worker-" + index + "-output");
+        output.setDaemon(true);
+        output.start();
+        return process;
+    }
+
+    /**
+     * Log the output of a worker as lines of the run, so that it goes to the log file of the run and through the
+     * dedup and rate limit of the log pipeline. Each worker has its own logger, so one noisy worker doesn't use up
+     * the rate of the others.
+     */
+    private static void relayOutput(Process process, int index, long runId) {
+        Logger output = LoggerFactory.getLogger(Worker.class.getName() + "." + index);
+        MDC.put(RunContext.MDC_RUN_ID, String.valueOf(runId));
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.info("[worker-{}] {}", index, line);
+            }
+        } catch (IOException e) {
+            // the worker has ended
+        } finally {
+            MDC.remove(RunContext.MDC_RUN_ID);
+        }
+    }
+
+    /**
+     * The options of the run for one worker, the result files of a worker get its own name
+     */
+    private Map<String, String> workerOptions(int index) {
+        Map<String, String> options = new LinkedHashMap<>(run.getOptions().getValues());
+        options.remove(RunOptions.WORKERS);
+        options.put(RunOptions.WORKER_INDEX, String.valueOf(index));
+        options.put(RunOptions.WORKER_COUNT, String.valueOf(workerCount));
+        String suffix = run.getId() + "-worker" + index;
+        for (String key : new String[]{RunOptions.RESULT_FILE, RunOptions.RESULT_DIR}) {
+            String path = options.get(key);
+            if (path != null) {
+                options.put(key, path.contains(RUN_ID_PLACEHOLDER) ? path.replace(RUN_ID_PLACEHOLDER, suffix)
+                        : path + "-worker" + index);
+            }
+        }
+        return options;
+    }
+
+    private class WorkerConnection {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final int index;
+        private final Thread reader;
+        private volatile String error;
+
+        private WorkerConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.index = in.readInt();
+            if (index < 0 || index >= workerCount) {
+                throw new IOException("Unexpected worker index: " + index);
+            }
+            this.reader = new Thread(this::readMessages, "worker-" + index + "-reader");
+            reader.setDaemon(true);
+        }
+
+        private void readMessages() {
+            try {
+                List<LabelStats.Delta> deltas = new ArrayList<>();
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == WorkerProtocol.END) {
+                        String workerError = in.readUTF();
+                        error = workerError.isEmpty() ? null : workerError;
+                        break;
+                    }
+                    if (type != WorkerProtocol.DELTA) {
+                        throw new IOException("Unexpected message type: " + type);
+                    }
+                    deltas.clear();
+                    activeThreads.set(index, WorkerProtocol.readDelta(in, deltas));
+                    for (LabelStats.Delta delta : deltas) {
+                        results.merge(delta);
+                    }
+                    results.setActiveThreads(sum(activeThreads));
+                }
+            } catch (IOException e) {
+                error = "lost the connection, " + e;
+            }
+            activeThreads.set(index, 0);
+            results.setActiveThreads(sum(activeThreads));
+        }
+
+        private synchronized void send(byte command) throws IOException {
+            out.writeByte(command);
+            out.flush();
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private static int sum(AtomicIntegerArray values) {
+        int sum = 0;
+        for (int i = 0; i < values.length(); i++) {
+            sum += values.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.colinzhu.jmeterwebrunner.distributed;
+
+import io.github.colinzhu.jmeterwebrunner.workload.ThreadCount;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jorphan.collections.HashTree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class gives a worker its share of the users of every thread group. The remainder goes to the first workers,
+ * so a setUp thread group with one user runs in the first worker only. The plan is not configured yet, so the
+ * functions of the thread counts, e.g. ${__P(users,10)}, are resolved first (see ThreadCount).
+ */
+public class UserSplit {
+    private UserSplit() {
+    }
+
+    /**
+     * Keep the share of the users of one worker
+     *
+     * @param testPlan    the test plan of the run, already cloned for the run
+     * @param workerIndex zero based index of the worker
+     * @param workerCount number of workers
+     * @return the number of users of this worker
+     * @throws IllegalArgumentException if a thread count is not a number, the plan is left as it is
+     */
+    public static int apply(HashTree testPlan, int workerIndex, int workerCount) {
+        List<AbstractThreadGroup> groups = new ArrayList<>();
+        List<Integer> totals = new ArrayList<>();
+        for (Object element : testPlan.getTree(testPlan.getArray()[0]).list()) {
+            if (element instanceof AbstractThreadGroup) {
+                groups.add((AbstractThreadGroup) element);
+                totals.add(ThreadCount.of((AbstractThreadGroup) element));
+            }
+        }
+        int users = 0;
+        for (int i = 0; i < groups.size(); i++) {
+            int share = share(totals.get(i), workerIndex, workerCount);
+            groups.get(i).setNumThreads(share);
+            users += share;
+        }
+        return users;
+    }
+
+    static int share(int total, int workerIndex, int workerCount) {
+        return total / workerCount + (workerIndex < total % workerCount ? 1 : 0);
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.colinzhu.jmeterwebrunner.distributed;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRunner;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.Run;
+import io.github.colinzhu.jmeterwebrunner.run.RunOptions;
+import io.github.colinzhu.jmeterwebrunner.run.RunStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A worker JVM started by the Coordinator. It connects back to the coordinator, runs its share of the users, and
+ * sends the histogram deltas of its results every second instead of the samples.
+ */
+@Slf4j
+public class Worker {
+    private Worker() {
+    }
+
+    /**
+     * Start a worker
+     *
+     * @param args coordinator host, coordinator port, worker index
+     */
+    public static void main(String[] args) {
+        int exitCode = 0;
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeInt(Integer.parseInt(args[2]));
+            out.flush();
+            Run run = JMeterRunner.getScheduler().submit(RunOptions.of(WorkerProtocol.readOptions(in)));
+
+            Thread commands = new Thread(() -> readCommands(in, run), "worker-commands");
+            commands.setDaemon(true);
+            commands.start();
+
+            while (!run.getStatus().isFinished()) {
+                try {
+                    run.getCompletion().get(1, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    // send a delta every second
+                }
+                sendDelta(out, run);
+            }
+            WorkerProtocol.writeEnd(out, run.getStatus() == RunStatus.FAILED ? run.getError() : null);
+        } catch (Exception e) {
+            log.error("Worker failed", e);
+            exitCode = 1;
+        }
+        System.exit(exitCode); // the threads of JMeter must not keep the worker alive
+    }
+
+    private static void sendDelta(DataOutputStream out, Run run) throws IOException {
+        ResultAggregator results = run.getResults();
+        if (results == null) {
+            WorkerProtocol.writeDelta(out, 0, Collections.emptyList());
+        } else {
+            WorkerProtocol.writeDelta(out, results.getActiveThreads(), results.deltas());
+        }
+    }
+
+    private static void readCommands(DataInputStream in, Run run) {
+        try {
+            while (true) {
+                byte command = in.readByte();
+                JMeterRunner.getScheduler().stop(run.getId(), command == WorkerProtocol.STOP_NOW);
+            }
+        } catch (IOException e) {
+            if (!run.getStatus().isFinished()) {
+                log.warn("Lost the coordinator, stopping the run now");
+                JMeterRunner.getScheduler().stop(run.getId(), true);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.colinzhu.jmeterwebrunner.distributed;
+
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import org.HdrHistogram.Histogram;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * The messages between the coordinator and its workers, over a localhost socket:
+ * <ul>
+ *     <li>worker to coordinator, once: the worker index</li>
+ *     <li>coordinator to worker, once: the run options of the worker</li>
+ *     <li>coordinator to worker, any time: STOP or STOP_NOW</li>
+ *     <li>worker to coordinator, every second: DELTA with the active threads and the histogram deltas per label</li>
+ *     <li>worker to coordinator, last: END with the error of the run, empty if it succeeded</li>
+ * </ul>
+ * The histograms are sent in the compressed HdrHistogram encoding, a label is a few hundred bytes per second no
+ * matter how many samples it had. A label without corrected latencies sends an empty corrected histogram, of length 0.
+ */
+final class WorkerProtocol {
+    static final byte STOP = 1;
+    static final byte STOP_NOW = 2;
+    static final byte DELTA = 1;
+    static final byte END = 2;
+    private static final long HIGHEST_TRACKABLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private WorkerProtocol() {
+    }
+
+    static void writeOptions(DataOutputStream out, Map<String, String> options) throws IOException {
+        out.writeInt(options.size());
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            out.writeUTF(option.getKey());
+            out.writeUTF(option.getValue());
+        }
+        out.flush();
+    }
+
+    static Map<String, String> readOptions(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            options.put(in.readUTF(), in.readUTF());
+        }
+        return options;
+    }
+
+    static void writeDelta(DataOutputStream out, int activeThreads, List<LabelStats.Delta> deltas) throws IOException {
+        out.writeByte(DELTA);
+        out.writeInt(activeThreads);
+        out.writeInt(deltas.size());
+        for (LabelStats.Delta delta : deltas) {
+            out.writeUTF(delta.getLabel());
+            out.writeLong(delta.getCount());
+            out.writeLong(delta.getErrors());
+            out.writeLong(delta.getBytes());
+            writeHistogram(out, delta.getElapsed());
+            writeHistogram(out, delta.getCorrected());
+        }
+        out.flush();
+    }
+
+    /**
+     * Read the body of a DELTA message
+     *
+     * @param in     the stream of the worker
+     * @param deltas receives the deltas per label
+     * @return the active threads of the worker
+     */
+    static int readDelta(DataInputStream in, List<LabelStats.Delta> deltas) throws IOException {
+        int activeThreads = in.readInt();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            deltas.add(new LabelStats.Delta(in.readUTF(), in.readLong(), in.readLong(), in.readLong(),
+                    readHistogram(in), readHistogram(in)));
+        }
+        return activeThreads;
+    }
+
+    static void writeEnd(DataOutputStream out, String error) throws IOException {
+        out.writeByte(END);
+        out.writeUTF(error == null ? "" : error);
+        out.flush();
+    }
+
+    private static void writeHistogram(DataOutputStream out, Histogram histogram) throws IOException {
+        if (histogram == null) {
+            out.writeInt(0);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer, Deflater.BEST_SPEED);
+        out.writeInt(length);
+        out.write(buffer.array(), 0, length);
+    }
+
+    private static Histogram readHistogram(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        if (bytes.length == 0) {
+            return null;
+        }
+        in.readFully(bytes);
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), HIGHEST_TRACKABLE_MILLIS);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid histogram from worker", e);
+        }
+    }
+}
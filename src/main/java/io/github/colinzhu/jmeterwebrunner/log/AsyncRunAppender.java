@@ -0,0 +1,348 @@
+package io.github.colinzhu.jmeterwebrunner.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import io.github.colinzhu.jmeterwebrunner.run.RunContext;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This appender takes the log events off the threads which log them, e.g. the samplers of a run, so that logging
+ * never blocks them. The events go to a bounded queue, and one dispatcher thread hands them to the attached
+ * appenders (e.g. the console) and to the sinks: the log file of the run, and the web console, which gets every
+ * line tagged with its run id. The run id is taken from the MDC, see RunContext.
+ * <p>
+ * When the queue is full, events are dropped and counted per run, according to dropPolicy:
+ * <ul>
+ *     <li>newest - the new event is dropped</li>
+ *     <li>oldest - the oldest queued event is dropped to make room</li>
+ *     <li>info - once the queue is 80% full, the INFO, DEBUG and TRACE events are dropped, WARN and ERROR events
+ *     are dropped only when the queue is full</li>
+ * </ul>
+ * The files of the runs are written to runLogDir, no file is written when it's empty.
+ * <p>
+ * Before being written, the events go through a LogThrottle: a message repeated within dedupWindowMs is written once
+ * and then as one "xN" summary line, and each logger may write at most rateLimit events per second, plus as many
+ * warnings and errors, the others are counted in a summary line. 0 disables either of them.
+ */
+public class AsyncRunAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+    private static final List<RunLogSink> SINKS = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<String, LongAdder> DROPPED_PER_RUN = new ConcurrentHashMap<>();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile RunLogFiles runLogFiles;
+    private static volatile File runLogDirectory;
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private int queueSize = 16384;
+    private String dropPolicy = "newest";
+    private String pattern = "%d %-5level %logger{36} - %msg";
+    private String runLogDir = "";
+    private long dedupWindowMs = 1000;
+    private double rateLimit = 200;
+    private ArrayBlockingQueue<ILoggingEvent> queue;
+    private int infoThreshold;
+    private PatternLayout layout;
+    private LogThrottle throttle;
+    private long lastExpire;
+    private Dispatcher dispatcher;
+    /** the dispatcher runs until this is false, then writes what is still queued */
+    private volatile boolean dispatching;
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setDropPolicy(String dropPolicy) {
+        this.dropPolicy = dropPolicy.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public void setRunLogDir(String runLogDir) {
+        this.runLogDir = runLogDir.trim();
+    }
+
+    public void setDedupWindowMs(long dedupWindowMs) {
+        this.dedupWindowMs = dedupWindowMs;
+    }
+
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Add a sink, e.g. the web console, it gets all the lines logged from now on
+     */
+    public static void addSink(RunLogSink sink) {
+        SINKS.add(sink);
+    }
+
+    public static void removeSink(RunLogSink sink) {
+        SINKS.remove(sink);
+    }
+
+    /**
+     * @return the directory of the log files of the runs, or null if they are not written to files
+     */
+    public static File getRunLogDir() {
+        return runLogDirectory;
+    }
+
+    /**
+     * @return the log file of the run, or null if the logs of the runs are not written to files
+     */
+    public static File getRunLogFile(long runId) {
+        File dir = runLogDirectory;
+        return dir == null ? null : RunLogFiles.file(dir, String.valueOf(runId));
+    }
+
+    /**
+     * Tell the sinks that a run has ended, its log file is closed once its last lines are written
+     *
+     * @return the number of log events of the run which were dropped
+     */
+    public static long runEnded(long runId) {
+        String id = String.valueOf(runId);
+        RunLogFiles files = runLogFiles;
+        if (files != null) {
+            files.runEnded(id);
+        }
+        LongAdder dropped = DROPPED_PER_RUN.remove(id);
+        return dropped == null ? 0 : dropped.sum();
+    }
+
+    /**
+     * @return the number of log events dropped since the start of the process
+     */
+    public static long getDroppedEvents() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * @return true if the current thread is the dispatcher, e.g. to avoid relaying its console output again
+     */
+    public static boolean isDispatcherThread() {
+        return Thread.currentThread() instanceof Dispatcher;
+    }
+
+    /**
+     * Stop logback, the queued events are written first. Called on exit once nothing logs any more, e.g. after the
+     * runs were stopped, instead of a logback shutdown hook which would run at the same time as the other hooks.
+     */
+    public static void stopLogging() {
+        ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+        if (factory instanceof LoggerContext) {
+            ((LoggerContext) factory).stop();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!"newest".equals(dropPolicy) && !"oldest".equals(dropPolicy) && !"info".equals(dropPolicy)) {
+            addError("Invalid dropPolicy " + dropPolicy + ", it must be newest, oldest or info");
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(Math.max(queueSize, 16));
+        infoThreshold = queue.remainingCapacity() * 4 / 5;
+        layout = new PatternLayout();
+        layout.setContext(getContext());
+        layout.setPattern(pattern);
+        layout.start();
+        throttle = new LogThrottle(dedupWindowMs, rateLimit);
+        if (!runLogDir.isEmpty()) {
+            runLogDirectory = new File(runLogDir);
+            runLogFiles = new RunLogFiles(runLogDirectory);
+            SINKS.add(runLogFiles);
+        }
+        super.start();
+        dispatching = true;
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        // the dispatcher sees the flag within a poll, it's not interrupted: an interrupt during a write would close
+        // the file channel of a run log, and its last lines would be lost
+        super.stop();
+        dispatching = false;
+        boolean interrupted = false;
+        while (dispatcher.isAlive()) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (runLogFiles != null) {
+            SINKS.remove(runLogFiles);
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if ("info".equals(dropPolicy) && queue.size() >= infoThreshold && !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            drop(event);
+            return;
+        }
+        event.prepareForDeferredProcessing();
+        if (queue.offer(event)) {
+            return;
+        }
+        if ("oldest".equals(dropPolicy)) {
+            ILoggingEvent oldest = queue.poll();
+            if (oldest != null) {
+                drop(oldest);
+            }
+            if (queue.offer(event)) {
+                return;
+            }
+        }
+        drop(event);
+    }
+
+    private static void drop(ILoggingEvent event) {
+        DROPPED.increment();
+        String runId = event.getMDCPropertyMap().get(RunContext.MDC_RUN_ID);
+        if (runId != null) {
+            DROPPED_PER_RUN.computeIfAbsent(runId, id -> new LongAdder()).increment();
+        }
+    }
+
+    private void dispatch(List<ILoggingEvent> batch) {
+        long now = System.currentTimeMillis();
+        for (ILoggingEvent event : batch) {
+            if (throttle.accept(event, now)) {
+                write(event);
+            }
+        }
+    }
+
+    private void writeSummaries(boolean all) {
+        long now = System.currentTimeMillis();
+        if (!all && now - lastExpire < 100) {
+            return;
+        }
+        lastExpire = now;
+        List<ILoggingEvent> summaries = new ArrayList<>();
+        throttle.expire(now, all, summaries);
+        for (ILoggingEvent summary : summaries) {
+            write(summary);
+        }
+    }
+
+    private void write(ILoggingEvent event) {
+        appenders.appendLoopOnAppenders(event);
+        if (!SINKS.isEmpty()) {
+            String runId = event.getMDCPropertyMap().get(RunContext.MDC_RUN_ID);
+            String line = layout.doLayout(event);
+            for (RunLogSink sink : SINKS) {
+                sink.write(runId, line);
+            }
+        }
+    }
+
+    private void flushSinks() {
+        for (RunLogSink sink : SINKS) {
+            sink.flush();
+        }
+    }
+
+    private class Dispatcher extends Thread {
+        private Dispatcher() {
+            super("log-dispatcher");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<ILoggingEvent> batch = new ArrayList<>(1024);
+            while (dispatching) {
+                try {
+                    ILoggingEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, 1023);
+                        dispatch(batch);
+                        batch.clear();
+                    }
+                    writeSummaries(false);
+                    flushSinks();
+                } catch (InterruptedException e) {
+                    // only the stop of the appender ends the dispatcher, the interrupt status is cleared
+                } catch (RuntimeException e) {
+                    addError("Failed to dispatch the log events", e);
+                    batch.clear();
+                }
+            }
+            // the appender is stopped, write what is still queued
+            Thread.interrupted(); // e.g. an interrupt during the last write
+            queue.drainTo(batch);
+            dispatch(batch);
+            writeSummaries(true);
+            flushSinks();
+        }
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
@@ -0,0 +1,189 @@
+package io.github.colinzhu.jmeterwebrunner.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import io.github.colinzhu.jmeterwebrunner.run.RunContext;
+import lombok.Value;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This stage of the AsyncRunAppender keeps error storms out of the console and the browsers, without losing count.
+ * <ul>
+ *     <li>The same message (same run, logger, level, text and exception) repeated within a window is written once,
+ *     the repeats are counted and written as one "xN" summary line at the end of the window, or as the line itself
+ *     if it was repeated once</li>
+ *     <li>Every logger has a token bucket of ratePerSecond events, with a burst of one second, and another one for its
+ *     warnings and errors, so that a flood of INFO lines doesn't hide them. The events beyond it are counted, and a
+ *     summary line per logger, run and bucket tells how many were suppressed</li>
+ * </ul>
+ * It's only used by the dispatcher thread.
+ */
+class LogThrottle {
+    /** beyond it, new messages are not deduplicated until the window ends */
+    private static final int MAX_REPEATS = 10000;
+
+    private final long windowMillis;
+    private final double ratePerSecond;
+    private final Map<RepeatKey, Repeat> repeats = new HashMap<>();
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Map<String, Bucket> warningBuckets = new HashMap<>();
+    private final Map<RepeatKey, Suppressed> suppressed = new HashMap<>();
+
+    /**
+     * @param windowMillis  0 disables the deduplication
+     * @param ratePerSecond 0 disables the rate limits
+     */
+    LogThrottle(long windowMillis, double ratePerSecond) {
+        this.windowMillis = windowMillis;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    /**
+     * @return true if the event is written, false if it's counted in a summary
+     */
+    boolean accept(ILoggingEvent event, long now) {
+        if (windowMillis > 0) {
+            RepeatKey key = new RepeatKey(event.getMDCPropertyMap().get(RunContext.MDC_RUN_ID), event.getLoggerName(),
+                    event.getLevel(), event.getFormattedMessage(), describe(event.getThrowableProxy()));
+            Repeat repeat = repeats.get(key);
+            if (repeat != null) {
+                repeat.count++;
+                repeat.last = event;
+                return false;
+            }
+            if (repeats.size() < MAX_REPEATS) {
+                repeats.put(key, new Repeat(event, now));
+            }
+        }
+        if (ratePerSecond > 0) {
+            boolean warning = event.getLevel().isGreaterOrEqual(Level.WARN);
+            Bucket bucket = (warning ? warningBuckets : buckets).computeIfAbsent(event.getLoggerName(),
+                    name -> new Bucket(ratePerSecond, now));
+            if (!bucket.take(ratePerSecond, now)) {
+                String runId = event.getMDCPropertyMap().get(RunContext.MDC_RUN_ID);
+                suppressed.computeIfAbsent(new RepeatKey(runId, event.getLoggerName(), warning ? Level.WARN : null,
+                        null, null), key -> new Suppressed(event, now)).count++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the summary lines of the ended windows, or the repeat itself of a message repeated once, and forget the
+     * messages which were not repeated
+     *
+     * @param all true to end all the windows, e.g. when the appender stops
+     */
+    void expire(long now, boolean all, List<ILoggingEvent> summaries) {
+        Iterator<Repeat> it = repeats.values().iterator();
+        while (it.hasNext()) {
+            Repeat repeat = it.next();
+            if (!all && now - repeat.windowStart < windowMillis) {
+                continue;
+            }
+            if (repeat.count == 0) {
+                it.remove();
+                continue;
+            }
+            // the message is still repeated, its next occurrences only go to the next summary
+            if (repeat.count == 1) {
+                summaries.add(repeat.last);
+            } else {
+                IThrowableProxy throwable = repeat.first.getThrowableProxy();
+                summaries.add(summary(repeat.first, now, "x" + repeat.count + " in the last "
+                        + (now - repeat.windowStart) + " ms: " + repeat.first.getFormattedMessage()
+                        + (throwable == null ? "" : " " + describe(throwable))));
+            }
+            repeat.count = 0;
+            repeat.last = null;
+            repeat.windowStart = now;
+        }
+        Iterator<Suppressed> suppressedIt = suppressed.values().iterator();
+        while (suppressedIt.hasNext()) {
+            Suppressed s = suppressedIt.next();
+            if (all || now - s.since >= 1000) {
+                String events = s.first.getLevel().isGreaterOrEqual(Level.WARN) ? " warnings and errors of " : " events of ";
+                summaries.add(summary(s.first, now, s.count + events + s.first.getLoggerName()
+                        + " suppressed in the last " + (now - s.since) + " ms, over the rate limit of "
+                        + (long) ratePerSecond + "/s"));
+                suppressedIt.remove();
+            }
+        }
+    }
+
+    private static String describe(IThrowableProxy throwable) {
+        return throwable == null ? null : throwable.getClassName() + ": " + throwable.getMessage();
+    }
+
+    private static ILoggingEvent summary(ILoggingEvent first, long now, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerName(first.getLoggerName());
+        event.setLevel(first.getLevel());
+        event.setThreadName(first.getThreadName());
+        event.setMDCPropertyMap(first.getMDCPropertyMap());
+        event.setLoggerContextRemoteView(first.getLoggerContextVO());
+        event.setCallerData(new StackTraceElement[0]);
+        event.setTimeStamp(now);
+        event.setMessage(message);
+        return event;
+    }
+
+    @Value
+    private static class RepeatKey {
+        String runId;
+        String logger;
+        Level level;
+        String message;
+        String throwable;
+    }
+
+    private static class Repeat {
+        private final ILoggingEvent first;
+        private ILoggingEvent last;
+        private long windowStart;
+        private long count;
+
+        private Repeat(ILoggingEvent first, long windowStart) {
+            this.first = first;
+            this.windowStart = windowStart;
+        }
+    }
+
+    private static class Suppressed {
+        private final ILoggingEvent first;
+        private final long since;
+        private long count;
+
+        private Suppressed(ILoggingEvent first, long since) {
+            this.first = first;
+            this.since = since;
+        }
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefill = now;
+        }
+
+        private boolean take(double ratePerSecond, long now) {
+            tokens = Math.min(ratePerSecond, tokens + (now - lastRefill) * ratePerSecond / 1000);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.colinzhu.jmeterwebrunner.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This sink writes the logs of every run to its own file, DIR/run-ID.log. A file is closed when its run has ended
+ * and no line came for a few seconds, a late line opens it again in append mode.
+ */
+class RunLogFiles implements RunLogSink {
+    private static final long IDLE_MILLIS = 5000;
+
+    private final File dir;
+    private final Map<String, OpenFile> files = new HashMap<>();
+    /** the runs written by this process, the file of an earlier process with the same run id is overwritten */
+    private final Set<String> writtenRuns = new HashSet<>();
+    /** run id to end time */
+    private final Map<String, Long> endedRuns = new ConcurrentHashMap<>();
+
+    RunLogFiles(File dir) {
+        this.dir = dir;
+    }
+
+    static File file(File dir, String runId) {
+        return new File(dir, "run-" + runId + ".log");
+    }
+
+    void runEnded(String runId) {
+        endedRuns.put(runId, System.currentTimeMillis());
+    }
+
+    @Override
+    public void write(String runId, String line) {
+        if (runId == null) {
+            return;
+        }
+        OpenFile file = files.get(runId);
+        try {
+            if (file == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Can't create the directory " + dir);
+                }
+                StandardOpenOption mode = writtenRuns.add(runId)
+                        ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND;
+                file = new OpenFile(Files.newBufferedWriter(file(dir, runId).toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode));
+                files.put(runId, file);
+            }
+            file.writer.write(line);
+            file.writer.write('\n');
+            file.lastWrite = System.currentTimeMillis();
+        } catch (IOException e) {
+            // logging it would come back here
+            System.err.println("Failed to write the log of run " + runId + ": " + e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, OpenFile>> it = files.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, OpenFile> entry = it.next();
+            boolean close = endedRuns.containsKey(entry.getKey()) && now - entry.getValue().lastWrite > IDLE_MILLIS;
+            try {
+                if (close) {
+                    entry.getValue().writer.close();
+                    it.remove();
+                } else {
+                    entry.getValue().writer.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write the log of run " + entry.getKey() + ": " + e);
+            }
+        }
+        // an ended run can still have a few late lines, its file is closed again by the loop above
+        endedRuns.entrySet().removeIf(e -> !files.containsKey(e.getKey()) && now - e.getValue() > IDLE_MILLIS * 12);
+    }
+
+    private static class OpenFile {
+        private final Writer writer;
+        private long lastWrite;
+
+        private OpenFile(BufferedWriter writer) {
+            this.writer = writer;
+        }
+    }
+}
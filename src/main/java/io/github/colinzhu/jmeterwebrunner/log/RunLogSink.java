@@ -0,0 +1,18 @@
+package io.github.colinzhu.jmeterwebrunner.log;
+
+/**
+ * Receives the formatted log lines from the AsyncRunAppender, on its dispatcher thread
+ */
+public interface RunLogSink {
+    /**
+     * @param runId the run which logged the line, or null for the logs outside of runs
+     * @param line  the formatted line, without line separator
+     */
+    void write(String runId, String line);
+
+    /**
+     * Called after each batch of lines, and about once per second when idle
+     */
+    default void flush() {
+    }
+}
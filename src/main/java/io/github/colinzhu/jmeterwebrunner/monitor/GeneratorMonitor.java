@@ -0,0 +1,240 @@
+package io.github.colinzhu.jmeterwebrunner.monitor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class watches the load generator itself while runs are active, so that a saturated generator is not taken
+ * for a slow system under test. Every second it samples the process CPU, the GC time, the allocation rate, the
+ * number of threads, and the scheduling lag: a thread sleeps 10 ms in a loop and measures how late it wakes up.
+ * <p>
+ * The generator is the bottleneck when the process CPU is above -DmonitorCpuPercent (90 by default), the machine
+ * CPU above -DmonitorSystemCpuPercent (95), the GC time above -DmonitorGcPercent (10) or the scheduling lag above
+ * -DmonitorLagMs (50). After 3 such seconds in a row a warning is logged, it's shown in the web console.
+ * <p>
+ * The monitor thread ends when the last run is unwatched, and starts again with fresh baselines for the next run.
+ */
+@Slf4j
+public class GeneratorMonitor {
+    private static final GeneratorMonitor INSTANCE = new GeneratorMonitor();
+    private static final long SLEEP_MILLIS = 10;
+    private static final int WARNING_SECONDS = 3;
+
+    private final double cpuThreshold = Double.parseDouble(System.getProperty("monitorCpuPercent", "90"));
+    private final double systemCpuThreshold = Double.parseDouble(System.getProperty("monitorSystemCpuPercent", "95"));
+    private final double gcThreshold = Double.parseDouble(System.getProperty("monitorGcPercent", "10"));
+    private final long lagThreshold = Long.getLong("monitorLagMs", 50L);
+
+    private final CopyOnWriteArrayList<GeneratorReport> reports = new CopyOnWriteArrayList<>();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private Thread thread;
+    /** the monitor thread which was asked to end, the next one starts once it has ended */
+    private Thread stoppingThread;
+    private volatile GeneratorSample latest;
+
+    // used by the monitor thread only
+    private long lastNanos;
+    private long lastCpuNanos;
+    private long lastGcMillis;
+    private Map<Long, Long> lastAllocatedBytes = new HashMap<>();
+    private int saturatedInRow;
+    private int normalInRow;
+    private boolean warned;
+
+    private GeneratorMonitor() {
+    }
+
+    public static GeneratorMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start watching for a run, until unwatch() is called
+     *
+     * @return the report of the run
+     */
+    public synchronized GeneratorReport watch() {
+        GeneratorReport report = new GeneratorReport();
+        reports.add(report);
+        if (thread == null) {
+            awaitStopped();
+            thread = new Thread(this::monitorLoop, "generator-monitor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return report;
+    }
+
+    public synchronized void unwatch(GeneratorReport report) {
+        reports.remove(report);
+        if (reports.isEmpty() && thread != null) {
+            thread.interrupt();
+            stoppingThread = thread;
+            thread = null;
+        }
+    }
+
+    /**
+     * @return the last sample, or null when no run is active
+     */
+    public GeneratorSample getLatest() {
+        return reports.isEmpty() ? null : latest;
+    }
+
+    private void awaitStopped() {
+        if (stoppingThread == null) {
+            return;
+        }
+        try {
+            stoppingThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stoppingThread = null;
+    }
+
+    private void monitorLoop() {
+        saturatedInRow = 0;
+        normalInRow = 0;
+        warned = false;
+        lastNanos = System.nanoTime();
+        lastCpuNanos = processCpuNanos();
+        lastGcMillis = gcMillis();
+        lastAllocatedBytes = allocatedBytes();
+        long maxLagNanos = 0;
+        while (true) {
+            long beforeSleep = System.nanoTime();
+            try {
+                Thread.sleep(SLEEP_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            maxLagNanos = Math.max(maxLagNanos, now - beforeSleep - TimeUnit.MILLISECONDS.toNanos(SLEEP_MILLIS));
+            if (now - lastNanos >= TimeUnit.SECONDS.toNanos(1)) {
+                try {
+                    sample(now, maxLagNanos);
+                } catch (Exception e) {
+                    log.warn("Failed to sample the load generator", e);
+                }
+                maxLagNanos = 0;
+            }
+        }
+    }
+
+    private void sample(long now, long maxLagNanos) {
+        double seconds = (now - lastNanos) / 1e9;
+        long cpuNanos = processCpuNanos();
+        long gc = gcMillis();
+        Map<Long, Long> allocated = allocatedBytes();
+        long allocatedDelta = 0;
+        for (Map.Entry<Long, Long> entry : allocated.entrySet()) {
+            allocatedDelta += entry.getValue() - lastAllocatedBytes.getOrDefault(entry.getKey(), 0L);
+        }
+
+        double cpuPercent = cpuNanos < 0 ? 0 : (cpuNanos - lastCpuNanos) / 1e9 / seconds / cores * 100;
+        double systemCpuPercent = systemCpuPercent();
+        double gcPercent = (gc - lastGcMillis) / 10.0 / seconds;
+        long lagMillis = TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+        List<String> reasons = new ArrayList<>();
+        if (cpuPercent > cpuThreshold) {
+            reasons.add(String.format("process CPU %.0f%% > %.0f%%", cpuPercent, cpuThreshold));
+        }
+        if (systemCpuPercent > systemCpuThreshold) {
+            reasons.add(String.format("machine CPU %.0f%% > %.0f%%", systemCpuPercent, systemCpuThreshold));
+        }
+        if (gcPercent > gcThreshold) {
+            reasons.add(String.format("GC %.0f%% > %.0f%%", gcPercent, gcThreshold));
+        }
+        if (lagMillis > lagThreshold) {
+            reasons.add(String.format("scheduling lag %d ms > %d ms", lagMillis, lagThreshold));
+        }
+        GeneratorSample sample = new GeneratorSample(System.currentTimeMillis(), round(cpuPercent),
+                round(systemCpuPercent), round(gcPercent), round(allocatedDelta / 1048576.0 / seconds),
+                threads.getThreadCount(), lagMillis, String.join(", ", reasons));
+
+        lastNanos = now;
+        lastCpuNanos = cpuNanos;
+        lastGcMillis = gc;
+        lastAllocatedBytes = allocated;
+        latest = sample;
+        for (GeneratorReport report : reports) {
+            report.add(sample);
+        }
+        warnOnChange(sample);
+    }
+
+    private void warnOnChange(GeneratorSample sample) {
+        if (sample.isSaturated()) {
+            saturatedInRow++;
+            normalInRow = 0;
+        } else {
+            normalInRow++;
+            saturatedInRow = 0;
+        }
+        if (!warned && saturatedInRow >= WARNING_SECONDS && !reports.isEmpty()) {
+            warned = true;
+            log.warn("The load generator is the bottleneck: {}. The measured latencies now include the generator's "
+                    + "own delays, reduce the load or use a bigger machine", sample.getSaturation());
+        } else if (warned && normalInRow >= WARNING_SECONDS) {
+            warned = false;
+            log.info("The load generator is no longer the bottleneck");
+        }
+    }
+
+    private long processCpuNanos() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("deprecation") // getCpuLoad() replaces it on JDK 14+, the build targets Java 1.8
+    private double systemCpuPercent() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+            return load < 0 ? -1 : round(load * 100);
+        }
+        return -1;
+    }
+
+    private long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(collector.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    private Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = sunThreads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    allocated.put(ids[i], bytes[i]);
+                }
+            }
+        }
+        return allocated;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.colinzhu.jmeterwebrunner.monitor;
+
+import lombok.Getter;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The load of the load generator during one run: the peaks, and for how many seconds the generator itself was
+ * the bottleneck
+ */
+@Getter
+public class GeneratorReport {
+    private long seconds;
+    private long saturatedSeconds;
+    private double maxCpuPercent;
+    private double maxGcPercent;
+    private double maxAllocationMbPerSecond;
+    private int maxThreads;
+    private long maxSchedulingLagMillis;
+    private final Set<String> saturations = new LinkedHashSet<>();
+
+    synchronized void add(GeneratorSample sample) {
+        seconds++;
+        maxCpuPercent = Math.max(maxCpuPercent, sample.getCpuPercent());
+        maxGcPercent = Math.max(maxGcPercent, sample.getGcPercent());
+        maxAllocationMbPerSecond = Math.max(maxAllocationMbPerSecond, sample.getAllocationMbPerSecond());
+        maxThreads = Math.max(maxThreads, sample.getThreads());
+        maxSchedulingLagMillis = Math.max(maxSchedulingLagMillis, sample.getSchedulingLagMillis());
+        if (sample.isSaturated()) {
+            saturatedSeconds++;
+            for (String reason : sample.getSaturation().split(", ")) {
+                saturations.add(reason.replaceAll(" \\d.*", "")); // "GC 12% > 10%" -> "GC"
+            }
+        }
+    }
+
+    public synchronized boolean isSaturated() {
+        return saturatedSeconds > 0;
+    }
+
+    public synchronized String format() {
+        String peaks = String.format("Load generator peaks: CPU %.0f%%, GC %.0f%%, allocation %.0f MB/s, threads %d, "
+                        + "scheduling lag %d ms", maxCpuPercent, maxGcPercent, maxAllocationMbPerSecond, maxThreads,
+                maxSchedulingLagMillis);
+        if (saturatedSeconds == 0) {
+            return peaks;
+        }
+        return String.format("WARNING: the load generator was the bottleneck during %d of %d s (%s), the latencies of "
+                + "that time include the generator's own delays.%n%s", saturatedSeconds, seconds,
+                String.join(", ", saturations), peaks);
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.colinzhu.jmeterwebrunner.monitor;
+
+import lombok.Value;
+
+/**
+ * The load of the load generator itself during one second
+ */
+@Value
+public class GeneratorSample {
+    long time;
+    /**
+     * CPU used by this process, in percent of all the cores
+     */
+    double cpuPercent;
+    /**
+     * CPU used by the whole machine, in percent of all the cores, or -1 if not available
+     */
+    double systemCpuPercent;
+    /**
+     * time spent in garbage collections, in percent of the second
+     */
+    double gcPercent;
+    double allocationMbPerSecond;
+    int threads;
+    /**
+     * the longest delay of a 10 ms sleep past its intended wake-up time
+     */
+    long schedulingLagMillis;
+    /**
+     * why the generator is the bottleneck, or empty if it's not
+     */
+    String saturation;
+
+    public boolean isSaturated() {
+        return !saturation.isEmpty();
+    }
+}
@@ -0,0 +1,203 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.engine.TreeCloner;
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * This class caches the loaded test plans, so that an unchanged JMX file is not parsed again for every run.
+ * A plan is keyed by its file path and validated with the file's modified time, size and content hash.
+ * Every caller gets its own deep clone of the cached tree, because the engine modifies the tree it runs, only the
+ * readers which don't change it, e.g. the PlanValidator, read the cached tree itself.
+ * The cache is bounded by the number of plans and by their estimated memory size, the least recently used
+ * plans are evicted first.
+ */
+@Slf4j
+public class PlanCache {
+    /** A converted tree takes a few times the size of its JMX file on the heap */
+    private static final int WEIGHT_PER_JMX_BYTE = 4;
+
+    private final PlanLoader loader;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    public PlanCache(PlanLoader loader, int maxEntries, long maxWeightBytes) {
+        this.loader = loader;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeightBytes;
+    }
+
+    /**
+     * Get the test plan of the JMX file, load it only when it's not cached or has changed
+     *
+     * @param jmxFile JMX file name
+     * @return a deep clone of the cached test plan
+     */
+    public HashTree get(String jmxFile) {
+        return deepClone(lookup(jmxFile, true));
+    }
+
+    /**
+     * Read the cached test plan of the JMX file without cloning it, e.g. to validate it, load it only when it's not
+     * cached or has changed. It's not counted as a hit, the run which follows gets the plan.
+     *
+     * @param jmxFile JMX file name
+     * @param reader  reads the plan, it must not change it, other threads may clone it at the same time
+     * @return the result of the reader
+     */
+    public <T> T read(String jmxFile, Function<HashTree, T> reader) {
+        return reader.apply(lookup(jmxFile, false));
+    }
+
+    @SneakyThrows
+    private HashTree lookup(String jmxFile, boolean countHit) {
+        File file = new File(jmxFile).getCanonicalFile();
+        String key = file.getPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.isSameFile(lastModified, length)) {
+            return hit(key, entry, countHit);
+        }
+
+        String hash = hash(file);
+        if (entry != null && entry.hash.equals(hash)) {
+            entry.touch(lastModified, length);
+            return hit(key, entry, countHit);
+        }
+
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        HashTree tree = loader.load(file, hash);
+        long elapsed = System.nanoTime() - start;
+        loadNanos.addAndGet(elapsed);
+        log.info("Plan cache miss, loaded {} in {} ms", key, elapsed / 1_000_000);
+
+        put(key, new Entry(tree, hash, lastModified, length, length * WEIGHT_PER_JMX_BYTE));
+        return tree;
+    }
+
+    /**
+     * Remove the cached plan of the JMX file, e.g. when the file is deleted
+     *
+     * @param jmxFile JMX file name
+     */
+    @SneakyThrows
+    public synchronized void invalidate(String jmxFile) {
+        Entry removed = entries.remove(new File(jmxFile).getCanonicalPath());
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), weight,
+                loadNanos.get() / 1_000_000);
+    }
+
+    private HashTree hit(String key, Entry entry, boolean count) {
+        if (count) {
+            hits.incrementAndGet();
+            log.info("Plan cache hit: {}", key);
+        }
+        return entry.tree;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += entry.weight;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && entries.size() > 1) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            eldest.remove();
+            weight -= evicted.getValue().weight;
+            evictions.incrementAndGet();
+            log.info("Plan cache evicted: {}", evicted.getKey());
+        }
+    }
+
+    private static HashTree deepClone(HashTree tree) {
+        TreeCloner cloner = new TreeCloner(false);
+        tree.traverse(cloner);
+        return cloner.getClonedTree();
+    }
+
+    @SneakyThrows
+    static String hash(File file) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static class Entry {
+        private final HashTree tree;
+        private final String hash;
+        private final long weight;
+        private volatile long lastModified;
+        private volatile long length;
+
+        private Entry(HashTree tree, String hash, long lastModified, long length, long weight) {
+            this.tree = tree;
+            this.hash = hash;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.weight = weight;
+        }
+
+        private boolean isSameFile(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+
+        private void touch(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    @Value
+    public static class Stats {
+        long hits;
+        long misses;
+        long evictions;
+        int entries;
+        long weightBytes;
+        long totalLoadMillis;
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.File;
+
+/**
+ * Loads a JMX file as a test plan which is ready to be configured into an engine
+ */
+@FunctionalInterface
+public interface PlanLoader {
+    HashTree load(File jmxFile) throws Exception;
+
+    /**
+     * @param hash the SHA-256 of the JMX file, already computed by the caller
+     */
+    default HashTree load(File jmxFile, String hash) throws Exception {
+        return load(jmxFile);
+    }
+}
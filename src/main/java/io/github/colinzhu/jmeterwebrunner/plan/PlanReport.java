@@ -0,0 +1,35 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import lombok.Value;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The result of loading and validating a JMX file. A run fails fast when its plan has errors, the warnings are only
+ * shown and logged.
+ */
+@Value
+public class PlanReport {
+    /** the canonical path of the JMX file */
+    String file;
+    long lastModified;
+    long length;
+    long validatedAt;
+    /** the time to load (or take from the cache) and validate the plan */
+    long millis;
+    int elements;
+    List<String> errors;
+    List<String> warnings;
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * @return true if the JMX file has not changed since it was validated
+     */
+    boolean isCurrent(File jmxFile) {
+        return jmxFile.lastModified() == lastModified && jmxFile.length() == length;
+    }
+}
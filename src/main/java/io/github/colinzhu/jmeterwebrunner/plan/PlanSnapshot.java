@@ -0,0 +1,394 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import org.apache.jmeter.save.SaveService;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.BooleanProperty;
+import org.apache.jmeter.testelement.property.CollectionProperty;
+import org.apache.jmeter.testelement.property.DoubleProperty;
+import org.apache.jmeter.testelement.property.FloatProperty;
+import org.apache.jmeter.testelement.property.IntegerProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.LongProperty;
+import org.apache.jmeter.testelement.property.PropertyIterator;
+import org.apache.jmeter.testelement.property.StringProperty;
+import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The binary snapshot format of a converted test plan. The file starts with the magic "JWRP", a version byte, the
+ * SHA-256 of the JMX file and the JMeter version (plain strings), followed by the tree:
+ * <pre>
+ * tree:     varint count, then count times an element followed by its tree
+ * element:  kind byte (0 = null, 1 = properties, 2 = SaveService XML)
+ *           1: class (string), varint count, properties
+ *           2: the XML of SaveService.saveElement (varint length and bytes)
+ * property: type byte, name (string), value
+ *           string: string, bool: byte, int and long: zigzag varint, float and double: 4 and 8 bytes,
+ *           collection: varint count and properties, element: element
+ * </pre>
+ * The strings of the tree are dictionary strings: a varint id (0 = null), followed by the UTF-8 string (varint length
+ * and bytes) the first time an id appears, so that the class and property names and the repeated values are written
+ * and allocated once. The elements with another property type, e.g. an object property, are saved by SaveService.
+ */
+class PlanSnapshot {
+    static final byte[] MAGIC = {'J', 'W', 'R', 'P'};
+    static final byte VERSION = 1;
+
+    private static final byte ELEMENT_NULL = 0;
+    private static final byte ELEMENT_PROPERTIES = 1;
+    private static final byte ELEMENT_XML = 2;
+
+    private static final byte STRING = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte FLOAT = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte COLLECTION = 7;
+    private static final byte ELEMENT = 8;
+
+    private static final Map<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
+
+    private PlanSnapshot() {
+    }
+
+    /**
+     * Write the snapshot of a test plan, to a temporary file first so that a reader never sees half a snapshot
+     *
+     * @param tree    the converted test plan
+     * @param jmxHash the SHA-256 of the JMX file
+     * @param file    the snapshot file
+     * @return the number of elements saved by SaveService
+     */
+    static int write(HashTree tree, String jmxHash, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeUtf8(out, jmxHash);
+            writeUtf8(out, JMeterUtils.getJMeterVersion());
+            writer = new Writer(out);
+            writer.writeTree(tree);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return writer.xmlElements;
+    }
+
+    /**
+     * Read the snapshot of a test plan
+     *
+     * @param file    the snapshot file
+     * @param jmxHash the SHA-256 of the current JMX file
+     * @return the test plan, or null if the snapshot is stale: made of another JMX content, or by another JMeter or
+     * format version
+     */
+    static HashTree read(File file, String jmxHash) throws IOException, ReflectiveOperationException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte[] magic = new byte[MAGIC.length];
+        if (in.remaining() < MAGIC.length + 1 || !Arrays.equals(readBytes(in, magic), MAGIC) || in.get() != VERSION) {
+            return null;
+        }
+        if (!jmxHash.equals(readUtf8(in)) || !JMeterUtils.getJMeterVersion().equals(readUtf8(in))) {
+            return null;
+        }
+        HashTree tree = new ListedHashTree();
+        new Reader(in).readTree(tree);
+        return tree;
+    }
+
+    private static byte[] readBytes(ByteBuffer in, byte[] bytes) {
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readUtf8(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private static Class<?> classFor(String className) throws ClassNotFoundException {
+        Class<?> type = CLASSES.get(className);
+        if (type == null) {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            type = Class.forName(className, true, loader != null ? loader : SaveService.class.getClassLoader());
+            CLASSES.put(className, type);
+        }
+        return type;
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private int xmlElements;
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeTree(HashTree tree) throws IOException {
+            writeVarLong(out, tree.list().size());
+            for (Object key : tree.list()) {
+                if (!(key instanceof TestElement)) {
+                    throw new IOException("The plan has a node which is not a test element: " + key.getClass().getName());
+                }
+                writeElement((TestElement) key);
+                writeTree(tree.getTree(key));
+            }
+        }
+
+        private void writeElement(TestElement element) throws IOException {
+            if (element == null) {
+                out.writeByte(ELEMENT_NULL);
+                return;
+            }
+            if (!isSupported(element)) {
+                ByteArrayOutputStream xml = new ByteArrayOutputStream(1024);
+                SaveService.saveElement(element, xml);
+                out.writeByte(ELEMENT_XML);
+                writeVarLong(out, xml.size());
+                xml.writeTo(out);
+                xmlElements++;
+                return;
+            }
+            out.writeByte(ELEMENT_PROPERTIES);
+            writeString(element.getClass().getName());
+            writeProperties(element.propertyIterator(), countProperties(element.propertyIterator()));
+        }
+
+        private void writeProperties(PropertyIterator properties, int count) throws IOException {
+            writeVarLong(out, count);
+            while (properties.hasNext()) {
+                writeProperty(properties.next());
+            }
+        }
+
+        private void writeProperty(JMeterProperty property) throws IOException {
+            Class<?> type = property.getClass();
+            if (type == StringProperty.class) {
+                out.writeByte(STRING);
+                writeString(property.getName());
+                writeString(property.getStringValue());
+            } else if (type == BooleanProperty.class) {
+                out.writeByte(BOOLEAN);
+                writeString(property.getName());
+                out.writeBoolean(property.getBooleanValue());
+            } else if (type == IntegerProperty.class) {
+                out.writeByte(INTEGER);
+                writeString(property.getName());
+                writeVarLong(out, zigZag(property.getIntValue()));
+            } else if (type == LongProperty.class) {
+                out.writeByte(LONG);
+                writeString(property.getName());
+                writeVarLong(out, zigZag(property.getLongValue()));
+            } else if (type == FloatProperty.class) {
+                out.writeByte(FLOAT);
+                writeString(property.getName());
+                out.writeFloat(property.getFloatValue());
+            } else if (type == DoubleProperty.class) {
+                out.writeByte(DOUBLE);
+                writeString(property.getName());
+                out.writeDouble(property.getDoubleValue());
+            } else if (type == CollectionProperty.class) {
+                out.writeByte(COLLECTION);
+                writeString(property.getName());
+                CollectionProperty collection = (CollectionProperty) property;
+                writeProperties(collection.iterator(), collection.size());
+            } else if (type == TestElementProperty.class) {
+                out.writeByte(ELEMENT);
+                writeString(property.getName());
+                writeElement(((TestElementProperty) property).getElement());
+            } else {
+                throw new IllegalStateException("Unsupported property " + type.getName()); // see isSupported
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeByte(0);
+                return;
+            }
+            Integer id = ids.get(value);
+            if (id != null) {
+                writeVarLong(out, id);
+                return;
+            }
+            id = ids.size() + 1;
+            ids.put(value, id);
+            writeVarLong(out, id);
+            writeUtf8(out, value);
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        private static int countProperties(PropertyIterator properties) {
+            int count = 0;
+            while (properties.hasNext()) {
+                properties.next();
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * @return true if all the properties of the element, except the nested elements which are checked on their
+         * own, have a type of this format
+         */
+        private static boolean isSupported(TestElement element) {
+            return isSupported(element.propertyIterator());
+        }
+
+        private static boolean isSupported(PropertyIterator properties) {
+            while (properties.hasNext()) {
+                JMeterProperty property = properties.next();
+                Class<?> type = property.getClass();
+                boolean supported = type == StringProperty.class || type == BooleanProperty.class
+                        || type == IntegerProperty.class || type == LongProperty.class || type == FloatProperty.class
+                        || type == DoubleProperty.class || type == TestElementProperty.class
+                        || type == CollectionProperty.class && isSupported(((CollectionProperty) property).iterator());
+                if (!supported) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+
+        private Reader(ByteBuffer in) {
+            this.in = in;
+            strings.add(null);
+        }
+
+        private void readTree(HashTree tree) throws IOException, ReflectiveOperationException {
+            long count = readVarLong(in);
+            for (long i = 0; i < count; i++) {
+                TestElement element = readElement();
+                readTree(tree.add(element));
+            }
+        }
+
+        private TestElement readElement() throws IOException, ReflectiveOperationException {
+            byte kind = in.get();
+            if (kind == ELEMENT_NULL) {
+                return null;
+            }
+            if (kind == ELEMENT_XML) {
+                int length = (int) readVarLong(in);
+                InputStream xml = new ByteArrayInputStream(in.array(), in.position(), length);
+                in.position(in.position() + length);
+                return (TestElement) SaveService.loadElement(xml);
+            }
+            TestElement element = (TestElement) classFor(readString()).getDeclaredConstructor().newInstance();
+            long count = readVarLong(in);
+            for (long i = 0; i < count; i++) {
+                element.setProperty(readProperty());
+            }
+            return element;
+        }
+
+        private JMeterProperty readProperty() throws IOException, ReflectiveOperationException {
+            byte type = in.get();
+            String name = readString();
+            switch (type) {
+                case STRING:
+                    return new StringProperty(name, readString());
+                case BOOLEAN:
+                    return new BooleanProperty(name, in.get() != 0);
+                case INTEGER:
+                    return new IntegerProperty(name, (int) unZigZag(readVarLong(in)));
+                case LONG:
+                    return new LongProperty(name, unZigZag(readVarLong(in)));
+                case FLOAT:
+                    return new FloatProperty(name, in.getFloat());
+                case DOUBLE:
+                    return new DoubleProperty(name, in.getDouble());
+                case COLLECTION: {
+                    CollectionProperty collection = new CollectionProperty();
+                    collection.setName(name);
+                    long count = readVarLong(in);
+                    for (long i = 0; i < count; i++) {
+                        collection.addProperty(readProperty());
+                    }
+                    return collection;
+                }
+                case ELEMENT:
+                    return new TestElementProperty(name, readElement());
+                default:
+                    throw new IOException("Malformed plan snapshot, unknown property type " + type);
+            }
+        }
+
+        private String readString() {
+            int id = (int) readVarLong(in);
+            if (id < strings.size()) {
+                return strings.get(id);
+            }
+            String value = readUtf8(in);
+            strings.add(value);
+            return value;
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRunner;
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This loader reads the test plan from its binary snapshot (see PlanSnapshot) instead of parsing the JMX file, when
+ * the snapshot next to the JMX file, JMX-FILE.plan, was made of the same JMX content by the same JMeter version.
+ * Otherwise the JMX file is loaded by the given loader, and in write mode its snapshot is written for the next time,
+ * e.g. after a restart of the process.
+ * <p>
+ * The snapshot only depends on the JMX file: compile it again after changing a file included by an Include
+ * Controller. To compile the snapshots ahead of the runs, the "compile plan" step:
+ * <p>
+ * java -DjmeterHome=/test/apache-jmeter-5.5 -cp jmeter-web-runner-full.jar io.github.colinzhu.jmeterwebrunner.plan.PlanSnapshotLoader test.jmx
+ */
+@Slf4j
+public class PlanSnapshotLoader implements PlanLoader {
+    static final String SUFFIX = ".plan";
+
+    private final PlanLoader loader;
+    private final boolean write;
+
+    /**
+     * @param loader the loader of the JMX files without a fresh snapshot
+     * @param write  true to write the snapshot of every JMX file loaded by the loader
+     */
+    public PlanSnapshotLoader(PlanLoader loader, boolean write) {
+        this.loader = loader;
+        this.write = write;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: PlanSnapshotLoader <test.jmx>...");
+            System.exit(1);
+        }
+        JMeterRuntime.getInstance().ensureInitialized();
+        PlanSnapshotLoader compiler = new PlanSnapshotLoader(JMeterRunner.planLoader(), true);
+        for (String jmx : args) {
+            compiler.compile(new File(jmx));
+        }
+    }
+
+    public static File snapshotFile(File jmxFile) {
+        return new File(jmxFile.getPath() + SUFFIX);
+    }
+
+    @Override
+    public HashTree load(File jmxFile) throws Exception {
+        return load(jmxFile, PlanCache.hash(jmxFile));
+    }
+
+    @Override
+    public HashTree load(File jmxFile, String hash) throws Exception {
+        File snapshot = snapshotFile(jmxFile);
+        if (snapshot.isFile()) {
+            long start = System.currentTimeMillis();
+            try {
+                HashTree tree = PlanSnapshot.read(snapshot, hash);
+                if (tree != null) {
+                    log.info("Loaded {} from its snapshot in {} ms", jmxFile, System.currentTimeMillis() - start);
+                    return tree;
+                }
+                log.info("The snapshot of {} is stale, loading the JMX file", jmxFile);
+            } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+                log.warn("Failed to read the snapshot {}, loading the JMX file: {}", snapshot, e.toString());
+            }
+        }
+        HashTree tree = loader.load(jmxFile);
+        if (write) {
+            writeSnapshot(tree, hash, jmxFile, snapshot);
+        }
+        return tree;
+    }
+
+    /**
+     * Load the JMX file with the loader and write its snapshot, even if it has a fresh one
+     *
+     * @param jmxFile the JMX file
+     * @return the snapshot file
+     */
+    public File compile(File jmxFile) throws Exception {
+        File snapshot = snapshotFile(jmxFile);
+        String hash = PlanCache.hash(jmxFile);
+        long start = System.currentTimeMillis();
+        HashTree tree = loader.load(jmxFile);
+        log.info("Loaded {} in {} ms", jmxFile, System.currentTimeMillis() - start);
+        if (!writeSnapshot(tree, hash, jmxFile, snapshot)) {
+            throw new IOException("Failed to write the snapshot " + snapshot);
+        }
+        return snapshot;
+    }
+
+    private static boolean writeSnapshot(HashTree tree, String hash, File jmxFile, File snapshot) {
+        long start = System.currentTimeMillis();
+        try {
+            int xmlElements = PlanSnapshot.write(tree, hash, snapshot);
+            log.info("Wrote the snapshot of {} in {} ms, {} bytes, {} elements saved by SaveService", jmxFile,
+                    System.currentTimeMillis() - start, snapshot.length(), xmlElements);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // e.g. a read-only directory, the plan is still loaded from the JMX file next time
+            log.warn("Failed to write the snapshot {}: {}", snapshot, e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.services.FileServer;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.testelement.property.CollectionProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.PropertyIterator;
+import org.apache.jmeter.testelement.property.StringProperty;
+import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jmeter.util.JSR223TestElement;
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks a loaded test plan for the mistakes which would otherwise only show up during the run:
+ * <ul>
+ *     <li>errors: a CSV data set or a JSR223 script file which doesn't exist, a JSR223 script which doesn't compile
+ *     (it's compiled into the ScriptCache, so the runs don't compile it again)</li>
+ *     <li>warnings: a ${...} reference which is not closed, a ${var} which no element of the plan defines, a
+ *     ${__P(name)} of a JMeter property which is not set and has no default, a file name which depends on a
+ *     variable set during the run</li>
+ * </ul>
+ * A variable is defined by the user defined variables, the CSV data sets, the extractors and counters (the
+ * properties named like refname, variableNames, ...), the functions which save their result in a variable, and the
+ * scripts which call vars.put("name", ...). The variables are not checked when a CSV data set takes its variable
+ * names from the header line of its file.
+ */
+class PlanValidator {
+    private static final String CSV_DATA_SET = "org.apache.jmeter.config.CSVDataSet";
+    private static final String SCRIPT = "script";
+    /** the property of TestPlan.getUserDefinedVariables() */
+    private static final String USER_DEFINED_VARIABLES = "TestPlan.user_defined_variables";
+    private static final int MAX_ISSUES = 100;
+    private static final Pattern VARS_PUT = Pattern.compile("vars\\.put(?:Object)?\\(\\s*[\"']([^\"']+)[\"']");
+    /** the properties whose values are the names of the variables set by their element */
+    private static final Pattern DEFINING_PROPERTY = Pattern.compile(
+            "(?i).*(refname|referencenames?|variablenames?|returnval|resultvariable|counterconfig\\.name)$");
+    private static final Set<String> BUILT_IN_VARIABLES = new HashSet<>(Arrays.asList("START.MS", "START.YMD",
+            "START.HMS", "TESTSTART.MS", "JMeterThread.last_sample_ok", "JMeterThread.pack", "__jmeter.USER_TOKEN__"));
+
+    private final Set<String> errors = new LinkedHashSet<>();
+    private final Set<String> warnings = new LinkedHashSet<>();
+    private final Set<String> definedVariables = new HashSet<>(BUILT_IN_VARIABLES);
+    private final Map<String, String> variableValues = new HashMap<>();
+    /** variable name to the elements which use it */
+    private final Map<String, List<String>> references = new LinkedHashMap<>();
+    private final List<String[]> files = new ArrayList<>();
+    private boolean dynamicVariables;
+    private int elements;
+
+    private PlanValidator() {
+    }
+
+    /**
+     * @param jmxFile the JMX file of the plan
+     * @param plan    the converted test plan, it's only read, it may be the tree of the PlanCache
+     * @param start   when the load of the plan started, in ms
+     * @return the report of the plan
+     */
+    static PlanReport validate(File jmxFile, HashTree plan, long start) {
+        PlanValidator validator = new PlanValidator();
+        validator.walk(plan, "");
+        validator.checkFiles();
+        validator.checkReferences();
+        return validator.report(jmxFile, start);
+    }
+
+    /**
+     * @return the report of a JMX file which can't be loaded
+     */
+    static PlanReport failed(File jmxFile, long start, Throwable error) {
+        PlanValidator validator = new PlanValidator();
+        validator.errors.add("Failed to load the plan: " + (error.getMessage() != null ? error.getMessage() : error));
+        return validator.report(jmxFile, start);
+    }
+
+    private PlanReport report(File jmxFile, long start) {
+        long now = System.currentTimeMillis();
+        return new PlanReport(jmxFile.getPath(), jmxFile.lastModified(), jmxFile.length(), now, now - start, elements,
+                limit(errors), limit(warnings));
+    }
+
+    private static List<String> limit(Set<String> issues) {
+        List<String> limited = new ArrayList<>(issues);
+        if (limited.size() > MAX_ISSUES) {
+            limited.subList(MAX_ISSUES, limited.size()).clear();
+            limited.add("... " + (issues.size() - MAX_ISSUES) + " more");
+        }
+        return limited;
+    }
+
+    private void walk(HashTree tree, String parentPath) {
+        for (Object key : tree.list()) {
+            if (!(key instanceof TestElement)) {
+                continue;
+            }
+            TestElement element = (TestElement) key;
+            String path = parentPath.isEmpty() ? element.getName() : parentPath + " > " + element.getName();
+            elements++;
+            check(element, path);
+            walk(tree.getTree(key), path);
+        }
+    }
+
+    private void check(TestElement element, String path) {
+        if (element instanceof TestPlan) {
+            // not getUserDefinedVariables(), it adds the property when it's missing
+            Object variables = element.getProperty(USER_DEFINED_VARIABLES).getObjectValue();
+            if (variables instanceof Arguments) {
+                define(((Arguments) variables).getArgumentsAsMap());
+            }
+        } else if (element instanceof Arguments) {
+            define(((Arguments) element).getArgumentsAsMap());
+        }
+        if (CSV_DATA_SET.equals(element.getClass().getName())) {
+            files.add(new String[]{path, "CSV file", element.getPropertyAsString("filename")});
+            if (element.getPropertyAsString("variableNames").trim().isEmpty()) {
+                dynamicVariables = true; // from the header line of the file
+            }
+        }
+        if (element instanceof JSR223TestElement) {
+            String filename = element.getPropertyAsString("filename");
+            if (!filename.isEmpty()) {
+                files.add(new String[]{path, "script file", filename});
+            }
+            String error = ScriptCache.getInstance().precompile((JSR223TestElement) element);
+            if (error != null) {
+                errors.add(path + ": the script doesn't compile: " + error.replaceAll("\\s+", " "));
+            }
+        }
+        scan(element.propertyIterator(), path);
+    }
+
+    private void define(Map<String, String> variables) {
+        definedVariables.addAll(variables.keySet());
+        variableValues.putAll(variables);
+    }
+
+    private void scan(PropertyIterator properties, String path) {
+        while (properties.hasNext()) {
+            JMeterProperty property = properties.next();
+            if (property instanceof StringProperty) {
+                String value = property.getStringValue();
+                if (value == null || value.isEmpty()) {
+                    continue;
+                }
+                if (DEFINING_PROPERTY.matcher(property.getName()).matches()) {
+                    for (String name : value.split("[,;]")) {
+                        definedVariables.add(name.trim());
+                    }
+                }
+                Matcher put = VARS_PUT.matcher(value);
+                while (put.find()) {
+                    definedVariables.add(put.group(1));
+                }
+                if (!SCRIPT.equals(property.getName())) { // e.g. "${name}" is a GString in Groovy
+                    scanReferences(value, path);
+                }
+            } else if (property instanceof CollectionProperty) {
+                if (property.getName().equals("UserParameters.names")) {
+                    PropertyIterator names = ((CollectionProperty) property).iterator();
+                    while (names.hasNext()) {
+                        definedVariables.add(names.next().getStringValue());
+                    }
+                }
+                scan(((CollectionProperty) property).iterator(), path);
+            } else if (property instanceof TestElementProperty) {
+                TestElement nested = ((TestElementProperty) property).getElement();
+                if (nested != null) {
+                    scan(nested.propertyIterator(), path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the ${...} references of a value, the nested ones included
+     */
+    private void scanReferences(String value, String path) {
+        int from = 0;
+        while (true) {
+            int start = value.indexOf("${", from);
+            if (start < 0) {
+                return;
+            }
+            int end = closingBrace(value, start + 2);
+            if (end < 0) {
+                warnings.add(path + ": \"${\" is not closed in " + abbreviate(value));
+                return;
+            }
+            String content = value.substring(start + 2, end);
+            if (content.startsWith("__")) {
+                checkFunction(content, path);
+                scanReferences(content, path);
+            } else if (!content.isEmpty() && !content.contains("${")) {
+                references.computeIfAbsent(content, name -> new ArrayList<>()).add(path);
+            }
+            from = end + 1;
+        }
+    }
+
+    private static int closingBrace(String value, int from) {
+        int depth = 1;
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '{' && value.charAt(i - 1) == '$') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkFunction(String content, String path) {
+        int open = content.indexOf('(');
+        if (open < 0 || !content.endsWith(")")) {
+            return; // e.g. ${__threadNum}
+        }
+        String function = content.substring(0, open);
+        String[] args = content.substring(open + 1, content.length() - 1).split(",", -1);
+        String last = args[args.length - 1].trim();
+        if (args.length > 1 && last.matches("[A-Za-z_][\\w.]*")) {
+            definedVariables.add(last); // e.g. ${__Random(1,10,var)}, it's harmless when it's not a variable
+        }
+        String name = args[0].trim();
+        boolean noDefault = "__P".equals(function) ? args.length < 2 : "__property".equals(function) && args.length < 3;
+        if (noDefault && !name.isEmpty() && !name.contains("${") && JMeterUtils.getProperty(name) == null) {
+            warnings.add(path + ": the JMeter property \"" + name + "\" is not set and ${" + content + "} has no default");
+        }
+    }
+
+    private void checkFiles() {
+        for (String[] file : files) {
+            String name = resolve(file[2]);
+            if (name == null) {
+                warnings.add(file[0] + ": the " + file[1] + " " + file[2] + " depends on a variable set during the run, it's not checked");
+            } else if (name.isEmpty()) {
+                errors.add(file[0] + ": the " + file[1] + " name is empty");
+            } else if (!FileServer.getFileServer().getResolvedFile(name).isFile()) {
+                errors.add(file[0] + ": the " + file[1] + " " + FileServer.getFileServer().getResolvedFile(name) + " doesn't exist");
+            }
+        }
+    }
+
+    /**
+     * Replace the user defined variables and the ${__P(...)} of a file name
+     *
+     * @return the file name, or null if it still depends on a variable
+     */
+    private String resolve(String value) {
+        String resolved = value;
+        for (int i = 0; i < 10 && resolved.contains("${"); i++) {
+            int start = resolved.indexOf("${");
+            int end = closingBrace(resolved, start + 2);
+            if (end < 0) {
+                return null;
+            }
+            String content = resolved.substring(start + 2, end);
+            String replacement = variableValues.get(content);
+            if (replacement == null && (content.startsWith("__P(") || content.startsWith("__property(")) && content.endsWith(")")) {
+                String[] args = content.substring(content.indexOf('(') + 1, content.length() - 1).split(",", -1);
+                String defaultValue = args.length > (content.startsWith("__P(") ? 1 : 2) ? args[args.length - 1] : null;
+                replacement = JMeterUtils.getPropDefault(args[0].trim(), defaultValue);
+            }
+            if (replacement == null) {
+                return null;
+            }
+            resolved = resolved.substring(0, start) + replacement + resolved.substring(end + 1);
+        }
+        return resolved.contains("${") ? null : resolved.trim();
+    }
+
+    private void checkReferences() {
+        if (dynamicVariables) {
+            return;
+        }
+        for (Map.Entry<String, List<String>> reference : references.entrySet()) {
+            String name = reference.getKey();
+            if (isDefined(name)) {
+                continue;
+            }
+            List<String> paths = reference.getValue();
+            warnings.add(paths.get(0) + ": the variable ${" + name + "} is not defined in the plan"
+                    + (paths.size() > 1 ? ", it's also used by " + (paths.size() - 1) + " more elements" : ""));
+        }
+    }
+
+    private boolean isDefined(String name) {
+        if (definedVariables.contains(name) || name.startsWith("__jm")) {
+            return true;
+        }
+        // e.g. name_g1, name_1 and name_matchNr of a regular expression extractor
+        int underscore = name.lastIndexOf('_');
+        while (underscore > 0) {
+            if (definedVariables.contains(name.substring(0, underscore))) {
+                return true;
+            }
+            underscore = name.lastIndexOf('_', underscore - 1);
+        }
+        return false;
+    }
+
+    private static String abbreviate(String value) {
+        String line = value.replace('\n', ' ');
+        return line.length() > 80 ? line.substring(0, 77) + "..." : line;
+    }
+}
@@ -0,0 +1,267 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class watches a plans directory (-DplansDir, with its subdirectories) and, when a JMX file is added or
+ * changed, loads it into the PlanCache and validates it (see PlanValidator) in the background. So the run of a plan
+ * which was just saved starts without parsing it, and fails fast when it has errors. A change of another file, e.g. a
+ * CSV file, validates again the plans which have errors.
+ * <p>
+ * The plans outside of the directory are validated when they're run, their reports are kept as well.
+ */
+@Slf4j
+public class PlanWatcher {
+    private static final String JMX = ".jmx";
+    /** an editor often writes a file in several steps */
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final PlanCache cache;
+    private final File dir;
+    private final Map<String, PlanReport> reports = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final List<Consumer<PlanReport>> listeners = new ArrayList<>();
+    private final ScheduledExecutorService preloader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "plan-preloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private WatchService watchService;
+
+    /**
+     * @param cache the cache of the plans
+     * @param dir   the plans directory, or null to only validate the plans when they're run
+     */
+    public PlanWatcher(PlanCache cache, File dir) {
+        this.cache = cache;
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * @param listener called with the report of every validated plan
+     */
+    public synchronized void addListener(Consumer<PlanReport> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start watching the plans directory, and validate the plans already in it
+     */
+    public synchronized void start() throws IOException {
+        if (dir == null || watchService != null) {
+            return;
+        }
+        if (!dir.isDirectory()) {
+            throw new IOException("The plans directory " + dir + " doesn't exist");
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        List<Path> plans;
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            plans = files.filter(path -> Files.isDirectory(path) || isPlan(path)).collect(Collectors.toList());
+        }
+        for (Path path : plans) {
+            if (Files.isDirectory(path)) {
+                register(path);
+            } else {
+                schedule(path.toFile());
+            }
+        }
+        Thread thread = new Thread(this::watch, "plan-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching the plans directory {}, {} plans", dir, plans.stream().filter(PlanWatcher::isPlan).count());
+    }
+
+    /**
+     * Get the report of a plan, validate it first if it has no report or if it has changed since. The report of a plan
+     * with errors is not reused, the missing files may have been added since.
+     *
+     * @param jmxFile JMX file name
+     * @return the report of the plan
+     */
+    public PlanReport validate(String jmxFile) {
+        File file = canonical(new File(jmxFile));
+        PlanReport report = reports.get(file.getPath());
+        if (report != null && !report.hasErrors() && report.isCurrent(file)) {
+            return report;
+        }
+        return load(file);
+    }
+
+    /**
+     * @return the reports of the plans of the directory and of the plans run since the start, by file name
+     */
+    public List<PlanReport> getReports() {
+        List<PlanReport> list = new ArrayList<>(reports.values());
+        list.sort(Comparator.comparing(PlanReport::getFile));
+        return list;
+    }
+
+    /**
+     * @return the errors and warnings of a report, one per line
+     */
+    public static String format(PlanReport report) {
+        StringBuilder sb = new StringBuilder();
+        report.getErrors().forEach(error -> sb.append("  ERROR ").append(error).append('\n'));
+        report.getWarnings().forEach(warning -> sb.append("  WARN  ").append(warning).append('\n'));
+        return sb.length() == 0 ? "" : sb.substring(0, sb.length() - 1);
+    }
+
+    public void stop() throws IOException {
+        synchronized (this) {
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+        preloader.shutdownNow();
+    }
+
+    private PlanReport load(File file) {
+        long start = System.currentTimeMillis();
+        if (!file.isFile()) {
+            return PlanValidator.failed(file, start, new IOException("File not found: " + file));
+        }
+        PlanReport report;
+        try {
+            // a run has already set up JMeter, it's not counted as a reuse again
+            JMeterRuntime.getInstance().ensureSetUp();
+            report = cache.read(file.getPath(), plan -> PlanValidator.validate(file, plan, start));
+        } catch (Exception e) {
+            report = PlanValidator.failed(file, start, e);
+        }
+        reports.put(file.getPath(), report);
+        if (report.hasErrors()) {
+            log.warn("Plan {} has {} errors and {} warnings, validated in {} ms:\n{}", file, report.getErrors().size(),
+                    report.getWarnings().size(), report.getMillis(), format(report));
+        } else {
+            log.info("Plan {} is valid, {} elements, {} warnings, validated in {} ms{}", file, report.getElements(),
+                    report.getWarnings().size(), report.getMillis(), report.getWarnings().isEmpty() ? "" : ":\n" + format(report));
+        }
+        notifyListeners(report);
+        return report;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path parent = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        reports.keySet().forEach(path -> schedule(new File(path)));
+                        continue;
+                    }
+                    onChange(parent.resolve((Path) event.context()), event.kind());
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("Stopped watching the plans directory {}", dir);
+        }
+    }
+
+    private void onChange(Path path, WatchEvent.Kind<?> kind) {
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                for (Path child : files.collect(Collectors.toList())) {
+                    if (Files.isDirectory(child)) {
+                        register(child);
+                    } else if (isPlan(child)) {
+                        schedule(child.toFile());
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Failed to watch the directory {}: {}", path, e.toString());
+            }
+        } else if (isSnapshot(path)) {
+            return;
+        } else if (!isPlan(path)) {
+            // e.g. a CSV file was added
+            reports.values().stream().filter(PlanReport::hasErrors).forEach(report -> schedule(new File(report.getFile())));
+        } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            File file = canonical(path.toFile());
+            cache.invalidate(file.getPath());
+            reports.remove(file.getPath());
+            log.info("Plan {} was deleted", file);
+        } else {
+            schedule(path.toFile());
+        }
+    }
+
+    private void schedule(File jmxFile) {
+        File file = canonical(jmxFile);
+        ScheduledFuture<?> previous = pending.put(file.getPath(), preloader.schedule(() -> {
+            pending.remove(file.getPath());
+            if (file.isFile()) {
+                load(file);
+            }
+        }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private void notifyListeners(PlanReport report) {
+        List<Consumer<PlanReport>> copy;
+        synchronized (this) {
+            copy = new ArrayList<>(listeners);
+        }
+        for (Consumer<PlanReport> listener : copy) {
+            try {
+                listener.accept(report);
+            } catch (RuntimeException e) {
+                log.error("Failed to notify the report of {}", report.getFile(), e);
+            }
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    private static boolean isPlan(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(JMX);
+    }
+
+    private static boolean isSnapshot(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(PlanSnapshotLoader.SUFFIX) || name.endsWith(PlanSnapshotLoader.SUFFIX + ".tmp");
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.util.JSR223TestElement;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.SearchByClass;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.io.File;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the compiled JSR223 scripts (e.g. Groovy) for the whole process. JMeter caches them in a static
+ * map too, but every JSR223 element clears that map when a test ends, so each run compiles its scripts again, and
+ * a run which ends clears the scripts of the runs still running.
+ * <p>
+ * The scripts of a run are compiled before its engine starts, or taken from this cache, and put into the map of
+ * JMeter when the test starts. When a run ends, its listener puts back the scripts of the runs still running.
+ * The keys are the ones of JMeter: the MD5 of an inline script, or the language, path and modified time of a
+ * script file. Scripts with cacheKey=false are left to JMeter.
+ * <p>
+ * The cache is bounded by -DscriptCacheMaxEntries (500 by default), the least recently used scripts are evicted first.
+ * JMeter's own map holds at most jsr223.compiled_scripts_cache_size scripts (100 by default).
+ */
+@Slf4j
+public class ScriptCache {
+    private static final String PARAM_SCRIPT_CACHE_MAX_ENTRIES = "scriptCacheMaxEntries";
+    private static final String DEFAULT_LANGUAGE = "groovy";
+    private static final String BEANSHELL_ENGINE = "bsh.engine.BshScriptEngine";
+    private static final ScriptCache INSTANCE = new ScriptCache(Integer.getInteger(PARAM_SCRIPT_CACHE_MAX_ENTRIES, 500));
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, CompiledScript> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Set<ScriptCacheListener> activeRuns = new CopyOnWriteArraySet<>();
+    private Map<String, CompiledScript> jmeterCache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+
+    ScriptCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static ScriptCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Compile the scripts of a test plan, or take them from the cache, and add the listener which hands them to
+     * JMeter during the run
+     *
+     * @param testPlan the test plan of the run, already cloned for the run
+     * @return the listener added to the test plan, with the compile stats of the run
+     */
+    public ScriptCacheListener prepare(HashTree testPlan) {
+        SearchByClass<JSR223TestElement> search = new SearchByClass<>(JSR223TestElement.class);
+        testPlan.traverse(search);
+
+        Map<String, CompiledScript> scripts = new LinkedHashMap<>();
+        int runHits = 0;
+        int runCompiles = 0;
+        int failures = 0;
+        long runCompileNanos = 0;
+        for (JSR223TestElement element : search.getSearchResults()) {
+            if ("false".equals(element.getPropertyAsString("cacheKey"))) {
+                continue;
+            }
+            Script source = new Script(element);
+            String key = source.key();
+            if (key == null || scripts.containsKey(key)) {
+                continue;
+            }
+            CompiledScript script = get(key);
+            if (script != null) {
+                runHits++;
+            } else {
+                long start = System.nanoTime();
+                try {
+                    script = source.compile();
+                } catch (Exception e) {
+                    failures++;
+                    log.warn("Failed to compile the script of {}: {}", element.getName(), e.toString());
+                }
+                long elapsed = System.nanoTime() - start;
+                if (script == null) {
+                    continue;
+                }
+                runCompiles++;
+                runCompileNanos += elapsed;
+                compileNanos.addAndGet(elapsed);
+                put(key, script);
+            }
+            scripts.put(key, script);
+        }
+        ScriptCacheListener listener = new ScriptCacheListener(this, scripts,
+                new RunStats(scripts.size(), runHits, runCompiles, failures, runCompileNanos / 1_000_000));
+        testPlan.add(testPlan.getArray()[0], listener);
+        return listener;
+    }
+
+    /**
+     * Compile the script of a JSR223 element into the cache ahead of its runs, e.g. when its JMX file has changed, so
+     * that the runs find it in the cache
+     *
+     * @param element a JSR223 element of a test plan
+     * @return the compile error, or null if the script is compiled, cached, or left to JMeter
+     */
+    public String precompile(JSR223TestElement element) {
+        if ("false".equals(element.getPropertyAsString("cacheKey"))) {
+            return null;
+        }
+        Script source = new Script(element);
+        String key = source.key();
+        if (key == null || contains(key)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            CompiledScript script = source.compile();
+            compileNanos.addAndGet(System.nanoTime() - start);
+            if (script != null) {
+                put(key, script);
+            }
+            return null;
+        } catch (Exception e) {
+            return e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+    }
+
+    /**
+     * The script of a JSR223 element. The elements are test beans, their fields are only set in the threads of the
+     * run, so the properties are read instead.
+     */
+    private static class Script {
+        private final String language;
+        private final String filename;
+        private final String text;
+
+        private Script(JSR223TestElement element) {
+            this.language = element.getPropertyAsString("scriptLanguage");
+            this.filename = element.getPropertyAsString("filename");
+            this.text = element.getPropertyAsString("script");
+        }
+
+        /**
+         * @return the key of JMeter's cache, or null if there's no script
+         */
+        private String key() {
+            if (!isEmpty(filename)) {
+                File file = new File(filename);
+                return file.canRead() ? language + "#" + file.getAbsolutePath() + "#" + file.lastModified() : null;
+            }
+            return isEmpty(text) ? null : md5Hex(text);
+        }
+
+        /**
+         * @return the compiled script, or null if the engine of the language doesn't compile
+         */
+        private CompiledScript compile() throws Exception {
+            String engineName = isEmpty(language) ? DEFAULT_LANGUAGE : language;
+            ScriptEngine engine = JSR223TestElement.getInstance().getEngineByName(engineName);
+            if (engine == null) {
+                throw new ScriptException("No script engine for language " + engineName);
+            }
+            if (!(engine instanceof Compilable) || BEANSHELL_ENGINE.equals(engine.getClass().getName())) {
+                return null;
+            }
+            if (!isEmpty(filename)) {
+                try (Reader reader = Files.newBufferedReader(new File(filename).toPath())) {
+                    return ((Compilable) engine).compile(reader);
+                }
+            }
+            return ((Compilable) engine).compile(text);
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    @SneakyThrows
+    private static String md5Hex(String script) {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(script.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private synchronized CompiledScript get(String key) {
+        CompiledScript script = entries.get(key);
+        if (script != null) {
+            hits.incrementAndGet();
+        }
+        return script;
+    }
+
+    private synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    private synchronized void put(String key, CompiledScript script) {
+        compiles.incrementAndGet();
+        entries.put(key, script);
+        Iterator<Map.Entry<String, CompiledScript>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    void started(ScriptCacheListener run) {
+        activeRuns.add(run);
+        jmeterCache().putAll(run.getScripts());
+    }
+
+    /**
+     * The elements of the ended run have cleared the map of JMeter, put back the scripts of the other runs
+     */
+    void ended(ScriptCacheListener run) {
+        activeRuns.remove(run);
+        for (ScriptCacheListener other : activeRuns) {
+            jmeterCache().putAll(other.getScripts());
+        }
+    }
+
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    private synchronized Map<String, CompiledScript> jmeterCache() {
+        if (jmeterCache == null) {
+            Field field = JSR223TestElement.class.getDeclaredField("compiledScriptsCache");
+            field.setAccessible(true);
+            jmeterCache = (Map<String, CompiledScript>) field.get(null);
+        }
+        return jmeterCache;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), compiles.get(), evictions.get(), entries.size(), compileNanos.get() / 1_000_000);
+    }
+
+    @Value
+    public static class Stats {
+        long hits;
+        long compiles;
+        long evictions;
+        int entries;
+        long totalCompileMillis;
+    }
+
+    /**
+     * The scripts of one run
+     */
+    @Value
+    public static class RunStats {
+        int scripts;
+        int cacheHits;
+        int compiles;
+        int failures;
+        long compileMillis;
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+
+import javax.script.CompiledScript;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * This listener hands the compiled scripts of a run to JMeter when the test starts. It's the last element of the
+ * test plan, so it's told about the end of the test after the JSR223 elements, which clear the map of JMeter.
+ */
+public class ScriptCacheListener extends AbstractTestElement implements TestStateListener, NoThreadClone {
+    private final transient ScriptCache cache;
+    private final transient Map<String, CompiledScript> scripts;
+    private final transient ScriptCache.RunStats stats;
+
+    ScriptCacheListener(ScriptCache cache, Map<String, CompiledScript> scripts, ScriptCache.RunStats stats) {
+        this.cache = cache;
+        this.scripts = Collections.unmodifiableMap(scripts);
+        this.stats = stats;
+        setName("Script cache listener");
+    }
+
+    Map<String, CompiledScript> getScripts() {
+        return scripts;
+    }
+
+    public ScriptCache.RunStats getStats() {
+        return stats;
+    }
+
+    /**
+     * The listeners of all runs have the same properties, which AbstractTestElement compares, so each run is only
+     * equal to itself in the active runs of the cache
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public void testStarted() {
+        cache.started(this);
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        cache.ended(this);
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+}
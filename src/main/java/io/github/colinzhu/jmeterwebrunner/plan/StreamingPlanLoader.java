@@ -0,0 +1,379 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.JMeter;
+import org.apache.jmeter.save.SaveService;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.BooleanProperty;
+import org.apache.jmeter.testelement.property.CollectionProperty;
+import org.apache.jmeter.testelement.property.IntegerProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.LongProperty;
+import org.apache.jmeter.testelement.property.StringProperty;
+import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jmeter.util.NameUpdater;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This loader reads a JMX file with a streaming XML reader (StAX) and builds the test plan element by element,
+ * instead of building the object graph of the whole file at once like SaveService.loadTree. A disabled element is
+ * skipped with its subtree while reading, it's never built.
+ * <p>
+ * The elements made of string, bool, int, long, collection and element properties, i.e. most of them, are built
+ * directly the same way as the converters of SaveService do: the classes and the property names of older JMeter
+ * versions are updated by NameUpdater, and the properties are set in the same order. Any other element, e.g. with a
+ * double or an object property, is handed over to SaveService.loadElement. The elements and their properties are the
+ * ones of SaveService.loadTree followed by JMeter.convertSubTree, a JMX file of version 1.0 is loaded by SaveService.
+ */
+@Slf4j
+public class StreamingPlanLoader implements PlanLoader {
+    private static final String HASH_TREE = "hashTree";
+    private static final String HEADER_CLASS = "org.apache.jmeter.protocol.http.control.Header";
+    private static final String HEADER_NAME = "Header.name";
+    /** the JMX files of this version have URL encoded values, they are left to SaveService */
+    private static final String ENCODED_VERSION = "1.0";
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+    public StreamingPlanLoader() {
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Load the JMX file and remove the disabled test elements, like JMeterRunner.loadJmxAsTestPlan
+     *
+     * @param jmxFile the JMX file
+     * @return the test plan, not cloned
+     */
+    @Override
+    public HashTree load(File jmxFile) throws IOException, XMLStreamException {
+        long start = System.currentTimeMillis();
+        Counts counts = new Counts();
+        HashTree tree;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(jmxFile.toPath()), 64 * 1024)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                if (ENCODED_VERSION.equals(reader.getAttributeValue(null, "version"))) {
+                    log.info("Loading {} with SaveService, its version is {}", jmxFile, ENCODED_VERSION);
+                    tree = SaveService.loadTree(jmxFile);
+                } else {
+                    tree = new ListedHashTree();
+                    if (reader.nextTag() == XMLStreamConstants.START_ELEMENT && HASH_TREE.equals(reader.getLocalName())) {
+                        readHashTree(reader, tree, counts);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        JMeter.convertSubTree(tree, false); // e.g. the replaceable controllers, the disabled elements are already out
+        log.info("Loaded {} in {} ms: {} elements, {} disabled elements skipped, {} elements loaded by SaveService",
+                jmxFile, System.currentTimeMillis() - start, counts.elements, counts.disabled, counts.delegated);
+        return tree;
+    }
+
+    /**
+     * Read the elements of a hashTree, each one followed by the hashTree of its children
+     */
+    private void readHashTree(XMLStreamReader reader, HashTree tree, Counts counts) throws XMLStreamException, IOException {
+        int event = reader.nextTag();
+        while (event == XMLStreamConstants.START_ELEMENT) {
+            TestElement element = null;
+            if (HASH_TREE.equals(reader.getLocalName())) {
+                skip(reader); // a subtree without element
+            } else if (isEnabled(reader)) {
+                element = build(readNode(reader), counts);
+            } else {
+                skip(reader);
+                counts.disabled++;
+            }
+            event = reader.nextTag();
+            if (event == XMLStreamConstants.START_ELEMENT && HASH_TREE.equals(reader.getLocalName())) {
+                if (element != null) {
+                    readHashTree(reader, tree.add(element), counts);
+                } else {
+                    skip(reader);
+                }
+                event = reader.nextTag();
+            } else if (element != null) {
+                tree.add(element);
+            }
+        }
+    }
+
+    private static boolean isEnabled(XMLStreamReader reader) {
+        String enabled = reader.getAttributeValue(null, "enabled");
+        return enabled == null || enabled.isEmpty() || Boolean.parseBoolean(enabled);
+    }
+
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static Node readNode(XMLStreamReader reader) throws XMLStreamException {
+        Node node = new Node(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            node.attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                node.children.add(readNode(reader));
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                node.text.append(reader.getText());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return node;
+            }
+        }
+    }
+
+    private TestElement build(Node node, Counts counts) throws IOException {
+        counts.elements++;
+        try {
+            return buildElement(node);
+        } catch (UnsupportedNodeException | RuntimeException | ReflectiveOperationException e) {
+            // SaveService loads it, or fails with the same error as SaveService.loadTree
+            counts.delegated++;
+            Object element = SaveService.loadElement(new ByteArrayInputStream(node.toXml().getBytes(StandardCharsets.UTF_8)));
+            if (element instanceof TestElement) {
+                return (TestElement) element;
+            }
+            log.warn("Skipped the element {} \"{}\", it's not a test element", node.name, node.attributes.get("testname"));
+            return null;
+        }
+    }
+
+    /**
+     * See TestElementConverter
+     */
+    private TestElement buildElement(Node node) throws UnsupportedNodeException, ReflectiveOperationException {
+        String guiClass = node.attributes.get("guiclass");
+        if (guiClass == null) {
+            throw new UnsupportedNodeException();
+        }
+        String className = SaveService.aliasToClass(node.attributes.getOrDefault("class", node.name));
+        String testClassName = NameUpdater.getCurrentTestName(className, SaveService.aliasToClass(guiClass));
+        TestElement element = (TestElement) classFor(testClassName).getDeclaredConstructor().newInstance();
+        restoreSpecialProperties(element, node);
+        // TestElementConverter sets the updated class name over the testclass attribute, unlike for an elementProp
+        element.setProperty(TestElement.TEST_CLASS, testClassName);
+        for (Node child : node.children) {
+            JMeterProperty property = property(child, testClassName);
+            if (property != null) {
+                element.setProperty(property);
+            }
+        }
+        return element;
+    }
+
+    /**
+     * See the property converters of SaveService
+     */
+    private JMeterProperty property(Node node, String testClassName) throws UnsupportedNodeException,
+            ReflectiveOperationException {
+        switch (node.name) {
+            case "stringProp": {
+                String name = propertyName(node, testClassName);
+                return name == null ? null
+                        : new StringProperty(name, NameUpdater.getCurrentName(node.text.toString(), name, testClassName));
+            }
+            case "boolProp": {
+                String name = propertyName(node, testClassName);
+                return name == null ? null : new BooleanProperty(name, Boolean.parseBoolean(node.text.toString()));
+            }
+            case "intProp": {
+                String name = propertyName(node, testClassName);
+                return name == null ? null : new IntegerProperty(name, Integer.parseInt(node.text.toString()));
+            }
+            case "longProp": {
+                String name = propertyName(node, testClassName);
+                return name == null ? null : new LongProperty(name, Long.parseLong(node.text.toString()));
+            }
+            case "collectionProp": {
+                CollectionProperty collection = new CollectionProperty();
+                collection.setName(node.attributes.get("name"));
+                for (Node child : node.children) {
+                    JMeterProperty property = property(child, testClassName);
+                    if (property != null) {
+                        collection.addProperty(property);
+                    }
+                }
+                return collection;
+            }
+            case "elementProp": {
+                TestElementProperty elementProperty = new TestElementProperty();
+                elementProperty.setName(node.attributes.get("name"));
+                String elementType = node.attributes.get("elementType");
+                boolean header = HEADER_CLASS.equals(elementType);
+                TestElement element = (TestElement) classFor(SaveService.aliasToClass(elementType))
+                        .getDeclaredConstructor().newInstance();
+                elementProperty.setObjectValue(element);
+                restoreSpecialProperties(element, node);
+                for (Node child : node.children) {
+                    JMeterProperty property = property(child, testClassName);
+                    if (property != null) {
+                        if (header && TestElement.NAME.equals(property.getName())) {
+                            property.setName(HEADER_NAME);
+                        }
+                        elementProperty.addProperty(property);
+                    }
+                }
+                return elementProperty;
+            }
+            default:
+                throw new UnsupportedNodeException();
+        }
+    }
+
+    private static String propertyName(Node node, String testClassName) {
+        String name = node.attributes.getOrDefault("name", "");
+        String current = NameUpdater.getCurrentName(name, testClassName);
+        return !name.isEmpty() && current.isEmpty() ? null : current;
+    }
+
+    /**
+     * See ConversionHelp.restoreSpecialProperties
+     */
+    private static void restoreSpecialProperties(TestElement element, Node node) {
+        String guiClass = node.attributes.get("guiclass");
+        if (guiClass != null) {
+            element.setProperty(TestElement.GUI_CLASS, NameUpdater.getCurrentName(SaveService.aliasToClass(guiClass)));
+        }
+        String testClass = node.attributes.get("testclass");
+        if (testClass != null) {
+            element.setProperty(TestElement.TEST_CLASS, SaveService.aliasToClass(testClass));
+        }
+        String name = node.attributes.get("testname");
+        if (name != null) {
+            element.setProperty(TestElement.NAME, name);
+        }
+        String enabled = node.attributes.get("enabled");
+        if (enabled != null) {
+            element.setProperty(TestElement.ENABLED, enabled);
+        }
+    }
+
+    private Class<?> classFor(String className) throws ClassNotFoundException {
+        Class<?> type = classes.get(className);
+        if (type == null) {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            type = Class.forName(className, true, loader != null ? loader : SaveService.class.getClassLoader());
+            classes.put(className, type);
+        }
+        return type;
+    }
+
+    /**
+     * One XML element of a test element, with its attributes, text and children
+     */
+    private static class Node {
+        private final String name;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private final StringBuilder text = new StringBuilder();
+        private final List<Node> children = new ArrayList<>();
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        private String toXml() {
+            StringBuilder xml = new StringBuilder(256);
+            appendTo(xml);
+            return xml.toString();
+        }
+
+        private void appendTo(StringBuilder xml) {
+            xml.append('<').append(name);
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                xml.append(' ').append(attribute.getKey()).append("=\"");
+                escape(attribute.getValue(), xml);
+                xml.append('"');
+            }
+            xml.append('>');
+            if (children.isEmpty()) {
+                escape(text, xml);
+            }
+            for (Node child : children) {
+                child.appendTo(xml);
+            }
+            xml.append("</").append(name).append('>');
+        }
+
+        private static void escape(CharSequence value, StringBuilder xml) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '<':
+                        xml.append("&lt;");
+                        break;
+                    case '>':
+                        xml.append("&gt;");
+                        break;
+                    case '&':
+                        xml.append("&amp;");
+                        break;
+                    case '"':
+                        xml.append("&quot;");
+                        break;
+                    case '\r':
+                        xml.append("&#13;");
+                        break;
+                    case '\n':
+                        xml.append("&#10;");
+                        break;
+                    case '\t':
+                        xml.append("&#9;");
+                        break;
+                    default:
+                        xml.append(c);
+                }
+            }
+        }
+    }
+
+    private static class Counts {
+        private int elements;
+        private int disabled;
+        private int delegated;
+    }
+
+    /**
+     * The element has a part which only SaveService can convert
+     */
+    private static class UnsupportedNodeException extends Exception {
+        private UnsupportedNodeException() {
+            super(null, null, false, false);
+        }
+    }
+}
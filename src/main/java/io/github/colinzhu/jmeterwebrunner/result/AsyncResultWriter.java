@@ -0,0 +1,178 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The base of the listeners which save the samples without blocking the samplers on disk I/O. The sampler threads
+ * only copy the fields of the sample into a lock-free ring buffer, a dedicated writer thread takes them from the
+ * buffer and passes them to write(). When no sample is waiting, the writer thread calls flush().
+ */
+@Slf4j
+public abstract class AsyncResultWriter extends AbstractTestElement implements SampleListener, TestStateListener, NoThreadClone {
+    private static final int RING_CAPACITY = 64 * 1024;
+    private static final int DRAIN_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final transient SampleRingBuffer ring = new SampleRingBuffer(RING_CAPACITY);
+    private transient volatile boolean running;
+    private transient volatile boolean failed;
+    private transient Thread writerThread;
+
+    /**
+     * Open the files, on the thread starting the test
+     */
+    protected abstract void open() throws IOException;
+
+    /**
+     * Write one sample, on the writer thread. The slot must not be kept after the call.
+     */
+    protected abstract void write(SampleRingBuffer.Slot sample) throws IOException;
+
+    /**
+     * Write the buffered data to the files, on the writer thread
+     */
+    protected abstract void flush() throws IOException;
+
+    /**
+     * Close the files, on the writer thread
+     */
+    protected abstract void close() throws IOException;
+
+    /**
+     * @return the file or directory written, for the logs
+     */
+    protected abstract String getTarget();
+
+    /**
+     * Log what has been written, when the test has ended
+     *
+     * @param fullWaits number of times a sampler thread has waited for the writer
+     */
+    protected abstract void logSummary(long fullWaits);
+
+    /**
+     * Remove the result collectors which write a file, they block the samplers on disk I/O
+     *
+     * @param tree        the test plan of the run, already cloned for the run
+     * @param replacement the file which gets the samples instead, for the logs
+     * @return number of removed result collectors
+     */
+    public static int removeFileCollectors(HashTree tree, String replacement) {
+        int removed = 0;
+        for (Object element : new ArrayList<>(tree.list())) {
+            if (element instanceof ResultCollector && !((ResultCollector) element).getFilename().isEmpty()) {
+                log.info("Result file {} is replaced by {}", ((ResultCollector) element).getFilename(),
+                        replacement);
+                tree.remove(element);
+                removed++;
+            } else {
+                removed += removeFileCollectors(tree.getTree(element), replacement);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent event) {
+        if (!failed) {
+            ring.publish(event.getResult());
+        }
+    }
+
+    @Override
+    public void sampleStarted(SampleEvent event) {
+        // not used
+    }
+
+    @Override
+    public void sampleStopped(SampleEvent event) {
+        // not used
+    }
+
+    @Override
+    public void testStarted() {
+        try {
+            open();
+        } catch (IOException e) {
+            log.error("Failed to open {}, the samples are not saved", getTarget(), e);
+            failed = true;
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::writeLoop, "result-writer-" + getTarget());
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("Saving the samples to {}", getTarget());
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        if (writerThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logSummary(ring.getFullWaits());
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
+    private void writeLoop() {
+        try {
+            while (running || !ring.isEmpty()) {
+                if (ring.drain(this::writeUnchecked, DRAIN_BATCH) == 0) {
+                    flush(); // nothing to read, write what we have so that the files are never far behind
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            flush();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Failed to write {}, the next samples are not saved", getTarget(), e);
+            failed = true;
+            while (!ring.isEmpty()) { // release the sampler threads waiting on a full buffer
+                ring.drain(slot -> {
+                }, DRAIN_BATCH);
+            }
+        } finally {
+            try {
+                close();
+            } catch (IOException e) {
+                log.warn("Failed to close {}", getTarget(), e);
+            }
+        }
+    }
+
+    private void writeUnchecked(SampleRingBuffer.Slot sample) {
+        try {
+            write(sample);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
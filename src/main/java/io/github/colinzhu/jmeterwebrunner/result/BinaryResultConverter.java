@@ -0,0 +1,156 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts a binary result file to a JTL file, so that it can be loaded in JMeter or used to generate the HTML
+ * report. The output is XML when the file name ends with .xml, otherwise CSV with a header line.
+ * <p>
+ * java -cp jmeter-web-runner-full.jar io.github.colinzhu.jmeterwebrunner.result.BinaryResultConverter results.bin results.jtl
+ */
+@Slf4j
+public class BinaryResultConverter {
+    static final String CSV_HEADER = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,"
+            + "sentBytes,grpThreads,allThreads,Latency,Connect";
+
+    private BinaryResultConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinaryResultConverter <results.bin> <results.jtl|results.csv|results.xml>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        long samples = convert(new File(args[0]), new File(args[1]));
+        log.info("Converted {} samples from {} to {} in {} ms", samples, args[0], args[1],
+                System.currentTimeMillis() - start);
+        AsyncRunAppender.stopLogging();
+    }
+
+    /**
+     * Convert a binary result file to a JTL file
+     *
+     * @param binaryFile binary result file
+     * @param jtlFile    the JTL file to write, XML if the name ends with .xml, otherwise CSV
+     * @return number of samples
+     * @throws IOException if a file can't be read or written
+     */
+    public static long convert(File binaryFile, File jtlFile) throws IOException {
+        boolean xml = jtlFile.getName().toLowerCase().endsWith(".xml");
+        long samples = 0;
+        try (BinaryResultReader reader = new BinaryResultReader(binaryFile);
+             Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(jtlFile),
+                     StandardCharsets.UTF_8), 1024 * 1024)) {
+            out.write(xml ? "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n" : CSV_HEADER + "\n");
+            BinaryResultReader.Sample sample = new BinaryResultReader.Sample();
+            while (reader.next(sample)) {
+                if (xml) {
+                    writeXml(out, sample);
+                } else {
+                    writeCsv(out, sample);
+                }
+                samples++;
+            }
+            if (xml) {
+                out.write("</testResults>\n");
+            }
+        }
+        return samples;
+    }
+
+    private static void writeCsv(Writer out, BinaryResultReader.Sample s) throws IOException {
+        out.write(Long.toString(s.getTimeStamp()));
+        out.write(',');
+        out.write(Long.toString(s.getElapsed()));
+        out.write(',');
+        out.write(csv(s.getLabel()));
+        out.write(',');
+        out.write(csv(s.getResponseCode()));
+        out.write(',');
+        out.write(csv(s.getResponseMessage()));
+        out.write(',');
+        out.write(csv(s.getThreadName()));
+        out.write(',');
+        out.write(Boolean.toString(s.isSuccess()));
+        out.write(',');
+        out.write(Long.toString(s.getBytes()));
+        out.write(',');
+        out.write(Long.toString(s.getSentBytes()));
+        out.write(',');
+        out.write(Integer.toString(s.getGroupThreads()));
+        out.write(',');
+        out.write(Integer.toString(s.getAllThreads()));
+        out.write(',');
+        out.write(Long.toString(s.getLatency()));
+        out.write(',');
+        out.write(Long.toString(s.getConnect()));
+        out.write('\n');
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static void writeXml(Writer out, BinaryResultReader.Sample s) throws IOException {
+        out.write("<sample t=\"" + s.getElapsed()
+                + "\" lt=\"" + s.getLatency()
+                + "\" ct=\"" + s.getConnect()
+                + "\" ts=\"" + s.getTimeStamp()
+                + "\" s=\"" + s.isSuccess()
+                + "\" lb=\"" + xml(s.getLabel())
+                + "\" rc=\"" + xml(s.getResponseCode())
+                + "\" rm=\"" + xml(s.getResponseMessage())
+                + "\" tn=\"" + xml(s.getThreadName())
+                + "\" by=\"" + s.getBytes()
+                + "\" sby=\"" + s.getSentBytes()
+                + "\" sc=\"1\" ec=\"" + (s.isSuccess() ? 0 : 1)
+                + "\" ng=\"" + s.getGroupThreads()
+                + "\" na=\"" + s.getAllThreads() + "\"/>\n");
+    }
+
+    private static String xml(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                case '\n':
+                    escaped.append("&#10;");
+                    break;
+                case '\r':
+                    escaped.append("&#13;");
+                    break;
+                case '\t':
+                    escaped.append("&#9;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
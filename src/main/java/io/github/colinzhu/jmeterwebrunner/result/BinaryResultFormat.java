@@ -0,0 +1,70 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary result file format. The file starts with the magic "JWRB" and a version byte, followed by the samples.
+ * Each sample is a varint length and the fields:
+ * <pre>
+ * timestamp delta (zigzag varint), elapsed, latency, connect, bytes, sent bytes, group threads, all threads (varints),
+ * flags (1 = success, 2 = has response message), label, response code, thread name (strings), [response message]
+ * </pre>
+ * The timestamp is the delta to the previous sample. Label, response code and thread name are dictionary strings:
+ * a varint id, followed by the UTF-8 string (varint length and bytes) the first time an id appears.
+ * The response message is only saved for failed samples, as a plain string.
+ */
+class BinaryResultFormat {
+    static final byte[] MAGIC = {'J', 'W', 'R', 'B'};
+    static final byte VERSION = 1;
+    static final int FLAG_SUCCESS = 1;
+    static final int FLAG_MESSAGE = 2;
+
+    private BinaryResultFormat() {
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.FLAG_MESSAGE;
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.FLAG_SUCCESS;
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.readVarLong;
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.unZigZag;
+
+/**
+ * Reads a binary result file written by BinaryResultWriter, one sample after another.
+ */
+public class BinaryResultReader implements Closeable {
+    private final InputStream in;
+    private final List<String> labels = new ArrayList<>();
+    private final List<String> codes = new ArrayList<>();
+    private final List<String> threads = new ArrayList<>();
+    private byte[] bytes = new byte[256];
+    private long timeStamp;
+
+    public BinaryResultReader(File file) throws IOException {
+        this.in = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+        byte[] header = new byte[BinaryResultFormat.MAGIC.length + 1];
+        if (in.read(header) != header.length
+                || !Arrays.equals(Arrays.copyOf(header, BinaryResultFormat.MAGIC.length), BinaryResultFormat.MAGIC)) {
+            in.close();
+            throw new IOException("Not a binary result file: " + file);
+        }
+        if (header[header.length - 1] != BinaryResultFormat.VERSION) {
+            in.close();
+            throw new IOException("Unsupported binary result file version " + header[header.length - 1] + ": " + file);
+        }
+    }
+
+    /**
+     * Read the next sample
+     *
+     * @param sample the sample to fill, it can be reused for all the samples
+     * @return false at the end of the file
+     * @throws IOException if the file can't be read or is truncated
+     */
+    public boolean next(Sample sample) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        int length = (int) ((first & 0x80) == 0 ? first : (first & 0x7F) | readVarLong(in) << 7);
+        if (bytes.length < length) {
+            bytes = new byte[Integer.highestOneBit(length) << 1];
+        }
+        for (int read = 0; read < length; ) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated sample");
+            }
+            read += n;
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(bytes, 0, length);
+        timeStamp += unZigZag(readVarLong(record));
+        sample.timeStamp = timeStamp;
+        sample.elapsed = readVarLong(record);
+        sample.latency = readVarLong(record);
+        sample.connect = readVarLong(record);
+        sample.bytes = readVarLong(record);
+        sample.sentBytes = readVarLong(record);
+        sample.groupThreads = (int) readVarLong(record);
+        sample.allThreads = (int) readVarLong(record);
+        int flags = record.get();
+        sample.success = (flags & FLAG_SUCCESS) != 0;
+        sample.labelId = readDictionaryString(record, labels);
+        sample.label = labels.get(sample.labelId);
+        sample.codeId = readDictionaryString(record, codes);
+        sample.responseCode = codes.get(sample.codeId);
+        sample.threadName = threads.get(readDictionaryString(record, threads));
+        sample.responseMessage = (flags & FLAG_MESSAGE) != 0 ? readString(record) : "";
+        return true;
+    }
+
+    private static int readDictionaryString(ByteBuffer record, List<String> values) {
+        int id = (int) readVarLong(record);
+        if (id == values.size()) {
+            values.add(readString(record));
+        }
+        return id;
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = (int) readVarLong(record);
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * One sample of the file. The label id and the code id are in the order of first appearance in the file.
+     */
+    @Getter
+    public static class Sample {
+        private long timeStamp;
+        private long elapsed;
+        private long latency;
+        private long connect;
+        private long bytes;
+        private long sentBytes;
+        private int groupThreads;
+        private int allThreads;
+        private boolean success;
+        private int labelId;
+        private String label;
+        private int codeId;
+        private String responseCode;
+        private String responseMessage;
+        private String threadName;
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.FLAG_MESSAGE;
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.FLAG_SUCCESS;
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.putVarLong;
+import static io.github.colinzhu.jmeterwebrunner.result.BinaryResultFormat.zigZag;
+
+/**
+ * This listener saves the samples to a compact binary file without blocking the samplers on disk I/O. The writer
+ * thread encodes the samples (see BinaryResultFormat) and writes them with large writes of a direct buffer to a
+ * FileChannel.
+ * <p>
+ * The file can be converted to a CSV or XML JTL file with BinaryResultConverter.
+ */
+@Slf4j
+public class BinaryResultWriter extends AsyncResultWriter {
+    private static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+
+    private final transient File file;
+
+    // used by the writer thread only
+    private transient FileChannel channel;
+    private transient ByteBuffer out;
+    private transient ByteBuffer record;
+    private transient long previousTimeStamp;
+    private final transient Map<String, Integer> labelIds = new HashMap<>();
+    private final transient Map<String, Integer> codeIds = new HashMap<>();
+    private final transient Map<String, Integer> threadIds = new HashMap<>();
+    private transient long samples;
+    private transient long bytesWritten;
+
+    public BinaryResultWriter(File file) {
+        this.file = file;
+        setName("Binary result writer");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create the directory " + parent);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        record = ByteBuffer.allocate(256);
+        out.put(BinaryResultFormat.MAGIC).put(BinaryResultFormat.VERSION);
+    }
+
+    @Override
+    protected String getTarget() {
+        return file.getPath();
+    }
+
+    @Override
+    protected void logSummary(long fullWaits) {
+        log.info("Saved {} samples to {}, {} bytes, {} bytes per sample, waits on full buffer: {}", samples, file,
+                bytesWritten, samples == 0 ? 0 : bytesWritten / samples, fullWaits);
+    }
+
+    @Override
+    protected void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    protected void write(SampleRingBuffer.Slot slot) throws IOException {
+        String message = slot.responseMessage;
+        ensureRecordCapacity(96 + maxBytes(slot.label) + maxBytes(slot.responseCode) + maxBytes(slot.threadName)
+                + maxBytes(message));
+        record.clear();
+        putVarLong(record, zigZag(slot.timeStamp - previousTimeStamp));
+        previousTimeStamp = slot.timeStamp;
+        putVarLong(record, slot.elapsed);
+        putVarLong(record, slot.latency);
+        putVarLong(record, slot.connect);
+        putVarLong(record, slot.bytes);
+        putVarLong(record, slot.sentBytes);
+        putVarLong(record, slot.groupThreads);
+        putVarLong(record, slot.allThreads);
+        record.put((byte) ((slot.success ? FLAG_SUCCESS : 0) | (message != null ? FLAG_MESSAGE : 0)));
+        putDictionaryString(labelIds, slot.label);
+        putDictionaryString(codeIds, slot.responseCode);
+        putDictionaryString(threadIds, slot.threadName);
+        if (message != null) {
+            putString(message);
+        }
+        record.flip();
+
+        int length = record.remaining();
+        if (out.remaining() < length + 5) {
+            flush();
+        }
+        if (out.remaining() < length + 5) { // a record bigger than the write buffer
+            ByteBuffer prefix = ByteBuffer.allocate(5);
+            putVarLong(prefix, length);
+            prefix.flip();
+            writeFully(prefix);
+            writeFully(record);
+        } else {
+            putVarLong(out, length);
+            out.put(record);
+        }
+        samples++;
+    }
+
+    private void putDictionaryString(Map<String, Integer> ids, String value) {
+        String key = value == null ? "" : value;
+        Integer id = ids.get(key);
+        if (id != null) {
+            putVarLong(record, id);
+        } else {
+            putVarLong(record, ids.size());
+            ids.put(key, ids.size());
+            putString(key);
+        }
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarLong(record, bytes.length);
+        record.put(bytes);
+    }
+
+    private static int maxBytes(String value) {
+        return value == null ? 0 : value.length() * 3 + 5;
+    }
+
+    private void ensureRecordCapacity(int capacity) {
+        if (record.capacity() < capacity) {
+            record = ByteBuffer.allocate(Integer.highestOneBit(capacity) << 1);
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            bytesWritten += channel.write(out);
+        }
+        out.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.Getter;
+import lombok.Value;
+import org.HdrHistogram.IntCountsHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar result directory written by ColumnarResultWriter, read through memory-mapped buffers. Each field of
+ * the samples is in its own file with a fixed width, so the n-th sample is at n * width in every file, and a query
+ * only reads the columns it needs. Label and response code are ids in labels.txt and codes.txt (one per line,
+ * backslash and newline escaped).
+ * <p>
+ * The directory can be read while it's written, the samples flushed so far are read. A column file is mapped with
+ * one buffer, which limits a run to 268 million samples.
+ */
+public class ColumnarResultStore {
+    static final String LABELS_FILE = "labels.txt";
+    static final String CODES_FILE = "codes.txt";
+    private static final int HISTOGRAM_DIGITS = 2;
+
+    @Getter
+    public enum Column {
+        TIMESTAMP("timestamp.col", 8),
+        ELAPSED("elapsed.col", 4),
+        LATENCY("latency.col", 4),
+        CONNECT("connect.col", 4),
+        LABEL("label.col", 4),
+        CODE("code.col", 4),
+        BYTES("bytes.col", 8),
+        SUCCESS("success.col", 1);
+
+        private final String fileName;
+        private final int width;
+
+        Column(String fileName, int width) {
+            this.fileName = fileName;
+            this.width = width;
+        }
+    }
+
+    private final File directory;
+    private final Map<Column, MappedByteBuffer> columns = new EnumMap<>(Column.class);
+    @Getter
+    private final List<String> labels;
+    @Getter
+    private final List<String> codes;
+    @Getter
+    private final int rows;
+
+    private ColumnarResultStore(File directory) throws IOException {
+        this.directory = directory;
+        // the dictionaries first: they are flushed before the columns, so they know every id of the mapped rows
+        this.labels = readDictionary(LABELS_FILE);
+        this.codes = readDictionary(CODES_FILE);
+        long minRows = Long.MAX_VALUE;
+        for (Column column : Column.values()) {
+            File file = new File(directory, column.getFileName());
+            minRows = Math.min(minRows, file.length() / column.getWidth());
+        }
+        if (minRows * 8 > Integer.MAX_VALUE) {
+            throw new IOException("Too many samples to map: " + minRows);
+        }
+        this.rows = (int) minRows;
+        for (Column column : Column.values()) {
+            try (FileChannel channel = FileChannel.open(new File(directory, column.getFileName()).toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) rows * column.getWidth());
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                columns.put(column, buffer);
+            }
+        }
+    }
+
+    /**
+     * Map the result files of a directory
+     *
+     * @param directory the directory written by ColumnarResultWriter
+     * @return the store
+     * @throws IOException if the directory is not a columnar result directory
+     */
+    public static ColumnarResultStore open(File directory) throws IOException {
+        if (!new File(directory, Column.TIMESTAMP.getFileName()).isFile()) {
+            throw new IOException("Not a columnar result directory: " + directory);
+        }
+        return new ColumnarResultStore(directory);
+    }
+
+    private List<String> readDictionary(String fileName) throws IOException {
+        List<String> values = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(directory, fileName).toPath(), StandardCharsets.UTF_8)) {
+            values.add(unescape(line));
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Elapsed time percentile, count and errors per time bucket, grouped by label or by response code
+     *
+     * @param bucketMillis size of the time buckets, aligned to the epoch
+     * @param percentile   the percentile of the elapsed times, e.g. 99
+     * @param label        only the samples of this label, or null
+     * @param code         only the samples with this response code, or null
+     * @param fromMillis   only the samples which started at or after this time, or 0
+     * @param toMillis     only the samples which started before this time, or Long.MAX_VALUE
+     * @param byCode       group by response code instead of label
+     * @return the buckets, ordered by time and key
+     */
+    public List<Bucket> percentiles(long bucketMillis, double percentile, String label, String code,
+                                    long fromMillis, long toMillis, boolean byCode) {
+        int labelFilter = label == null ? -1 : labels.indexOf(label);
+        int codeFilter = code == null ? -1 : codes.indexOf(code);
+        if (label != null && labelFilter < 0 || code != null && codeFilter < 0) {
+            return Collections.emptyList();
+        }
+        MappedByteBuffer timestamps = columns.get(Column.TIMESTAMP);
+        MappedByteBuffer elapsed = columns.get(Column.ELAPSED);
+        MappedByteBuffer labelIds = columns.get(Column.LABEL);
+        MappedByteBuffer codeIds = columns.get(Column.CODE);
+        MappedByteBuffer success = columns.get(Column.SUCCESS);
+        int keys = Math.max(byCode ? codes.size() : labels.size(), 1);
+
+        Map<Long, Cell> cells = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            int labelId = labelIds.getInt(row * 4);
+            if (labelFilter >= 0 && labelId != labelFilter) {
+                continue;
+            }
+            int codeId = codeIds.getInt(row * 4);
+            if (codeFilter >= 0 && codeId != codeFilter) {
+                continue;
+            }
+            long timestamp = timestamps.getLong(row * 8);
+            if (timestamp < fromMillis || timestamp >= toMillis) {
+                continue;
+            }
+            long cellKey = (timestamp / bucketMillis) * keys + (byCode ? codeId : labelId);
+            Cell cell = cells.get(cellKey);
+            if (cell == null) {
+                cell = new Cell();
+                cells.put(cellKey, cell);
+            }
+            cell.histogram.recordValue(elapsed.getInt(row * 4));
+            if (success.get(row) == 0) {
+                cell.errors++;
+            }
+        }
+
+        List<Long> cellKeys = new ArrayList<>(cells.keySet());
+        Collections.sort(cellKeys);
+        List<Bucket> buckets = new ArrayList<>(cellKeys.size());
+        for (Long cellKey : cellKeys) {
+            Cell cell = cells.get(cellKey);
+            int keyId = (int) (cellKey % keys);
+            buckets.add(new Bucket(cellKey / keys * bucketMillis, byCode ? codes.get(keyId) : labels.get(keyId),
+                    cell.histogram.getTotalCount(), cell.errors, cell.histogram.getValueAtPercentile(percentile)));
+        }
+        return buckets;
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                unescaped.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private static class Cell {
+        // auto-resized, with 2 digits it stays small enough for thousands of cells
+        private final IntCountsHistogram histogram = new IntCountsHistogram(HISTOGRAM_DIGITS);
+        private long errors;
+    }
+
+    @Value
+    public static class Bucket {
+        long time;
+        String key;
+        long count;
+        long errors;
+        long percentileMillis;
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This listener saves the samples in a columnar format: one file per field with a fixed width per sample, plus the
+ * dictionaries of the labels and response codes. See ColumnarResultStore for the format and the queries.
+ * The samples are written by the writer thread of AsyncResultWriter, without blocking the samplers.
+ */
+@Slf4j
+public class ColumnarResultWriter extends AsyncResultWriter {
+    private static final int ROWS_PER_WRITE = 32 * 1024;
+
+    private final transient File directory;
+
+    // used by the writer thread only
+    private final transient Map<ColumnarResultStore.Column, FileChannel> channels = new EnumMap<>(ColumnarResultStore.Column.class);
+    private final transient Map<ColumnarResultStore.Column, ByteBuffer> buffers = new EnumMap<>(ColumnarResultStore.Column.class);
+    private final transient Map<String, Integer> labelIds = new HashMap<>();
+    private final transient Map<String, Integer> codeIds = new HashMap<>();
+    private transient Writer labelWriter;
+    private transient Writer codeWriter;
+    private transient int bufferedRows;
+    private transient long rows;
+
+    public ColumnarResultWriter(File directory) {
+        this.directory = directory;
+        setName("Columnar result writer");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Can't create the directory " + directory);
+        }
+        for (ColumnarResultStore.Column column : ColumnarResultStore.Column.values()) {
+            channels.put(column, FileChannel.open(new File(directory, column.getFileName()).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            buffers.put(column, ByteBuffer.allocateDirect(column.getWidth() * ROWS_PER_WRITE));
+        }
+        labelWriter = dictionaryWriter(ColumnarResultStore.LABELS_FILE);
+        codeWriter = dictionaryWriter(ColumnarResultStore.CODES_FILE);
+    }
+
+    private Writer dictionaryWriter(String fileName) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(new File(directory, fileName).toPath()),
+                StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void write(SampleRingBuffer.Slot sample) throws IOException {
+        if (bufferedRows == ROWS_PER_WRITE) {
+            flush();
+        }
+        buffers.get(ColumnarResultStore.Column.TIMESTAMP).putLong(sample.timeStamp);
+        buffers.get(ColumnarResultStore.Column.ELAPSED).putInt(toInt(sample.elapsed));
+        buffers.get(ColumnarResultStore.Column.LATENCY).putInt(toInt(sample.latency));
+        buffers.get(ColumnarResultStore.Column.CONNECT).putInt(toInt(sample.connect));
+        buffers.get(ColumnarResultStore.Column.LABEL).putInt(dictionaryId(labelIds, labelWriter, sample.label));
+        buffers.get(ColumnarResultStore.Column.CODE).putInt(dictionaryId(codeIds, codeWriter, sample.responseCode));
+        buffers.get(ColumnarResultStore.Column.BYTES).putLong(sample.bytes);
+        buffers.get(ColumnarResultStore.Column.SUCCESS).put((byte) (sample.success ? 1 : 0));
+        bufferedRows++;
+        rows++;
+    }
+
+    private static int dictionaryId(Map<String, Integer> ids, Writer writer, String value) throws IOException {
+        String key = value == null ? "" : value;
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+            writer.write(ColumnarResultStore.escape(key));
+            writer.write('\n');
+        }
+        return id;
+    }
+
+    private static int toInt(long value) {
+        return (int) Math.min(Math.max(value, 0), Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        labelWriter.flush(); // the dictionaries first, so that a reader knows every id of the columns
+        codeWriter.flush();
+        for (Map.Entry<ColumnarResultStore.Column, ByteBuffer> entry : buffers.entrySet()) {
+            ByteBuffer buffer = entry.getValue();
+            buffer.flip();
+            FileChannel channel = channels.get(entry.getKey());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        bufferedRows = 0;
+    }
+
+    @Override
+    protected void close() throws IOException {
+        labelWriter.close();
+        codeWriter.close();
+        for (FileChannel channel : channels.values()) {
+            channel.close();
+        }
+    }
+
+    @Override
+    protected String getTarget() {
+        return directory.getPath();
+    }
+
+    @Override
+    protected void logSummary(long fullWaits) {
+        log.info("Saved {} samples to {}, {} labels, {} response codes, waits on full buffer: {}", rows, directory,
+                labelIds.size(), codeIds.size(), fullWaits);
+    }
+}
@@ -0,0 +1,201 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import io.github.colinzhu.jmeterwebrunner.workload.ThreadCount;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jorphan.collections.HashTree;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This listener corrects the latencies of closed-loop thread groups for coordinated omission. A thread waiting for
+ * a slow response doesn't send the requests it would have sent in the meantime, so the slow response is counted once
+ * instead of once per missed request. The corrected histogram back-fills the missed samples, HdrHistogram-style,
+ * from the expected interval between two samples of the thread:
+ * <ul>
+ *     <li>with a Constant Throughput Timer or a Precise Throughput Timer, the pacing interval of the timer</li>
+ *     <li>otherwise the think time of the thread, measured between the end of a sample and the start of the next one
+ *     so that it includes all the timers, plus the median elapsed time of the thread group</li>
+ * </ul>
+ * The raw and corrected percentiles are reported side by side by the ResultAggregator.
+ */
+@Slf4j
+public class CoordinatedOmissionCorrector extends AbstractTestElement implements SampleListener, NoThreadClone {
+    private static final double THINK_TIME_WEIGHT = 0.2;
+    private static final long MEDIAN_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final transient ResultAggregator results;
+    private final transient Map<AbstractThreadGroup, Long> pacingMillis;
+    private final transient ConcurrentHashMap<AbstractThreadGroup, GroupState> groups = new ConcurrentHashMap<>();
+    private final transient ThreadLocal<ThreadState> threads = ThreadLocal.withInitial(ThreadState::new);
+
+    private CoordinatedOmissionCorrector(ResultAggregator results, Map<AbstractThreadGroup, Long> pacingMillis) {
+        this.results = results;
+        this.pacingMillis = pacingMillis;
+        setName("Coordinated omission corrector");
+    }
+
+    /**
+     * Create the corrector for a test plan, the pacing of the throughput timers is read from the plan
+     *
+     * @param testPlan the test plan of the run, with its final thread groups
+     * @param results  the results of the run, which keep the corrected histograms
+     * @return the corrector to add to the test plan
+     */
+    public static CoordinatedOmissionCorrector create(HashTree testPlan, ResultAggregator results) {
+        Map<AbstractThreadGroup, Long> pacing = new IdentityHashMap<>();
+        HashTree planTree = testPlan.getTree(testPlan.getArray()[0]);
+        Map<AbstractThreadGroup, Integer> threads = new IdentityHashMap<>();
+        int allThreads = 0;
+        for (Object element : planTree.list()) {
+            if (element instanceof AbstractThreadGroup) {
+                int groupThreads = threads((AbstractThreadGroup) element);
+                threads.put((AbstractThreadGroup) element, groupThreads);
+                allThreads = allThreads < 0 || groupThreads < 0 ? -1 : allThreads + groupThreads;
+            }
+        }
+        for (Object element : planTree.list()) {
+            if (element instanceof AbstractThreadGroup) {
+                AbstractThreadGroup group = (AbstractThreadGroup) element;
+                long interval = pacingMillis(planTree.getTree(group), threads.get(group), allThreads);
+                if (interval > 0) {
+                    pacing.put(group, interval);
+                    log.info("Expected interval of the threads of {}: {} ms, from its throughput timer", group.getName(), interval);
+                }
+            }
+        }
+        return new CoordinatedOmissionCorrector(results, pacing);
+    }
+
+    /**
+     * @return the threads of the group, or -1 if they're only known during the run, e.g. given by a variable
+     */
+    private static int threads(AbstractThreadGroup group) {
+        try {
+            // the plan is not configured yet, getNumThreads() would read ${__P(users,10)} as 0
+            return ThreadCount.of(group);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The interval between two samples of one thread given by the throughput timers of a thread group.
+     * Timers given by variables or functions are not known before the run and are ignored, so are the timers shared
+     * by threads whose number is not known.
+     */
+    private static long pacingMillis(HashTree tree, int groupThreads, int allThreads) {
+        for (Object element : tree.list()) {
+            String type = element.getClass().getSimpleName();
+            if ("ConstantThroughputTimer".equals(type)) {
+                TestElement timer = (TestElement) element;
+                double perMinute = timer.getPropertyAsDouble("throughput");
+                int calcMode = timer.getPropertyAsInt("calcMode");
+                // 0: this thread only, 1 and 3: all active threads, 2 and 4: all active threads of the group
+                int threads = calcMode == 0 ? 1 : calcMode == 1 || calcMode == 3 ? allThreads : groupThreads;
+                if (perMinute > 0 && threads > 0) {
+                    return Math.round(60_000 * threads / perMinute);
+                }
+            } else if ("PreciseThroughputTimer".equals(type)) {
+                TestElement timer = (TestElement) element;
+                double perPeriod = timer.getPropertyAsDouble("throughput");
+                int periodSeconds = timer.getPropertyAsInt("throughputPeriod");
+                if (perPeriod > 0 && periodSeconds > 0 && groupThreads > 0) {
+                    return Math.round(periodSeconds * 1000.0 * groupThreads / perPeriod);
+                }
+            }
+            long interval = pacingMillis(tree.getTree(element), groupThreads, allThreads);
+            if (interval > 0) {
+                return interval;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent event) {
+        SampleResult result = event.getResult();
+        ThreadState thread = threads.get();
+        if (thread.group == null) {
+            AbstractThreadGroup threadGroup = JMeterContextService.getContext().getThreadGroup();
+            thread.group = groups.computeIfAbsent(threadGroup, g -> new GroupState(pacingMillis.getOrDefault(g, 0L)));
+        }
+        GroupState group = thread.group;
+        long elapsed = result.getTime();
+        group.record(elapsed);
+
+        long expectedInterval = group.pacingMillis;
+        if (expectedInterval == 0) {
+            long previousEnd = thread.lastEndTime;
+            thread.lastEndTime = result.getEndTime();
+            if (previousEnd == 0) {
+                results.recordCorrected(result.getSampleLabel(), elapsed); // the think time is not known yet
+                return;
+            }
+            long gap = Math.max(result.getStartTime() - previousEnd, 0);
+            thread.thinkTime = thread.thinkTime < 0 ? gap : thread.thinkTime + THINK_TIME_WEIGHT * (gap - thread.thinkTime);
+            expectedInterval = Math.round(thread.thinkTime) + group.medianMillis;
+        }
+        if (expectedInterval > 0) {
+            results.recordCorrected(result.getSampleLabel(), elapsed, expectedInterval);
+        } else {
+            results.recordCorrected(result.getSampleLabel(), elapsed);
+        }
+    }
+
+    @Override
+    public void sampleStarted(SampleEvent event) {
+        // not used
+    }
+
+    @Override
+    public void sampleStopped(SampleEvent event) {
+        // not used
+    }
+
+    private static class ThreadState {
+        private GroupState group;
+        private long lastEndTime;
+        private double thinkTime = -1;
+    }
+
+    /**
+     * The pacing and the median elapsed time of a thread group, the median is refreshed every second
+     */
+    private static class GroupState {
+        private final long pacingMillis;
+        private final Recorder elapsed = new Recorder(1, LabelStats.HIGHEST_TRACKABLE_MILLIS, 2);
+        private final Histogram accumulated = new Histogram(1, LabelStats.HIGHEST_TRACKABLE_MILLIS, 2);
+        private final AtomicLong lastRefreshNanos = new AtomicLong(System.nanoTime());
+        private volatile long medianMillis;
+
+        private GroupState(long pacingMillis) {
+            this.pacingMillis = pacingMillis;
+        }
+
+        private void record(long millis) {
+            elapsed.recordValue(Math.min(Math.max(millis, 0), LabelStats.HIGHEST_TRACKABLE_MILLIS));
+            long now = System.nanoTime();
+            long last = lastRefreshNanos.get();
+            if (now - last > MEDIAN_REFRESH_NANOS && lastRefreshNanos.compareAndSet(last, now)) {
+                synchronized (this) {
+                    accumulated.add(elapsed.getIntervalHistogram());
+                    medianMillis = accumulated.getValueAtPercentile(50);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jmeter.samplers.SampleResult;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The aggregated results of one sampler label. Samples are recorded without locks and without allocations, the
+ * elapsed times go into a HdrHistogram Recorder whose interval histogram is swapped out when a snapshot is taken.
+ * <p>
+ * Latencies corrected for queueing, e.g. measured from the intended start of an open workload, are kept in a
+ * separate histogram, so that the raw and the corrected percentiles can be reported side by side.
+ * <p>
+ * The stats of a worker process are sent to the coordinator as deltas of the histograms, and merged there into the
+ * stats of the same label.
+ * <p>
+ * The histograms resize themselves to the highest latency recorded, so a label of fast samples takes a few tens of KB
+ * instead of the 100 KB of a histogram sized for an hour. The corrected histograms are only allocated once a corrected
+ * latency is recorded or merged.
+ */
+public class LabelStats {
+    static final long HIGHEST_TRACKABLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    /** read only, for the snapshots of the labels without corrected latencies */
+    private static final Histogram NO_CORRECTED = new Histogram(SIGNIFICANT_DIGITS);
+
+    private final String label;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram sinceTick = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram interval;
+    // only allocated with an open workload or a coordinated omission correction
+    private volatile Recorder correctedRecorder;
+    private Histogram correctedTotal;
+    private Histogram correctedInterval;
+    private long countAtTick;
+    private long errorsAtTick;
+    // only allocated when deltas are taken, in worker processes
+    private Histogram sinceDelta;
+    private Histogram correctedSinceDelta;
+    private long countAtDelta;
+    private long errorsAtDelta;
+    private long bytesAtDelta;
+
+    public LabelStats(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    void record(SampleResult result) {
+        count.increment();
+        if (!result.isSuccessful()) {
+            errors.increment();
+        }
+        bytes.add(result.getBytesAsLong() + result.getSentBytes());
+        recorder.recordValue(clamp(result.getTime()));
+    }
+
+    void recordCorrected(long millis) {
+        correctedRecorder().recordValue(clamp(millis));
+    }
+
+    void recordCorrected(long millis, long expectedIntervalMillis) {
+        correctedRecorder().recordValueWithExpectedInterval(clamp(millis), expectedIntervalMillis);
+    }
+
+    private Recorder correctedRecorder() {
+        Recorder corrected = correctedRecorder;
+        if (corrected == null) {
+            synchronized (this) {
+                startCorrected();
+                corrected = correctedRecorder;
+            }
+        }
+        return corrected;
+    }
+
+    private void startCorrected() {
+        if (correctedRecorder == null) {
+            correctedTotal = new Histogram(SIGNIFICANT_DIGITS);
+            if (sinceDelta != null) {
+                correctedSinceDelta = new Histogram(SIGNIFICANT_DIGITS);
+            }
+            correctedRecorder = new Recorder(SIGNIFICANT_DIGITS);
+        }
+    }
+
+    private static long clamp(long millis) {
+        return Math.min(Math.max(millis, 0), HIGHEST_TRACKABLE_MILLIS);
+    }
+
+    /**
+     * Take a snapshot of everything recorded so far
+     *
+     * @return the snapshot
+     */
+    public synchronized Snapshot snapshot() {
+        drain();
+        Histogram corrected = correctedTotal != null ? correctedTotal : NO_CORRECTED;
+        return new Snapshot(label, count.sum(), errors.sum(), bytes.sum(), total.getMean(),
+                total.getTotalCount() == 0 ? 0 : total.getMinValue(), total.getMaxValue(),
+                total.getValueAtPercentile(50), total.getValueAtPercentile(90), total.getValueAtPercentile(95),
+                total.getValueAtPercentile(99), total.getValueAtPercentile(99.9),
+                corrected.getTotalCount(), corrected.getValueAtPercentile(50),
+                corrected.getValueAtPercentile(99), corrected.getValueAtPercentile(99.9),
+                corrected.getMaxValue());
+    }
+
+    /**
+     * Take the figures recorded since the previous tick, for the live metrics
+     *
+     * @return the figures since the previous tick
+     */
+    synchronized Tick tick() {
+        drain();
+        long currentCount = count.sum();
+        long currentErrors = errors.sum();
+        boolean empty = sinceTick.getTotalCount() == 0;
+        Tick tick = new Tick(label, currentCount - countAtTick, currentErrors - errorsAtTick,
+                empty ? 0 : sinceTick.getMean(),
+                empty ? 0 : sinceTick.getValueAtPercentile(95),
+                empty ? 0 : sinceTick.getValueAtPercentile(99));
+        countAtTick = currentCount;
+        errorsAtTick = currentErrors;
+        sinceTick.reset();
+        return tick;
+    }
+
+    /**
+     * Take everything recorded since the previous delta, to be merged into the stats of another process
+     *
+     * @return the delta, its histograms are copies
+     */
+    synchronized Delta delta() {
+        if (sinceDelta == null) {
+            sinceDelta = total.copy();
+            if (correctedTotal != null) {
+                correctedSinceDelta = correctedTotal.copy();
+            }
+        }
+        drain();
+        long currentCount = count.sum();
+        long currentErrors = errors.sum();
+        long currentBytes = bytes.sum();
+        Delta delta = new Delta(label, currentCount - countAtDelta, currentErrors - errorsAtDelta,
+                currentBytes - bytesAtDelta, sinceDelta.copy(),
+                correctedSinceDelta == null ? null : correctedSinceDelta.copy());
+        countAtDelta = currentCount;
+        errorsAtDelta = currentErrors;
+        bytesAtDelta = currentBytes;
+        sinceDelta.reset();
+        if (correctedSinceDelta != null) {
+            correctedSinceDelta.reset();
+        }
+        return delta;
+    }
+
+    /**
+     * Add a delta taken in another process
+     *
+     * @param delta the delta of the same label
+     */
+    synchronized void merge(Delta delta) {
+        count.add(delta.getCount());
+        errors.add(delta.getErrors());
+        bytes.add(delta.getBytes());
+        total.add(delta.getElapsed());
+        sinceTick.add(delta.getElapsed());
+        if (sinceDelta != null) {
+            sinceDelta.add(delta.getElapsed());
+        }
+        if (delta.getCorrected() != null) {
+            startCorrected();
+            correctedTotal.add(delta.getCorrected());
+            if (correctedSinceDelta != null) {
+                correctedSinceDelta.add(delta.getCorrected());
+            }
+        }
+    }
+
+    private void drain() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        sinceTick.add(interval);
+        if (sinceDelta != null) {
+            sinceDelta.add(interval);
+        }
+        if (correctedRecorder != null) {
+            correctedInterval = correctedRecorder.getIntervalHistogram(correctedInterval);
+            correctedTotal.add(correctedInterval);
+            if (correctedSinceDelta != null) {
+                correctedSinceDelta.add(correctedInterval);
+            }
+        }
+    }
+
+    @Value
+    public static class Tick {
+        String label;
+        long count;
+        long errors;
+        double mean;
+        long p95;
+        long p99;
+    }
+
+    @Value
+    public static class Delta {
+        String label;
+        long count;
+        long errors;
+        long bytes;
+        Histogram elapsed;
+        /**
+         * null if no corrected latency was recorded
+         */
+        Histogram corrected;
+
+        public boolean isEmpty() {
+            return count == 0 && (corrected == null || corrected.getTotalCount() == 0);
+        }
+    }
+
+    @Value
+    public static class Snapshot {
+        String label;
+        long count;
+        long errors;
+        long bytes;
+        double mean;
+        long min;
+        long max;
+        long p50;
+        long p90;
+        long p95;
+        long p99;
+        long p999;
+        long correctedCount;
+        long correctedP50;
+        long correctedP99;
+        long correctedP999;
+        long correctedMax;
+
+        public double getErrorRate() {
+            return count == 0 ? 0 : (double) errors / count;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The live metrics of a run between two ticks
+ */
+@Value
+public class MetricsTick {
+    long time;
+    double seconds;
+    int activeThreads;
+    LabelStats.Tick total;
+    List<LabelStats.Tick> labels;
+
+    public double getThroughput() {
+        return total.getCount() / seconds;
+    }
+
+    public double getErrorRate() {
+        return total.getCount() == 0 ? 0 : (double) total.getErrors() / total.getCount();
+    }
+}
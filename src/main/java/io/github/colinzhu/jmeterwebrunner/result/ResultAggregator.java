@@ -0,0 +1,192 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.ThreadListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This listener is added to the test plan of every run. It aggregates the samples per label in memory,
+ * so that the run gets its counts and latency percentiles without writing any result file.
+ * <p>
+ * It also counts the active threads of its own run, as a ThreadListener of the plan. The thread counts of the
+ * samples come from JMeterContextService, which counts the threads of the whole JVM.
+ */
+public class ResultAggregator extends AbstractTestElement implements SampleListener, ThreadListener, NoThreadClone {
+    public static final String TOTAL = "TOTAL";
+
+    private final transient ConcurrentHashMap<String, LabelStats> labels = new ConcurrentHashMap<>();
+    private final transient LabelStats total = new LabelStats(TOTAL);
+    private final transient AtomicInteger activeThreads = new AtomicInteger();
+    private transient long lastTickNanos = System.nanoTime();
+
+    public ResultAggregator() {
+        setName("Result aggregator");
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent event) {
+        SampleResult result = event.getResult();
+        labelStats(result.getSampleLabel()).record(result);
+        total.record(result);
+    }
+
+    @Override
+    public void threadStarted() {
+        activeThreads.incrementAndGet();
+    }
+
+    @Override
+    public void threadFinished() {
+        activeThreads.decrementAndGet();
+    }
+
+    /**
+     * Record the latency of a sample corrected for queueing, e.g. measured from its intended start time
+     *
+     * @param label  sampler label
+     * @param millis corrected latency
+     */
+    public void recordCorrected(String label, long millis) {
+        labelStats(label).recordCorrected(millis);
+        total.recordCorrected(millis);
+    }
+
+    /**
+     * Record the latency of a sample of a closed-loop thread, and back-fill the samples the thread would have sent
+     * while it was waiting for a response longer than its expected interval
+     *
+     * @param label                  sampler label
+     * @param millis                 latency of the sample
+     * @param expectedIntervalMillis expected time between the starts of two samples of the thread
+     */
+    public void recordCorrected(String label, long millis, long expectedIntervalMillis) {
+        labelStats(label).recordCorrected(millis, expectedIntervalMillis);
+        total.recordCorrected(millis, expectedIntervalMillis);
+    }
+
+    private LabelStats labelStats(String label) {
+        LabelStats stats = labels.get(label);
+        return stats != null ? stats : labels.computeIfAbsent(label, LabelStats::new);
+    }
+
+    @Override
+    public void sampleStarted(SampleEvent event) {
+        // not used
+    }
+
+    @Override
+    public void sampleStopped(SampleEvent event) {
+        // not used
+    }
+
+    /**
+     * Take a snapshot of all labels, sorted by label and followed by the total
+     *
+     * @return the snapshots
+     */
+    public List<LabelStats.Snapshot> snapshot() {
+        List<LabelStats.Snapshot> snapshots = new ArrayList<>(labels.size() + 1);
+        for (LabelStats stats : labels.values()) {
+            snapshots.add(stats.snapshot());
+        }
+        snapshots.sort(Comparator.comparing(LabelStats.Snapshot::getLabel));
+        snapshots.add(total.snapshot());
+        return snapshots;
+    }
+
+    /**
+     * Take the figures recorded since the previous tick, labels without samples in between are left out
+     *
+     * @return the metrics since the previous tick
+     */
+    public synchronized MetricsTick tick() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastTickNanos, 1) / 1e9;
+        lastTickNanos = now;
+
+        List<LabelStats.Tick> ticks = new ArrayList<>();
+        for (LabelStats stats : labels.values()) {
+            LabelStats.Tick tick = stats.tick();
+            if (tick.getCount() > 0) {
+                ticks.add(tick);
+            }
+        }
+        return new MetricsTick(System.currentTimeMillis(), seconds, activeThreads.get(), total.tick(), ticks);
+    }
+
+    /**
+     * Take the deltas of the labels which had samples since the previous call, to send them to another process
+     *
+     * @return the deltas, without the total
+     */
+    public List<LabelStats.Delta> deltas() {
+        List<LabelStats.Delta> deltas = new ArrayList<>();
+        for (LabelStats stats : labels.values()) {
+            LabelStats.Delta delta = stats.delta();
+            if (!delta.isEmpty()) {
+                deltas.add(delta);
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Merge a delta taken in another process, into its label and into the total
+     *
+     * @param delta the delta of a label
+     */
+    public void merge(LabelStats.Delta delta) {
+        labelStats(delta.getLabel()).merge(delta);
+        total.merge(delta);
+    }
+
+    public int getActiveThreads() {
+        return activeThreads.get();
+    }
+
+    /**
+     * Set the number of active threads when the samples are not recorded in this process
+     *
+     * @param activeThreads the active threads of all the workers
+     */
+    public void setActiveThreads(int activeThreads) {
+        this.activeThreads.set(activeThreads);
+    }
+
+    /**
+     * Format the snapshot as a text table
+     *
+     * @return the summary table
+     */
+    public String formatSummary() {
+        List<LabelStats.Snapshot> snapshots = snapshot();
+        boolean corrected = snapshots.get(snapshots.size() - 1).getCorrectedCount() > 0;
+        StringBuilder sb = new StringBuilder(String.format("%-40s %10s %8s %12s %8s %8s %8s %8s %8s %8s",
+                "label", "count", "errors", "bytes", "mean", "p50", "p95", "p99", "p99.9", "max"));
+        if (corrected) {
+            sb.append(String.format(" %8s %8s %8s %8s", "c-p50", "c-p99", "c-p99.9", "c-max"));
+        }
+        for (LabelStats.Snapshot s : snapshots) {
+            sb.append(String.format("%n%-40s %10d %8d %12d %8.1f %8d %8d %8d %8d %8d", s.getLabel(), s.getCount(),
+                    s.getErrors(), s.getBytes(), s.getMean(), s.getP50(), s.getP95(), s.getP99(), s.getP999(),
+                    s.getMax()));
+            if (corrected) {
+                sb.append(String.format(" %8d %8d %8d %8d", s.getCorrectedP50(), s.getCorrectedP99(),
+                        s.getCorrectedP999(), s.getCorrectedMax()));
+            }
+        }
+        if (corrected) {
+            sb.append(String.format("%nc-*: latency corrected for queueing / coordinated omission"));
+        }
+        return sb.toString();
+    }
+}
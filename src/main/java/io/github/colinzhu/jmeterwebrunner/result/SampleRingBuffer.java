@@ -0,0 +1,117 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A lock-free ring buffer of samples, written by many sampler threads and read by one writer thread. The slots are
+ * allocated once and reused, a sampler thread claims a sequence number, copies the fields of the sample into the slot
+ * and then publishes the slot.
+ * <p>
+ * When the buffer is full the sampler thread waits for the writer, the samples are results and are never dropped.
+ * The waits are counted, a non-zero count means the disk can't keep up.
+ */
+class SampleRingBuffer {
+    private static final long FULL_WAIT_NANOS = 50_000;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final LongAdder fullWaits = new LongAdder();
+    private volatile long consumed;
+
+    SampleRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+    }
+
+    void publish(SampleResult result) {
+        long sequence = claimed.getAndIncrement();
+        while (sequence - consumed >= slots.length) {
+            fullWaits.increment();
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+        int index = (int) sequence & mask;
+        slots[index].copy(result);
+        published.lazySet(index, sequence + 1);
+    }
+
+    /**
+     * Read the published samples in order, on the writer thread only
+     *
+     * @param consumer gets each slot, the slot must not be kept after the call
+     * @param max      max number of samples to read
+     * @return number of samples read
+     */
+    int drain(Consumer<Slot> consumer, int max) {
+        long next = consumed;
+        int count = 0;
+        while (count < max) {
+            int index = (int) next & mask;
+            if (published.get(index) != next + 1) {
+                break;
+            }
+            consumer.accept(slots[index]);
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            consumed = next;
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return consumed == claimed.get();
+    }
+
+    long getFullWaits() {
+        return fullWaits.sum();
+    }
+
+    /**
+     * The fields of one sample which are saved. The response data is not copied.
+     */
+    static class Slot {
+        long timeStamp;
+        long elapsed;
+        long latency;
+        long connect;
+        long bytes;
+        long sentBytes;
+        int groupThreads;
+        int allThreads;
+        boolean success;
+        String label;
+        String responseCode;
+        String responseMessage;
+        String threadName;
+
+        private void copy(SampleResult result) {
+            timeStamp = result.getTimeStamp();
+            elapsed = result.getTime();
+            latency = result.getLatency();
+            connect = result.getConnectTime();
+            bytes = result.getBytesAsLong();
+            sentBytes = result.getSentBytes();
+            groupThreads = result.getGroupThreads();
+            allThreads = result.getAllThreads();
+            success = result.isSuccessful();
+            label = result.getSampleLabel();
+            responseCode = result.getResponseCode();
+            responseMessage = success ? null : result.getResponseMessage();
+            threadName = result.getThreadName();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.colinzhu.jmeterwebrunner.run;
+
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorReport;
+import io.github.colinzhu.jmeterwebrunner.plan.ScriptCache;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.tuning.MaxThroughputSearch;
+import lombok.Getter;
+import org.apache.jmeter.engine.StandardJMeterEngine;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One run of a JMX file. It owns its engine, or runs in worker JVMs of its own when another run is active (see
+ * JMeterRunner), so parallel runs don't share any engine state.
+ */
+@Getter
+public class Run {
+    private final long id;
+    private final RunOptions options;
+    private final long submitTime = System.currentTimeMillis();
+    private volatile RunStatus status = RunStatus.QUEUED;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile String error;
+    private volatile StandardJMeterEngine engine;
+    private volatile ResultAggregator results;
+    private volatile File resultDir;
+    private volatile GeneratorReport generatorReport;
+    private volatile MaxThroughputSearch search;
+    private volatile ScriptCache.RunStats scriptStats;
+    private volatile boolean stopRequested;
+    private volatile boolean stopNow;
+    /** why the run was stopped, e.g. "max duration 2h reached" */
+    private volatile String stopReason;
+    private final CompletableFuture<Run> completion = new CompletableFuture<>();
+
+    Run(long id, RunOptions options) {
+        this.id = id;
+        this.options = options;
+    }
+
+    void started() {
+        startTime = System.currentTimeMillis();
+        status = RunStatus.RUNNING;
+    }
+
+    void finished(RunStatus finalStatus, Throwable cause) {
+        endTime = System.currentTimeMillis();
+        error = cause == null ? null : String.valueOf(cause.getMessage() != null ? cause.getMessage() : cause);
+        status = finalStatus;
+        completion.complete(this);
+    }
+
+    public void setEngine(StandardJMeterEngine engine) {
+        this.engine = engine;
+    }
+
+    public void setResults(ResultAggregator results) {
+        this.results = results;
+    }
+
+    public void setResultDir(File resultDir) {
+        this.resultDir = resultDir;
+    }
+
+    public void setGeneratorReport(GeneratorReport generatorReport) {
+        this.generatorReport = generatorReport;
+    }
+
+    public void setSearch(MaxThroughputSearch search) {
+        this.search = search;
+    }
+
+    public void setScriptStats(ScriptCache.RunStats scriptStats) {
+        this.scriptStats = scriptStats;
+    }
+
+    /**
+     * Ask the run to stop. The threads are asked to stop after their current sample, or are interrupted when now is true.
+     *
+     * @param now    whether to stop the threads immediately
+     * @param reason why the run is stopped, only the first reason is kept
+     */
+    void stop(boolean now, String reason) {
+        if (stopReason == null) {
+            stopReason = reason;
+        }
+        stopRequested = true;
+        stopNow |= now;
+        StandardJMeterEngine jmeter = engine;
+        if (jmeter == null) {
+            return; // the run checks stopRequested before starting the engine
+        }
+        if (now) {
+            jmeter.stopTest(true);
+        } else {
+            jmeter.askThreadsToStop();
+        }
+    }
+
+    /**
+     * Wait until the run has finished
+     *
+     * @return this run
+     * @throws IllegalStateException if the run has failed
+     */
+    public Run await() {
+        completion.join();
+        if (status == RunStatus.FAILED) {
+            throw new IllegalStateException("Run " + id + " failed: " + error);
+        }
+        return this;
+    }
+
+    public long getDurationMillis() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Run " + id + " " + status + " " + options.getJmxFile();
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.colinzhu.jmeterwebrunner.run;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.slf4j.MDC;
+
+/**
+ * This element is added to the test plan of every run. It tags the JMeter threads of the run with the run id,
+ * so that their logs can be told apart from the logs of other runs.
+ */
+public class RunContext extends AbstractTestElement implements ThreadListener, NoThreadClone {
+    public static final String MDC_RUN_ID = "runId";
+    private static final String RUN_ID = "RunContext.runId";
+
+    public RunContext() {
+    }
+
+    public RunContext(long runId) {
+        setName("Run context");
+        setProperty(RUN_ID, runId);
+    }
+
+    public long getRunId() {
+        return getPropertyAsLong(RUN_ID);
+    }
+
+    @Override
+    public void threadStarted() {
+        MDC.put(MDC_RUN_ID, String.valueOf(getRunId()));
+    }
+
+    @Override
+    public void threadFinished() {
+        MDC.remove(MDC_RUN_ID);
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.colinzhu.jmeterwebrunner.run;
+
+/**
+ * Executes a run on the thread given by the scheduler and returns when the run has ended
+ */
+@FunctionalInterface
+public interface RunExecutor {
+    void execute(Run run) throws Exception;
+}
@@ -0,0 +1,89 @@
+package io.github.colinzhu.jmeterwebrunner.run;
+
+import io.github.colinzhu.jmeterwebrunner.workload.ArrivalProfile;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The options of a run. From the web console they are given as "test.jmx key1=value1 key2=value2".
+ */
+@Getter
+public class RunOptions {
+    public static final String JMX = "jmx";
+    public static final String PRIORITY = "priority";
+    public static final String ARRIVAL_RATE = "arrivalRate";
+    public static final String ARRIVAL_MAX_THREADS = "arrivalMaxThreads";
+    public static final String VIRTUAL_THREADS = "virtualThreads";
+    public static final String RESULT_FILE = "resultFile";
+    public static final String RESULT_DIR = "resultDir";
+    public static final String CORRECT_LATENCY = "correctLatency";
+    public static final String WORKERS = "workers";
+    public static final String FIND_MAX = "findMax";
+    public static final String FIND_MAX_STEP = "findMaxStep";
+    public static final String FIND_MAX_STAGE = "findMaxStage";
+    public static final String FIND_MAX_STAGES = "findMaxStages";
+    public static final String VALIDATE = "validate";
+    public static final String MAX_DURATION = "maxDuration";
+    /** set by the coordinator for its workers */
+    public static final String WORKER_INDEX = "workerIndex";
+    /** set by the coordinator for its workers */
+    public static final String WORKER_COUNT = "workerCount";
+
+    private final Map<String, String> values;
+    private final String jmxFile;
+    private final int priority;
+    /** the run is stopped once it has run for this long, 0 for no limit */
+    private final long maxDurationMillis;
+
+    private RunOptions(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+        String jmx = values.get(JMX);
+        this.jmxFile = jmx != null && jmx.trim().length() > 0 ? jmx.trim() : null;
+        Objects.requireNonNull(jmxFile, "Please provide a JMX test file name.");
+        this.priority = Integer.parseInt(values.getOrDefault(PRIORITY, "0"));
+        this.maxDurationMillis = values.containsKey(MAX_DURATION) ? ArrivalProfile.parseDuration(values.get(MAX_DURATION)) : 0;
+    }
+
+    /**
+     * Parse the arguments from the web console, the first one is the JMX file and the others are key=value options
+     *
+     * @param args JMX file name followed by options
+     * @return the run options
+     */
+    public static RunOptions parse(String[] args) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (args != null) {
+            for (String arg : args) {
+                if (arg == null || arg.trim().isEmpty()) {
+                    continue;
+                }
+                int eq = arg.indexOf('=');
+                if (eq > 0) {
+                    values.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+                } else if (!values.containsKey(JMX)) {
+                    values.put(JMX, arg.trim());
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+            }
+        }
+        return new RunOptions(values);
+    }
+
+    public static RunOptions of(Map<String, String> values) {
+        return new RunOptions(new LinkedHashMap<>(values));
+    }
+
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
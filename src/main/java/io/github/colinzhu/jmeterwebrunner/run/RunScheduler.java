@@ -0,0 +1,311 @@
+package io.github.colinzhu.jmeterwebrunner.run;
+
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * This class queues the runs and executes them up to a limit. Runs with a higher priority are started first, runs
+ * with the same priority are started in the order of submission.
+ * <p>
+ * The limit is given by the VM option -DmaxConcurrentRuns, by default it's derived from the number of cores and
+ * the max heap divided by -DrunMemoryMb (512 MB by default). JMeter keeps part of the state of a test in the whole
+ * JVM, so the executor has to isolate the runs which are executed in parallel (see JMeterRunner).
+ * <p>
+ * A run which is asked to stop gracefully is killed (its threads are interrupted) when it has not ended after
+ * -DstopGraceSeconds (30 by default). A run with the option maxDuration is asked to stop once it has run that long.
+ */
+@Slf4j
+public class RunScheduler {
+    private static final String PARAM_MAX_CONCURRENT_RUNS = "maxConcurrentRuns";
+    private static final String PARAM_RUN_MEMORY_MB = "runMemoryMb";
+    private static final String PARAM_STOP_GRACE_SECONDS = "stopGraceSeconds";
+    private static final int HISTORY_SIZE = 100;
+
+    private final RunExecutor executor;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong ids = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, Run> runs = new ConcurrentSkipListMap<>();
+    private final List<BiConsumer<Run, RunStatus>> endListeners = new CopyOnWriteArrayList<>();
+    private final long stopGraceMillis = TimeUnit.SECONDS.toMillis(Long.getLong(PARAM_STOP_GRACE_SECONDS, 30L));
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "run-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RunScheduler(RunExecutor executor) {
+        this(executor, Integer.getInteger(PARAM_MAX_CONCURRENT_RUNS, defaultConcurrency()));
+    }
+
+    public RunScheduler(RunExecutor executor, int maxConcurrentRuns) {
+        this.executor = executor;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(maxConcurrentRuns, maxConcurrentRuns, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "jmeter-run-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+        log.info("Run scheduler started, max concurrent runs: {}", maxConcurrentRuns);
+    }
+
+    /**
+     * Queue a run, it's started as soon as there is a free slot
+     *
+     * @param options run options
+     * @return the queued run, or a failed run if the scheduler is shut down
+     */
+    public Run submit(RunOptions options) {
+        Run run = new Run(ids.incrementAndGet(), options);
+        runs.put(run.getId(), run);
+        try {
+            pool.execute(new RunTask(run));
+        } catch (RejectedExecutionException e) {
+            log.warn("Run {} not queued, the scheduler is shut down: {}", run.getId(), options);
+            run.finished(RunStatus.FAILED, new IllegalStateException("The scheduler is shut down"));
+            return run;
+        }
+        log.info("Run {} queued: {}, queue size: {}", run.getId(), options, pool.getQueue().size());
+        return run;
+    }
+
+    /**
+     * Cancel a run which is still waiting in the queue
+     *
+     * @param id run id
+     * @return true if the run was removed from the queue
+     */
+    public boolean cancel(long id) {
+        boolean removed = pool.getQueue().removeIf(task -> ((RunTask) task).run.getId() == id);
+        if (removed) {
+            Run run = runs.get(id);
+            run.finished(RunStatus.CANCELLED, null);
+            log.info("Run {} cancelled", id);
+        }
+        return removed;
+    }
+
+    /**
+     * Stop a run. A queued run is cancelled, a running run is stopped gracefully, or immediately when now is true.
+     *
+     * @param id  run id
+     * @param now whether to stop the threads immediately
+     * @return the run, or null when there's no such run
+     */
+    public Run stop(long id, boolean now) {
+        return stop(id, now, now ? "killed by request" : "stopped by request");
+    }
+
+    /**
+     * Stop a run, see stop(id, now). A run stopped gracefully is killed if it has not ended after the grace period.
+     *
+     * @param reason why the run is stopped, e.g. shown by the API
+     */
+    public Run stop(long id, boolean now, String reason) {
+        Run run = runs.get(id);
+        if (run == null || run.getStatus().isFinished() || cancel(id)) {
+            return run;
+        }
+        log.info("Run {} is asked to stop{}: {}", id, now ? " now" : "", reason);
+        run.stop(now, reason);
+        watchdog.schedule(() -> {
+            if (now) {
+                checkKilled(run);
+            } else {
+                checkStopped(run);
+            }
+        }, stopGraceMillis, TimeUnit.MILLISECONDS);
+        return run;
+    }
+
+    /**
+     * Stop all the runs, e.g. when the process is terminated: the queued runs are cancelled, the running runs are
+     * stopped gracefully, then killed if they have not ended after the grace period.
+     *
+     * @return true if all the runs have ended
+     */
+    public boolean shutdown() {
+        List<CompletableFuture<Run>> running = new ArrayList<>();
+        for (Run run : runs.values()) {
+            if (!run.getStatus().isFinished()) {
+                stop(run.getId(), false, "shutdown");
+                running.add(run.getCompletion());
+            }
+        }
+        boolean ended = running.isEmpty();
+        if (!ended) {
+            log.info("Waiting for {} runs to stop", running.size());
+            ended = awaitAll(running, stopGraceMillis);
+        }
+        if (!ended) {
+            for (Run run : runs.values()) {
+                stop(run.getId(), true, "shutdown");
+            }
+            ended = awaitAll(running, stopGraceMillis);
+        }
+        // a run logs its end and its dropped log events after it has finished
+        pool.shutdown();
+        if (ended) {
+            try {
+                pool.awaitTermination(stopGraceMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ended;
+    }
+
+    /**
+     * @param listener called on the thread of a run once its engine has ended and its results are written, before
+     *                 the run is reported as ended, with the status it ends with. E.g. to send its last metrics.
+     */
+    public void addEndListener(BiConsumer<Run, RunStatus> listener) {
+        endListeners.add(listener);
+    }
+
+    public Run get(long id) {
+        return runs.get(id);
+    }
+
+    public List<Run> list() {
+        return new ArrayList<>(runs.values());
+    }
+
+    public int getMaxConcurrentRuns() {
+        return pool.getMaximumPoolSize();
+    }
+
+    private void execute(Run run) {
+        String threadName = Thread.currentThread().getName();
+        Thread.currentThread().setName("run-" + run.getId());
+        MDC.put(RunContext.MDC_RUN_ID, String.valueOf(run.getId()));
+        ScheduledFuture<?> timeout = null;
+        try {
+            run.started();
+            log.info("Run {} started: {}", run.getId(), run.getOptions());
+            long maxDuration = run.getOptions().getMaxDurationMillis();
+            if (maxDuration > 0) {
+                String reason = "max duration " + run.getOptions().get(RunOptions.MAX_DURATION) + " reached";
+                timeout = watchdog.schedule(() -> stop(run.getId(), false, reason), maxDuration, TimeUnit.MILLISECONDS);
+            }
+            executor.execute(run);
+            RunStatus status = run.isStopRequested() ? RunStatus.STOPPED : RunStatus.COMPLETED;
+            notifyEnd(run, status);
+            run.finished(status, null);
+            log.info("Run {} {} in {} ms{}", run.getId(), run.getStatus().name().toLowerCase(), run.getDurationMillis(),
+                    run.getStopReason() != null ? ", " + run.getStopReason() : "");
+        } catch (Exception | Error e) {
+            log.error("Run {} failed", run.getId(), e);
+            notifyEnd(run, RunStatus.FAILED);
+            run.finished(RunStatus.FAILED, e);
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            run.setEngine(null);
+            long droppedLogs = AsyncRunAppender.runEnded(run.getId());
+            if (droppedLogs > 0) {
+                log.warn("Run {} dropped {} log events, the log queue was full", run.getId(), droppedLogs);
+            }
+            MDC.remove(RunContext.MDC_RUN_ID);
+            Thread.currentThread().setName(threadName);
+            trimHistory();
+        }
+    }
+
+    private void notifyEnd(Run run, RunStatus status) {
+        for (BiConsumer<Run, RunStatus> listener : endListeners) {
+            try {
+                listener.accept(run, status);
+            } catch (RuntimeException e) {
+                log.error("Failed to notify the end of run {}", run.getId(), e);
+            }
+        }
+    }
+
+    private void checkStopped(Run run) {
+        if (!run.getStatus().isFinished() && !run.isStopNow()) {
+            log.warn("Run {} has not stopped {} s after it was asked to, killing it", run.getId(),
+                    TimeUnit.MILLISECONDS.toSeconds(stopGraceMillis));
+            stop(run.getId(), true, run.getStopReason());
+        }
+    }
+
+    private void checkKilled(Run run) {
+        if (!run.getStatus().isFinished()) {
+            log.warn("Run {} has not ended {} s after it was killed, a sampler may be blocked in a call which can't be "
+                    + "interrupted", run.getId(), TimeUnit.MILLISECONDS.toSeconds(stopGraceMillis));
+        }
+    }
+
+    private static boolean awaitAll(List<CompletableFuture<Run>> runs, long timeoutMillis) {
+        try {
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0])).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void trimHistory() {
+        int excess = runs.size() - HISTORY_SIZE;
+        for (Map.Entry<Long, Run> entry : runs.entrySet()) {
+            if (excess <= 0) {
+                break;
+            }
+            if (entry.getValue().getStatus().isFinished()) {
+                runs.remove(entry.getKey());
+                excess--;
+            }
+        }
+    }
+
+    private static int defaultConcurrency() {
+        int byCores = Runtime.getRuntime().availableProcessors() / 2;
+        long byMemory = Runtime.getRuntime().maxMemory() / (Long.getLong(PARAM_RUN_MEMORY_MB, 512L) * 1024 * 1024);
+        return (int) Math.max(1, Math.min(byCores, byMemory));
+    }
+
+    private class RunTask implements Runnable, Comparable<RunTask> {
+        private final Run run;
+
+        private RunTask(Run run) {
+            this.run = run;
+        }
+
+        @Override
+        public void run() {
+            execute(run);
+        }
+
+        @Override
+        public int compareTo(RunTask other) {
+            int byPriority = Integer.compare(other.run.getOptions().getPriority(), run.getOptions().getPriority());
+            return byPriority != 0 ? byPriority : Long.compare(run.getId(), other.run.getId());
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.colinzhu.jmeterwebrunner.run;
+
+public enum RunStatus {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    STOPPED,
+    FAILED,
+    CANCELLED;
+
+    public boolean isFinished() {
+        return this == COMPLETED || this == STOPPED || this == FAILED || this == CANCELLED;
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.colinzhu.jmeterwebrunner.tuning;
+
+import lombok.Value;
+
+/**
+ * The results of one stage of a max throughput search
+ */
+@Value
+public class LoadStage {
+    int stage;
+    /**
+     * users of all thread groups, or arrivals per second
+     */
+    double load;
+    int activeThreads;
+    double throughput;
+    long p50;
+    long p99;
+    double errorRate;
+    /**
+     * the broken SLA conditions, or null if the SLA is met
+     */
+    String violation;
+
+    public boolean isSlaMet() {
+        return violation == null;
+    }
+}
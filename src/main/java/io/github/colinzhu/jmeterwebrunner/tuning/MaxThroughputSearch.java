@@ -0,0 +1,276 @@
+package io.github.colinzhu.jmeterwebrunner.tuning;
+
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.RunOptions;
+import io.github.colinzhu.jmeterwebrunner.workload.ArrivalProfile;
+import io.github.colinzhu.jmeterwebrunner.workload.OpenWorkload;
+import io.github.colinzhu.jmeterwebrunner.workload.ThreadCount;
+import io.github.colinzhu.jmeterwebrunner.workload.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.HashTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class finds the max throughput a system sustains within an SLA. It steps the load up in stages on the live
+ * engine, either the users of the thread groups or the arrival rate of an open workload, and measures every stage
+ * after a warm-up of a quarter of the stage. The search stops at the first stage which breaks the SLA, whose
+ * throughput grows less than 5% over the previous stage (the knee of the curve), or which can't reach 90% of its
+ * arrival rate.
+ * <p>
+ * The options of the run are findMax=SLA (see Sla), findMaxStep=USERS or RATE/s (users added to every thread group,
+ * the users of the plan by default; or arrivals per second added at every stage), findMaxStage=30s and
+ * findMaxStages=20.
+ */
+@Slf4j
+public class MaxThroughputSearch {
+    private static final double PLATEAU_GAIN = 0.05;
+    private static final double MIN_RATE_REACHED = 0.9;
+
+    private final Sla sla;
+    private final long stageMillis;
+    private final int maxStages;
+    private final String step;
+    private final double rateStep;
+    private final ResultAggregator results;
+    private final List<LoadStage> stages = new CopyOnWriteArrayList<>();
+    private UserStepTimer userStepTimer;
+    private Thread thread;
+    private volatile String conclusion;
+
+    private MaxThroughputSearch(RunOptions options, ResultAggregator results) {
+        this.sla = Sla.parse(options.get(RunOptions.FIND_MAX));
+        this.stageMillis = ArrivalProfile.parseDuration(options.getValues().getOrDefault(RunOptions.FIND_MAX_STAGE, "30s"));
+        this.maxStages = Integer.parseInt(options.getValues().getOrDefault(RunOptions.FIND_MAX_STAGES, "20"));
+        this.step = options.get(RunOptions.FIND_MAX_STEP);
+        this.rateStep = step != null && step.endsWith("/s") ? Double.parseDouble(step.substring(0, step.length() - 2)) : 0;
+        this.results = results;
+        if (stageMillis < 4000 || maxStages < 1 || step != null && rateStep == 0 && Integer.parseInt(step) < 1) {
+            throw new IllegalArgumentException("A stage must be at least 4s, and the stages and the step positive");
+        }
+    }
+
+    public static MaxThroughputSearch create(RunOptions options, ResultAggregator results) {
+        return new MaxThroughputSearch(options, results);
+    }
+
+    /**
+     * Prepare the test plan: the thread groups loop until the search stops them, and the load is stepped up by an
+     * ArrivalTimer or a UserStepTimer
+     *
+     * @param testPlan   the test plan of the run, already cloned for the run
+     * @param maxThreads max number of threads per thread group of an open workload
+     */
+    public void prepare(HashTree testPlan, int maxThreads) {
+        if (rateStep > 0) {
+            StringBuilder profile = new StringBuilder();
+            for (int stage = 1; stage <= maxStages; stage++) {
+                profile.append(stage == 1 ? "" : ",").append("const:").append(stage * rateStep).append(':')
+                        .append(stageMillis).append("ms");
+            }
+            OpenWorkload.apply(testPlan, ArrivalProfile.parse(profile.toString()), results, maxThreads);
+            return;
+        }
+        userStepTimer = new UserStepTimer();
+        for (Object element : testPlan.getTree(testPlan.getArray()[0]).list()) {
+            if (VirtualThreads.isPlainThreadGroup(element)) {
+                ThreadGroup group = (ThreadGroup) element;
+                LoopController loop = (LoopController) group.getSamplerController();
+                loop.setLoops(LoopController.INFINITE_LOOP_COUNT);
+                loop.setContinueForever(true);
+                group.setScheduler(false);
+                // the plan is not configured yet, getNumThreads() would read ${__P(users,10)} as 0
+                int users = ThreadCount.of(group);
+                int groupStep = step == null ? users : Integer.parseInt(step);
+                if (groupStep < 1) {
+                    throw new IllegalArgumentException("The thread group '" + group.getName() + "' has no users, "
+                            + "the load can't be stepped up by its users, give the users to add with "
+                            + RunOptions.FIND_MAX_STEP);
+                }
+                userStepTimer.addGroup(group, users, groupStep);
+            }
+        }
+        testPlan.add(testPlan.getArray()[0], userStepTimer);
+    }
+
+    /**
+     * Start measuring the stages, right before the engine runs
+     *
+     * @param engine the engine of the run, it's asked to stop when the search has ended
+     */
+    public void start(StandardJMeterEngine engine) {
+        log.info("Max throughput search started, SLA: {}, stages of {} s", sla, stageMillis / 1000);
+        thread = new Thread(() -> search(engine), "max-throughput-search");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop measuring, after the engine has ended
+     */
+    public void finish() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (conclusion == null) {
+            conclusion = "the run ended at stage " + (stages.size() + 1);
+        }
+    }
+
+    private void search(StandardJMeterEngine engine) {
+        long warmUpMillis = stageMillis / 4;
+        results.deltas(); // start the deltas from now
+        try {
+            for (int stage = 1; stage <= maxStages; stage++) {
+                long stageStart = System.currentTimeMillis();
+                if (userStepTimer != null) {
+                    userStepTimer.setStage(stage);
+                }
+                Thread.sleep(warmUpMillis);
+                results.deltas(); // drop the warm-up
+                long measureStart = System.currentTimeMillis();
+                Thread.sleep(stageStart + stageMillis - measureStart);
+                LoadStage result = measure(stage, (System.currentTimeMillis() - measureStart) / 1000.0);
+                String stop = addStage(result);
+                log.info("Stage {}: load {}, TPS {}, p99 {} ms, errors {}%{}", stage, formatLoad(result.getLoad()),
+                        String.format("%.1f", result.getThroughput()), result.getP99(),
+                        String.format("%.2f", result.getErrorRate() * 100),
+                        result.isSlaMet() ? "" : ", SLA broken: " + result.getViolation());
+                if (stop != null) {
+                    conclusion = stop;
+                    break;
+                }
+            }
+            if (conclusion == null) {
+                conclusion = "the last stage was reached, the load can go higher";
+            }
+            engine.askThreadsToStop();
+        } catch (InterruptedException e) {
+            // the run has ended
+        }
+    }
+
+    private LoadStage measure(int stage, double seconds) {
+        Histogram elapsed = new Histogram(1, TimeUnit.HOURS.toMillis(1), 3);
+        Histogram corrected = new Histogram(1, TimeUnit.HOURS.toMillis(1), 3);
+        long count = 0;
+        long errors = 0;
+        for (LabelStats.Delta delta : results.deltas()) {
+            count += delta.getCount();
+            errors += delta.getErrors();
+            elapsed.add(delta.getElapsed());
+            if (delta.getCorrected() != null) {
+                corrected.add(delta.getCorrected());
+            }
+        }
+        // an open workload is judged on the latency from the intended start times
+        Histogram latency = corrected.getTotalCount() > 0 ? corrected : elapsed;
+        double errorRate = count == 0 ? 0 : (double) errors / count;
+        double load = rateStep > 0 ? stage * rateStep : userStepTimer.usersAt(stage);
+        return new LoadStage(stage, load, results.getActiveThreads(), count / seconds,
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(99), errorRate,
+                count == 0 ? "no samples" : sla.check(latency, errorRate));
+    }
+
+    /**
+     * Add the results of a stage
+     *
+     * @return why the search stops at this stage, or null to go on with the next stage
+     */
+    String addStage(LoadStage stage) {
+        stages.add(stage);
+        return stopReason(stage);
+    }
+
+    private String stopReason(LoadStage stage) {
+        if (!stage.isSlaMet()) {
+            return "the SLA is broken at stage " + stage.getStage() + ": " + stage.getViolation();
+        }
+        if (rateStep > 0 && stage.getThroughput() < stage.getLoad() * MIN_RATE_REACHED) {
+            return String.format("stage %d reached only %.1f of %s arrivals/s", stage.getStage(),
+                    stage.getThroughput(), formatLoad(stage.getLoad()));
+        }
+        if (stages.size() > 1) {
+            LoadStage previous = stages.get(stages.size() - 2);
+            if (stage.getThroughput() < previous.getThroughput() * (1 + PLATEAU_GAIN)) {
+                return String.format("the throughput has plateaued at stage %d: %.1f/s after %.1f/s", stage.getStage(),
+                        stage.getThroughput(), previous.getThroughput());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The knee of the curve: the lowest load within the SLA whose throughput is within 5% of the highest one
+     *
+     * @return the stage, or null if no stage met the SLA
+     */
+    public LoadStage getBest() {
+        double max = 0;
+        for (LoadStage stage : stages) {
+            if (stage.isSlaMet()) {
+                max = Math.max(max, stage.getThroughput());
+            }
+        }
+        for (LoadStage stage : stages) {
+            if (stage.isSlaMet() && stage.getThroughput() * (1 + PLATEAU_GAIN) >= max) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    public List<LoadStage> getStages() {
+        return Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    public Sla getSla() {
+        return sla;
+    }
+
+    public String getConclusion() {
+        return conclusion;
+    }
+
+    public boolean isByRate() {
+        return rateStep > 0;
+    }
+
+    private String formatLoad(double load) {
+        return rateStep > 0 ? String.format("%.1f/s", load) : String.format("%.0f users", load);
+    }
+
+    /**
+     * Format the curve and the max sustainable throughput as a text table
+     *
+     * @return the report
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder("Max throughput search, SLA: " + sla);
+        sb.append(String.format("%n%-6s %14s %8s %10s %8s %8s %8s  %s", "stage", "load", "threads", "TPS", "p50",
+                "p99", "errors", "SLA"));
+        for (LoadStage stage : stages) {
+            sb.append(String.format("%n%-6d %14s %8d %10.1f %8d %8d %7.2f%%  %s", stage.getStage(),
+                    formatLoad(stage.getLoad()), stage.getActiveThreads(), stage.getThroughput(), stage.getP50(),
+                    stage.getP99(), stage.getErrorRate() * 100, stage.isSlaMet() ? "ok" : stage.getViolation()));
+        }
+        LoadStage best = getBest();
+        if (best == null) {
+            sb.append(String.format("%nNo stage met the SLA"));
+        } else {
+            sb.append(String.format("%nMax sustainable throughput: %.1f/s with %s (stage %d)", best.getThroughput(),
+                    formatLoad(best.getLoad()), best.getStage()));
+        }
+        sb.append(String.format("%nStopped because %s", conclusion));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.colinzhu.jmeterwebrunner.tuning;
+
+import io.github.colinzhu.jmeterwebrunner.workload.ArrivalProfile;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A service level agreement, e.g. "p99&lt;300ms,errors&lt;1%". A condition is one of:
+ * <ul>
+ *     <li>pNN&lt;TIME - the NN-th percentile of the elapsed times, e.g. p95&lt;200ms or p99.9&lt;1s</li>
+ *     <li>mean&lt;TIME - the mean elapsed time</li>
+ *     <li>errors&lt;RATE - the error rate, e.g. 1% or 0.01</li>
+ * </ul>
+ * A time without unit is in ms.
+ */
+public class Sla {
+    private final String text;
+    private final List<Condition> conditions;
+
+    private Sla(String text, List<Condition> conditions) {
+        this.text = text;
+        this.conditions = Collections.unmodifiableList(conditions);
+    }
+
+    public static Sla parse(String sla) {
+        List<Condition> conditions = new ArrayList<>();
+        for (String part : sla.split(",")) {
+            String[] fields = part.trim().split("<");
+            if (fields.length != 2) {
+                throw new IllegalArgumentException("Invalid SLA condition: " + part);
+            }
+            String metric = fields[0].trim().toLowerCase(Locale.ROOT);
+            String limit = fields[1].trim();
+            if ("errors".equals(metric)) {
+                double rate = limit.endsWith("%") ? Double.parseDouble(limit.substring(0, limit.length() - 1)) / 100
+                        : Double.parseDouble(limit);
+                conditions.add(new Condition(metric, -1, rate));
+            } else if ("mean".equals(metric)) {
+                conditions.add(new Condition(metric, -1, parseMillis(limit)));
+            } else if (metric.startsWith("p")) {
+                double percentile = Double.parseDouble(metric.substring(1));
+                if (percentile <= 0 || percentile > 100) {
+                    throw new IllegalArgumentException("Invalid percentile: " + part);
+                }
+                conditions.add(new Condition(metric, percentile, parseMillis(limit)));
+            } else {
+                throw new IllegalArgumentException("Invalid SLA condition: " + part);
+            }
+        }
+        return new Sla(sla.trim(), conditions);
+    }
+
+    private static long parseMillis(String time) {
+        return Character.isDigit(time.charAt(time.length() - 1)) ? Long.parseLong(time)
+                : ArrivalProfile.parseDuration(time);
+    }
+
+    /**
+     * Check the results of a stage
+     *
+     * @param elapsed   the elapsed times of the stage
+     * @param errorRate the error rate of the stage
+     * @return the broken conditions, or null if the SLA is met
+     */
+    public String check(Histogram elapsed, double errorRate) {
+        List<String> broken = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (condition.percentile > 0) {
+                long value = elapsed.getValueAtPercentile(condition.percentile);
+                if (value >= condition.limit) {
+                    broken.add(condition.metric + " " + value + " ms");
+                }
+            } else if ("mean".equals(condition.metric)) {
+                double mean = elapsed.getMean();
+                if (mean >= condition.limit) {
+                    broken.add(String.format("mean %.1f ms", mean));
+                }
+            } else if (errorRate >= condition.limit) {
+                broken.add(String.format("errors %.2f%%", errorRate * 100));
+            }
+        }
+        return broken.isEmpty() ? null : String.join(", ", broken);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    @Value
+    private static class Condition {
+        String metric;
+        double percentile;
+        double limit;
+    }
+}
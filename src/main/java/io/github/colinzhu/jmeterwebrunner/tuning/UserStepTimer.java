@@ -0,0 +1,89 @@
+package io.github.colinzhu.jmeterwebrunner.tuning;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.timers.Timer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This timer adds the users of the next stage of a max throughput search to the live thread groups. It doesn't delay
+ * the samples: when a thread of a group sees that its group is below the users of the current stage, it starts the
+ * missing threads. The threads are started from a thread of the group, so they get its context and variables.
+ */
+public class UserStepTimer extends AbstractTestElement implements Timer, NoThreadClone {
+    private final transient Map<AbstractThreadGroup, Group> groups = new IdentityHashMap<>();
+    private transient volatile int stage = 1;
+
+    public UserStepTimer() {
+        setName("User step timer");
+    }
+
+    /**
+     * Add a thread group, before the run starts
+     *
+     * @param group        the thread group
+     * @param initialUsers the users of the group in the plan, see ThreadCount
+     * @param step         users added at every stage
+     */
+    void addGroup(AbstractThreadGroup group, int initialUsers, int step) {
+        groups.put(group, new Group(initialUsers, step));
+    }
+
+    void setStage(int stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * @param stage one based stage number
+     * @return the users of all thread groups at the stage
+     */
+    int usersAt(int stage) {
+        int users = 0;
+        for (Group group : groups.values()) {
+            users += group.usersAt(stage);
+        }
+        return users;
+    }
+
+    @Override
+    public long delay() {
+        JMeterContext context = JMeterContextService.getContext();
+        AbstractThreadGroup threadGroup = context.getThreadGroup();
+        Group group = groups.get(threadGroup);
+        if (group == null) {
+            return 0;
+        }
+        int target = group.usersAt(stage);
+        if (group.started.get() < target) {
+            synchronized (group) {
+                while (group.started.get() < target) {
+                    threadGroup.addNewThread(0, context.getEngine());
+                    group.started.incrementAndGet();
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static class Group {
+        private final int initialUsers;
+        private final int step;
+        private final AtomicInteger started;
+
+        private Group(int initialUsers, int step) {
+            this.initialUsers = initialUsers;
+            this.step = step;
+            this.started = new AtomicInteger(initialUsers);
+        }
+
+        private int usersAt(int stage) {
+            return initialUsers + (stage - 1) * step;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * A frame of the binary protocol of the web console WebSocket. A frame is encoded once into a pooled direct buffer,
+ * and the same buffer is written to every browser. Each write holds a reference to the buffer, so the buffer goes
+ * back to the pool once the publisher and all the writes have released it.
+ * <p>
+ * A frame is: the protocol version (1 byte), the channel (1 byte), the flags (1 byte), the run id (varint, 0 when the
+ * frame is not about one run) and the payload. The integers are unsigned LEB128 varints, the signed ones are zigzag
+ * encoded first. A string is its UTF-8 length followed by its UTF-8 bytes. With FLAG_DEFLATE the payload is
+ * compressed with zlib. The payloads:
+ * <ul>
+ *     <li>LOG: the number of lines dropped before the batch, the number of lines, then the run id (0 outside of runs)
+ *     and the text of every line</li>
+ *     <li>METRICS: see MetricsEncoder</li>
+ *     <li>PLAN: the report of a plan as UTF-8 JSON, see RunApi</li>
+ * </ul>
+ */
+class ConsoleFrame {
+    static final int VERSION = 1;
+    static final int LOG = 1;
+    static final int METRICS = 2;
+    static final int PLAN = 3;
+    static final int FLAG_DEFLATE = 1;
+    private static final int HEADER_BYTES = 3;
+
+    private final int channel;
+    private final long runId;
+    private final ByteBuf buf;
+    private int payloadStart;
+    private int lines;
+    private long sequence;
+    private ConsoleFrame keyFrame;
+
+    ConsoleFrame(int channel, long runId, int flags, int initialCapacity) {
+        this.channel = channel;
+        this.runId = runId;
+        this.buf = PooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity);
+        buf.writeByte(VERSION).writeByte(channel).writeByte(flags);
+        writeVarint(runId);
+        payloadStart = buf.writerIndex();
+    }
+
+    /**
+     * @return a frame with a UTF-8 payload, e.g. JSON
+     */
+    static ConsoleFrame text(int channel, long runId, String text) {
+        ConsoleFrame frame = new ConsoleFrame(channel, runId, 0, HEADER_BYTES + 1 + text.length());
+        frame.buf.writeCharSequence(text, StandardCharsets.UTF_8);
+        return frame;
+    }
+
+    int getChannel() {
+        return channel;
+    }
+
+    long getRunId() {
+        return runId;
+    }
+
+    /**
+     * @return the number of log lines of a LOG frame, for the browsers which miss it
+     */
+    int getLines() {
+        return lines;
+    }
+
+    void setLines(int lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * @return the number of a METRICS frame in its run, starting at 1
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the self-contained frame to send instead of this delta frame to a browser which missed the previous
+     * frame, or null
+     */
+    ConsoleFrame getKeyFrame() {
+        return keyFrame;
+    }
+
+    void setKeyFrame(long sequence, ConsoleFrame keyFrame) {
+        this.sequence = sequence;
+        this.keyFrame = keyFrame;
+    }
+
+    int getPayloadBytes() {
+        return buf.writerIndex() - payloadStart;
+    }
+
+    ConsoleFrame writeByte(int value) {
+        buf.writeByte(value);
+        return this;
+    }
+
+    ConsoleFrame writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+        return this;
+    }
+
+    ConsoleFrame writeSigned(long value) {
+        return writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    ConsoleFrame writeString(String value) {
+        String text = value == null ? "" : value;
+        writeVarint(ByteBufUtil.utf8Bytes(text));
+        buf.writeCharSequence(text, StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Compress the payload. The deflater is reset after use.
+     *
+     * @return the compressed frame, this frame being released, or this frame if the payload doesn't get smaller
+     */
+    ConsoleFrame deflate(Deflater deflater) {
+        byte[] payload = new byte[getPayloadBytes()];
+        buf.getBytes(payloadStart, payload);
+        ConsoleFrame compressed = new ConsoleFrame(channel, runId, FLAG_DEFLATE, payloadStart + payload.length / 2);
+        compressed.lines = lines;
+        byte[] chunk = new byte[Math.min(payload.length, 16 * 1024)];
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            while (!deflater.finished() && compressed.getPayloadBytes() < payload.length) {
+                int length = deflater.deflate(chunk);
+                compressed.buf.writeBytes(chunk, 0, length);
+            }
+        } finally {
+            deflater.reset();
+        }
+        if (compressed.getPayloadBytes() >= payload.length) {
+            compressed.release();
+            return this;
+        }
+        release();
+        return compressed;
+    }
+
+    /**
+     * @return the frame to write, it shares the pooled buffer
+     */
+    Buffer buffer() {
+        return Buffer.buffer(buf);
+    }
+
+    /**
+     * Take a reference for a write, release it when the write has completed
+     */
+    void retain() {
+        buf.retain();
+    }
+
+    void release() {
+        buf.release();
+    }
+
+    /**
+     * Release the reference of the publisher, to this frame and to its key frame
+     */
+    void releaseAll() {
+        release();
+        if (keyFrame != null) {
+            keyFrame.release();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.vertx.core.Vertx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * This class coalesces the log lines into batches. A batch is published to the browsers every few ms, or as soon as
+ * enough bytes are pending. When the batches can't be sent as fast as the lines come in, the new lines are dropped
+ * and counted, so that logging never blocks the threads which write the logs.
+ * <p>
+ * A batch is encoded once into a LOG frame (see ConsoleFrame) and the same frame is written to all browsers. Next to
+ * the lines, a frame has the id of the run of every line (0 outside of runs), so the browser can tell the runs apart.
+ * A batch of at least compressBytes is compressed, 0 disables it.
+ */
+class LogBatcher {
+    private final Vertx vertx;
+    private final Consumer<ConsoleFrame> publisher;
+    private final int maxBatchBytes;
+    private final int maxPendingBytes;
+    private final int compressBytes;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private List<String> pending = new ArrayList<>();
+    private List<String> pendingRuns = new ArrayList<>();
+    private int pendingBytes;
+    private long dropped;
+
+    LogBatcher(Vertx vertx, Consumer<ConsoleFrame> publisher, long intervalMillis, int maxBatchBytes,
+               int maxPendingBytes, int compressBytes) {
+        this.vertx = vertx;
+        this.publisher = publisher;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        this.compressBytes = compressBytes;
+        vertx.setPeriodic(intervalMillis, id -> flush());
+    }
+
+    void add(String runId, String line) {
+        boolean full;
+        synchronized (this) {
+            if (pendingBytes + line.length() > maxPendingBytes) {
+                dropped++;
+                return;
+            }
+            pending.add(line);
+            pendingRuns.add(runId);
+            pendingBytes += line.length();
+            full = pendingBytes >= maxBatchBytes;
+        }
+        if (full) {
+            vertx.runOnContext(v -> flush());
+        }
+    }
+
+    void flush() {
+        List<String> lines;
+        List<String> runs;
+        long droppedLines;
+        synchronized (this) {
+            if (pending.isEmpty() && dropped == 0) {
+                return;
+            }
+            lines = pending;
+            runs = pendingRuns;
+            droppedLines = dropped;
+            pending = new ArrayList<>(Math.max(16, lines.size()));
+            pendingRuns = new ArrayList<>(Math.max(16, lines.size()));
+            pendingBytes = 0;
+            dropped = 0;
+        }
+        ConsoleFrame frame = encode(lines, runs, droppedLines);
+        if (compressBytes > 0 && frame.getPayloadBytes() >= compressBytes) {
+            synchronized (deflater) {
+                frame = frame.deflate(deflater);
+            }
+        }
+        publisher.accept(frame);
+    }
+
+    static ConsoleFrame encode(List<String> lines, long dropped) {
+        return encode(lines, Collections.nCopies(lines.size(), null), dropped);
+    }
+
+    static ConsoleFrame encode(List<String> lines, List<String> runs, long dropped) {
+        int bytes = 16;
+        for (String line : lines) {
+            bytes += line.length() + 4;
+        }
+        ConsoleFrame frame = new ConsoleFrame(ConsoleFrame.LOG, 0, 0, bytes);
+        try {
+            frame.writeVarint(dropped).writeVarint(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                frame.writeVarint(runId(runs.get(i))).writeString(lines.get(i));
+            }
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        frame.setLines(lines.size());
+        return frame;
+    }
+
+    private static long runId(String runId) {
+        try {
+            return runId == null ? 0 : Long.parseLong(runId);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This stream replaces the standard output. Everything is still written to the original stream, and every
+ * complete line is handed over to the LogBatcher to be sent to the browsers. The lines of the log dispatcher are
+ * not relayed, they reach the LogBatcher tagged with their run id as a RunLogSink.
+ */
+class LogRelay extends OutputStream {
+    private final OutputStream original;
+    private final LogBatcher batcher;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+    LogRelay(OutputStream original, LogBatcher batcher) {
+        this.original = original;
+        this.batcher = batcher;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        original.write(b);
+        if (AsyncRunAppender.isDispatcherThread()) {
+            return;
+        }
+        if (b == '\n') {
+            endLine();
+        } else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        original.write(b, off, len);
+        if (AsyncRunAppender.isDispatcherThread()) {
+            return;
+        }
+        int start = off;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') {
+                line.write(b, start, i - start);
+                endLine();
+                start = i + 1;
+            }
+        }
+        line.write(b, start, off + len - start);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        original.flush();
+    }
+
+    private void endLine() {
+        byte[] bytes = line.toByteArray();
+        int size = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        batcher.add(null, new String(bytes, 0, size, StandardCharsets.UTF_8));
+        line.reset();
+    }
+}
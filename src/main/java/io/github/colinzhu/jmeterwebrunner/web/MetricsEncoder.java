@@ -0,0 +1,128 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorSample;
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import io.github.colinzhu.jmeterwebrunner.result.MetricsTick;
+import io.github.colinzhu.jmeterwebrunner.run.RunStatus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class encodes the METRICS frames of one run. Every tick is encoded twice, once for all the browsers: a delta
+ * frame for the browsers which got the previous frame, and a key frame, which doesn't depend on any other frame, for
+ * the browsers which have just connected or have skipped a frame.
+ * <p>
+ * The payload: the sequence number of the tick (varint), the kind (1 byte, 1 for a key frame), the status (1 byte,
+ * the ordinal of RunStatus), the labels which get an id (varint count, then varint id and name of each label: all
+ * the labels of the run in a key frame, the new ones in a delta frame), then as zigzag varints:
+ * <ul>
+ *     <li>the totals: time (ms), throughput (x100), error rate (x10000), active threads, p95 and p99 (ms)</li>
+ *     <li>the labels which had samples (preceded by their count): id, throughput (x100), errors, p95 and p99</li>
+ *     <li>the load generator, after a presence byte: CPU, machine CPU, GC and allocation MB/s (all x100), threads,
+ *     lag (ms), and the saturation as a string</li>
+ * </ul>
+ * In a delta frame, the totals and the values of the labels which were also in the previous frame are the
+ * differences from the previous frame. They are small and mostly fit in one byte.
+ */
+class MetricsEncoder {
+    private static final int KEY = 1;
+    private static final int DELTA = 0;
+
+    private final long runId;
+    private final Map<String, Integer> labelIds = new LinkedHashMap<>();
+    private long sequence;
+    private long[] previousTotals = new long[6];
+    private Map<Integer, long[]> previousLabels = new HashMap<>();
+
+    MetricsEncoder(long runId) {
+        this.runId = runId;
+    }
+
+    /**
+     * @return the delta frame, with its key frame
+     */
+    ConsoleFrame encode(RunStatus status, MetricsTick tick, GeneratorSample generator) {
+        sequence++;
+        long[] totals = {
+                tick.getTime(),
+                Math.round(tick.getThroughput() * 100),
+                Math.round(tick.getErrorRate() * 10000),
+                tick.getActiveThreads(),
+                tick.getTotal().getP95(),
+                tick.getTotal().getP99()};
+        List<String> newLabels = new ArrayList<>();
+        Map<Integer, long[]> labels = new LinkedHashMap<>();
+        for (LabelStats.Tick label : tick.getLabels()) {
+            Integer id = labelIds.get(label.getLabel());
+            if (id == null) {
+                id = labelIds.size() + 1;
+                labelIds.put(label.getLabel(), id);
+                newLabels.add(label.getLabel());
+            }
+            labels.put(id, new long[]{
+                    Math.round(label.getCount() / tick.getSeconds() * 100),
+                    label.getErrors(),
+                    label.getP95(),
+                    label.getP99()});
+        }
+        int capacity = 64 + labels.size() * 12;
+        ConsoleFrame delta = new ConsoleFrame(ConsoleFrame.METRICS, runId, 0, capacity + newLabels.size() * 24);
+        ConsoleFrame key = null;
+        try {
+            delta.writeVarint(sequence).writeByte(DELTA).writeByte(status.ordinal()).writeVarint(newLabels.size());
+            for (String label : newLabels) {
+                delta.writeVarint(labelIds.get(label)).writeString(label);
+            }
+            writeValues(delta, totals, previousTotals, labels, previousLabels, generator);
+
+            key = new ConsoleFrame(ConsoleFrame.METRICS, runId, 0, capacity + labelIds.size() * 24);
+            key.writeVarint(sequence).writeByte(KEY).writeByte(status.ordinal()).writeVarint(labelIds.size());
+            for (Map.Entry<String, Integer> label : labelIds.entrySet()) {
+                key.writeVarint(label.getValue()).writeString(label.getKey());
+            }
+            writeValues(key, totals, new long[totals.length], labels, new HashMap<>(), generator);
+        } catch (RuntimeException e) {
+            delta.release();
+            if (key != null) {
+                key.release();
+            }
+            throw e;
+        }
+        delta.setKeyFrame(sequence, key);
+        previousTotals = totals;
+        previousLabels = labels;
+        return delta;
+    }
+
+    private static void writeValues(ConsoleFrame frame, long[] totals, long[] previousTotals, Map<Integer, long[]> labels,
+                                    Map<Integer, long[]> previousLabels, GeneratorSample generator) {
+        for (int i = 0; i < totals.length; i++) {
+            frame.writeSigned(totals[i] - previousTotals[i]);
+        }
+        frame.writeVarint(labels.size());
+        for (Map.Entry<Integer, long[]> label : labels.entrySet()) {
+            long[] values = label.getValue();
+            long[] previous = previousLabels.get(label.getKey());
+            frame.writeVarint(label.getKey());
+            for (int i = 0; i < values.length; i++) {
+                frame.writeSigned(previous == null ? values[i] : values[i] - previous[i]);
+            }
+        }
+        if (generator == null) {
+            frame.writeByte(0);
+            return;
+        }
+        frame.writeByte(1)
+                .writeSigned(Math.round(generator.getCpuPercent() * 100))
+                .writeSigned(Math.round(generator.getSystemCpuPercent() * 100))
+                .writeSigned(Math.round(generator.getGcPercent() * 100))
+                .writeSigned(Math.round(generator.getAllocationMbPerSecond() * 100))
+                .writeSigned(generator.getThreads())
+                .writeSigned(generator.getSchedulingLagMillis())
+                .writeString(generator.getSaturation());
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorMonitor;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.Run;
+import io.github.colinzhu.jmeterwebrunner.run.RunScheduler;
+import io.github.colinzhu.jmeterwebrunner.run.RunStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class publishes the live metrics of the running runs to the browsers once per second.
+ * A frame has the totals of the run, the values of each label which had samples in the last second, and the
+ * load of the load generator itself, mostly as differences from the previous frame (see MetricsEncoder). The last
+ * frame of a run is published when its engine has ended, before the run is reported as ended, with the status it
+ * ends with.
+ */
+@Slf4j
+public class MetricsPublisher {
+    private final RunScheduler scheduler;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** the encoders of the running runs, a run which got its last frame has none */
+    private final Map<Long, MetricsEncoder> encoders = new HashMap<>();
+    /** the runs which got their last frame but are not reported as ended yet */
+    private final Set<Long> ended = new HashSet<>();
+
+    public MetricsPublisher(RunScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void start() {
+        scheduler.addEndListener(this::publishLast);
+        timer.scheduleAtFixedRate(this::publish, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private synchronized void publish() {
+        try {
+            Set<Long> running = new HashSet<>();
+            for (Run run : scheduler.list()) {
+                ResultAggregator results = run.getResults();
+                if (run.getStatus() != RunStatus.RUNNING) {
+                    continue;
+                }
+                running.add(run.getId());
+                if (results != null && !ended.contains(run.getId())) {
+                    MetricsEncoder encoder = encoders.computeIfAbsent(run.getId(), MetricsEncoder::new);
+                    WebConsole.publish(encoder.encode(run.getStatus(), results.tick(), GeneratorMonitor.getInstance().getLatest()));
+                }
+            }
+            ended.retainAll(running);
+            encoders.keySet().retainAll(running);
+        } catch (Exception e) {
+            log.error("Failed to publish the metrics", e);
+        }
+    }
+
+    private synchronized void publishLast(Run run, RunStatus status) {
+        ResultAggregator results = run.getResults();
+        if (results != null) {
+            ended.add(run.getId());
+            MetricsEncoder encoder = encoders.remove(run.getId());
+            if (encoder == null) {
+                encoder = new MetricsEncoder(run.getId());
+            }
+            WebConsole.publish(encoder.encode(status, results.tick(), GeneratorMonitor.getInstance().getLatest()));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorReport;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanReport;
+import io.github.colinzhu.jmeterwebrunner.plan.PlanWatcher;
+import io.github.colinzhu.jmeterwebrunner.plan.ScriptCache;
+import io.github.colinzhu.jmeterwebrunner.result.ColumnarResultStore;
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.Run;
+import io.github.colinzhu.jmeterwebrunner.run.RunOptions;
+import io.github.colinzhu.jmeterwebrunner.run.RunScheduler;
+import io.github.colinzhu.jmeterwebrunner.tuning.LoadStage;
+import io.github.colinzhu.jmeterwebrunner.tuning.MaxThroughputSearch;
+import io.github.colinzhu.jmeterwebrunner.workload.ArrivalProfile;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The HTTP API to start, stop, query and list runs, and to get the validation reports of the plans. All requests are handled on the event loop, so many clients can
+ * poll the runs without a thread per request.
+ * <ul>
+ *     <li>POST /api/runs with {"jmx": "test.jmx", "priority": 1} - queue a run</li>
+ *     <li>GET /api/runs - list the runs</li>
+ *     <li>GET /api/runs/:id - status and summary of a run</li>
+ *     <li>DELETE /api/runs/:id - stop a run gracefully, or kill it (interrupt its threads) with ?now=true. A run
+ *     which doesn't stop gracefully is killed after the grace period</li>
+ *     <li>GET /api/runs/:id/results?bucket=10s&amp;percentile=99 - elapsed time percentile per label per time bucket,
+ *     from the columnar results of a run started with resultDir=..., optionally filtered with label, code, from and to
+ *     (epoch ms), and grouped by response code with groupBy=code</li>
+ *     <li>GET /api/runs/:id/log?before=123456&amp;maxKb=64 - a page of the log file of a run, the complete lines which
+ *     end before the given byte offset (the end of the file by default). The page has its start offset, to get the
+ *     previous page</li>
+ *     <li>GET /api/plans - the reports of the plans of the plans directory, and of the plans run since the start</li>
+ *     <li>GET /api/plans/validate?jmx=test.jmx - the report of a plan, it's loaded and validated if it has changed</li>
+ * </ul>
+ * The report of every validated plan is also pushed to the browsers.
+ */
+public class RunApi {
+    private static final int MAX_LOG_PAGE_BYTES = 1024 * 1024;
+    private final RunScheduler scheduler;
+    private final PlanWatcher planWatcher;
+
+    public RunApi(RunScheduler scheduler) {
+        this(scheduler, null);
+    }
+
+    /**
+     * @param planWatcher optional, to serve and push the reports of the plans
+     */
+    public RunApi(RunScheduler scheduler, PlanWatcher planWatcher) {
+        this.scheduler = scheduler;
+        this.planWatcher = planWatcher;
+        if (planWatcher != null) {
+            planWatcher.addListener(report -> WebConsole.publish(ConsoleFrame.text(ConsoleFrame.PLAN, 0, toJson(report).encode())));
+        }
+    }
+
+    public void mount(Router router) {
+        router.route("/api/*").handler(BodyHandler.create(false));
+        router.post("/api/runs").handler(this::startRun);
+        router.get("/api/runs").handler(this::listRuns);
+        router.get("/api/runs/:id").handler(this::getRun);
+        router.delete("/api/runs/:id").handler(this::stopRun);
+        router.get("/api/runs/:id/results").handler(this::queryResults);
+        router.get("/api/runs/:id/log").handler(this::readLog);
+        if (planWatcher != null) {
+            router.get("/api/plans").handler(this::listPlans);
+            router.get("/api/plans/validate").handler(this::validatePlan);
+        }
+    }
+
+    private void startRun(RoutingContext ctx) {
+        Run run;
+        try {
+            JsonObject body = ctx.body().asJsonObject();
+            Map<String, String> options = new LinkedHashMap<>();
+            if (body != null) {
+                body.forEach(e -> options.put(e.getKey(), String.valueOf(e.getValue())));
+            }
+            run = scheduler.submit(RunOptions.of(options));
+        } catch (RuntimeException e) {
+            error(ctx, 400, e.getMessage());
+            return;
+        }
+        ctx.response()
+                .setStatusCode(202)
+                .putHeader("Location", "/api/runs/" + run.getId());
+        ctx.json(toJson(run, false));
+    }
+
+    private void listRuns(RoutingContext ctx) {
+        JsonArray runs = new JsonArray();
+        for (Run run : scheduler.list()) {
+            runs.add(toJson(run, false));
+        }
+        ctx.json(runs);
+    }
+
+    private void getRun(RoutingContext ctx) {
+        Run run = findRun(ctx);
+        if (run != null) {
+            ctx.json(toJson(run, true));
+        }
+    }
+
+    private void stopRun(RoutingContext ctx) {
+        Run run = findRun(ctx);
+        if (run != null) {
+            scheduler.stop(run.getId(), Boolean.parseBoolean(ctx.request().getParam("now")));
+            ctx.response().setStatusCode(202);
+            ctx.json(toJson(run, false));
+        }
+    }
+
+    private void queryResults(RoutingContext ctx) {
+        Run run = findRun(ctx);
+        if (run == null) {
+            return;
+        }
+        File resultDir = run.getResultDir();
+        if (resultDir == null) {
+            error(ctx, 404, "Run " + run.getId() + " has no columnar results, start it with resultDir=...");
+            return;
+        }
+        long bucketMillis;
+        double percentile;
+        long from;
+        long to;
+        try {
+            bucketMillis = ArrivalProfile.parseDuration(param(ctx, "bucket", "10s"));
+            percentile = Double.parseDouble(param(ctx, "percentile", "99"));
+            from = Long.parseLong(param(ctx, "from", "0"));
+            to = Long.parseLong(param(ctx, "to", String.valueOf(Long.MAX_VALUE)));
+            if (bucketMillis <= 0 || percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("bucket must be positive and percentile between 0 and 100");
+            }
+        } catch (RuntimeException e) {
+            error(ctx, 400, e.getMessage());
+            return;
+        }
+        String label = ctx.request().getParam("label");
+        String code = ctx.request().getParam("code");
+        boolean byCode = "code".equals(ctx.request().getParam("groupBy"));
+
+        // a query scans the mapped columns, which takes too long for the event loop on big runs
+        ctx.vertx().<JsonObject>executeBlocking(promise -> {
+            try {
+                long start = System.currentTimeMillis();
+                ColumnarResultStore store = ColumnarResultStore.open(resultDir);
+                JsonArray buckets = new JsonArray();
+                for (ColumnarResultStore.Bucket b : store.percentiles(bucketMillis, percentile, label, code, from, to, byCode)) {
+                    buckets.add(new JsonObject()
+                            .put("time", b.getTime())
+                            .put(byCode ? "code" : "label", b.getKey())
+                            .put("count", b.getCount())
+                            .put("errors", b.getErrors())
+                            .put("percentile", b.getPercentileMillis()));
+                }
+                promise.complete(new JsonObject()
+                        .put("run", run.getId())
+                        .put("samples", store.getRows())
+                        .put("bucketMillis", bucketMillis)
+                        .put("percentile", percentile)
+                        .put("queryMillis", System.currentTimeMillis() - start)
+                        .put("buckets", buckets));
+            } catch (IOException e) {
+                promise.fail(e);
+            }
+        }, false).onComplete(result -> {
+            if (result.succeeded()) {
+                ctx.json(result.result());
+            } else {
+                error(ctx, 500, String.valueOf(result.cause().getMessage()));
+            }
+        });
+    }
+
+    private void readLog(RoutingContext ctx) {
+        Run run = findRun(ctx);
+        if (run == null) {
+            return;
+        }
+        File file = AsyncRunAppender.getRunLogFile(run.getId());
+        if (file == null || !file.isFile()) {
+            error(ctx, 404, "Run " + run.getId() + " has no log file, see -DrunLogDir");
+            return;
+        }
+        long before;
+        int maxBytes;
+        try {
+            before = Long.parseLong(param(ctx, "before", String.valueOf(Long.MAX_VALUE)));
+            maxBytes = Integer.parseInt(param(ctx, "maxKb", "64")) * 1024;
+            if (before < 0 || maxBytes <= 0 || maxBytes > MAX_LOG_PAGE_BYTES) {
+                throw new IllegalArgumentException("before must not be negative and maxKb between 1 and "
+                        + MAX_LOG_PAGE_BYTES / 1024);
+            }
+        } catch (RuntimeException e) {
+            error(ctx, 400, e.getMessage());
+            return;
+        }
+        ctx.vertx().<JsonObject>executeBlocking(promise -> {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                long size = in.length();
+                long end = Math.min(before, size);
+                long start = Math.max(0, end - maxBytes);
+                byte[] bytes = new byte[(int) (end - start)];
+                in.seek(start);
+                in.readFully(bytes);
+                int from = 0;
+                if (start > 0) {
+                    // skip the partial first line, unless the page is a part of one long line
+                    int newline = indexOf(bytes, (byte) '\n');
+                    if (newline >= 0 && newline < bytes.length - 1) {
+                        from = newline + 1;
+                    }
+                }
+                String text = new String(bytes, from, bytes.length - from, StandardCharsets.UTF_8);
+                JsonArray lines = new JsonArray();
+                if (!text.isEmpty()) {
+                    for (String line : text.split("\r?\n")) {
+                        lines.add(line);
+                    }
+                }
+                promise.complete(new JsonObject()
+                        .put("run", run.getId())
+                        .put("start", start + from)
+                        .put("end", end)
+                        .put("size", size)
+                        .put("lines", lines));
+            } catch (IOException e) {
+                promise.fail(e);
+            }
+        }, false).onComplete(result -> {
+            if (result.succeeded()) {
+                ctx.json(result.result());
+            } else {
+                error(ctx, 500, String.valueOf(result.cause().getMessage()));
+            }
+        });
+    }
+
+    private void listPlans(RoutingContext ctx) {
+        JsonArray plans = new JsonArray();
+        for (PlanReport report : planWatcher.getReports()) {
+            plans.add(toJson(report));
+        }
+        ctx.json(new JsonObject()
+                .put("dir", planWatcher.getDir() == null ? null : planWatcher.getDir().getPath())
+                .put("plans", plans));
+    }
+
+    private void validatePlan(RoutingContext ctx) {
+        String jmx = ctx.request().getParam("jmx");
+        if (jmx == null || jmx.trim().isEmpty()) {
+            error(ctx, 400, "Please provide a JMX test file name.");
+            return;
+        }
+        if (!new File(jmx.trim()).isFile()) {
+            error(ctx, 404, "File not found: " + jmx.trim());
+            return;
+        }
+        // loading a plan which has changed takes too long for the event loop
+        ctx.vertx().<PlanReport>executeBlocking(promise -> promise.complete(planWatcher.validate(jmx.trim())), false)
+                .onComplete(result -> {
+                    if (result.succeeded()) {
+                        ctx.json(toJson(result.result()));
+                    } else {
+                        error(ctx, 500, String.valueOf(result.cause().getMessage()));
+                    }
+                });
+    }
+
+    private static JsonObject toJson(PlanReport report) {
+        return new JsonObject()
+                .put("type", "plan")
+                .put("file", report.getFile())
+                .put("lastModified", report.getLastModified())
+                .put("validatedAt", report.getValidatedAt())
+                .put("millis", report.getMillis())
+                .put("elements", report.getElements())
+                .put("errors", new JsonArray(report.getErrors()))
+                .put("warnings", new JsonArray(report.getWarnings()));
+    }
+
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String param(RoutingContext ctx, String name, String defaultValue) {
+        String value = ctx.request().getParam(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private Run findRun(RoutingContext ctx) {
+        Run run = null;
+        try {
+            run = scheduler.get(Long.parseLong(ctx.pathParam("id")));
+        } catch (NumberFormatException e) {
+            // not found
+        }
+        if (run == null) {
+            error(ctx, 404, "Run not found: " + ctx.pathParam("id"));
+        }
+        return run;
+    }
+
+    private static void error(RoutingContext ctx, int statusCode, String message) {
+        ctx.response().setStatusCode(statusCode);
+        ctx.json(new JsonObject().put("error", message));
+    }
+
+    static JsonObject toJson(Run run, boolean withSummary) {
+        JsonObject json = new JsonObject()
+                .put("id", run.getId())
+                .put("jmx", run.getOptions().getJmxFile())
+                .put("options", new JsonObject(new LinkedHashMap<>(run.getOptions().getValues())))
+                .put("status", run.getStatus())
+                .put("submitTime", run.getSubmitTime())
+                .put("startTime", run.getStartTime())
+                .put("endTime", run.getEndTime())
+                .put("durationMillis", run.getDurationMillis())
+                .put("error", run.getError());
+        if (run.getStopReason() != null) {
+            json.put("stopReason", run.getStopReason());
+        }
+        if (run.getResultDir() != null) {
+            json.put("resultDir", run.getResultDir().getPath());
+        }
+        ResultAggregator results = run.getResults();
+        if (withSummary && results != null) {
+            JsonArray summary = new JsonArray();
+            for (LabelStats.Snapshot s : results.snapshot()) {
+                JsonObject label = new JsonObject()
+                        .put("label", s.getLabel())
+                        .put("count", s.getCount())
+                        .put("errors", s.getErrors())
+                        .put("errorRate", s.getErrorRate())
+                        .put("bytes", s.getBytes())
+                        .put("mean", s.getMean())
+                        .put("min", s.getMin())
+                        .put("max", s.getMax())
+                        .put("p50", s.getP50())
+                        .put("p90", s.getP90())
+                        .put("p95", s.getP95())
+                        .put("p99", s.getP99())
+                        .put("p999", s.getP999());
+                if (s.getCorrectedCount() > 0) {
+                    label.put("corrected", new JsonObject()
+                            .put("count", s.getCorrectedCount())
+                            .put("p50", s.getCorrectedP50())
+                            .put("p99", s.getCorrectedP99())
+                            .put("p999", s.getCorrectedP999())
+                            .put("max", s.getCorrectedMax()));
+                }
+                summary.add(label);
+            }
+            json.put("summary", summary);
+        }
+        GeneratorReport generator = run.getGeneratorReport();
+        if (withSummary && generator != null) {
+            json.put("generator", new JsonObject()
+                    .put("seconds", generator.getSeconds())
+                    .put("saturatedSeconds", generator.getSaturatedSeconds())
+                    .put("saturations", new JsonArray(new ArrayList<>(generator.getSaturations())))
+                    .put("maxCpu", generator.getMaxCpuPercent())
+                    .put("maxGc", generator.getMaxGcPercent())
+                    .put("maxAllocMb", generator.getMaxAllocationMbPerSecond())
+                    .put("maxThreads", generator.getMaxThreads())
+                    .put("maxLag", generator.getMaxSchedulingLagMillis()));
+        }
+        ScriptCache.RunStats scripts = run.getScriptStats();
+        if (withSummary && scripts != null) {
+            json.put("scripts", new JsonObject()
+                    .put("scripts", scripts.getScripts())
+                    .put("cacheHits", scripts.getCacheHits())
+                    .put("compiles", scripts.getCompiles())
+                    .put("failures", scripts.getFailures())
+                    .put("compileMillis", scripts.getCompileMillis()));
+        }
+        MaxThroughputSearch search = run.getSearch();
+        if (withSummary && search != null) {
+            JsonArray stages = new JsonArray();
+            for (LoadStage stage : search.getStages()) {
+                stages.add(toJson(stage));
+            }
+            LoadStage best = search.getBest();
+            json.put("findMax", new JsonObject()
+                    .put("sla", search.getSla().toString())
+                    .put("by", search.isByRate() ? "rate" : "users")
+                    .put("stages", stages)
+                    .put("best", best == null ? null : toJson(best))
+                    .put("conclusion", search.getConclusion()));
+        }
+        return json;
+    }
+
+    private static JsonObject toJson(LoadStage stage) {
+        return new JsonObject()
+                .put("stage", stage.getStage())
+                .put("load", stage.getLoad())
+                .put("threads", stage.getActiveThreads())
+                .put("tps", stage.getThroughput())
+                .put("p50", stage.getP50())
+                .put("p99", stage.getP99())
+                .put("errorRate", stage.getErrorRate())
+                .put("violation", stage.getViolation());
+    }
+}
@@ -0,0 +1,215 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.log.AsyncRunAppender;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.StaticHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * This is the web console of the runner. It serves the web page, relays the logs (tagged with their run id) and the
+ * rest of the standard output to the browsers in batches, and triggers the task when the browser sends "startParams=...".
+ * <p>
+ * The frames sent to the browsers are binary, see ConsoleFrame. Each frame is encoded once and written to all the
+ * browsers from the event loop of the console.
+ * <p>
+ * The batching can be tuned with the VM options -DlogBatchMs (100 by default), -DlogBatchKb (64 by default),
+ * -DlogPendingKb (4096 by default, lines beyond it are dropped and counted) and -DlogCompressBytes (1024 by default,
+ * the batches of at least this size are compressed, 0 disables it).
+ */
+@Slf4j
+public class WebConsole extends AbstractVerticle {
+    private static final String PARAM_LOG_BATCH_MS = "logBatchMs";
+    private static final String PARAM_LOG_BATCH_KB = "logBatchKb";
+    private static final String PARAM_LOG_PENDING_KB = "logPendingKb";
+    private static final String PARAM_LOG_COMPRESS_BYTES = "logCompressBytes";
+    private static final String START_PARAMS = "startParams=";
+    private static volatile WebConsole instance;
+
+    private final Runnable preTask;
+    private final Consumer<String[]> task;
+    private final Consumer<Router> routes;
+    /** only used on the event loop of the console */
+    private final List<Viewer> viewers = new ArrayList<>();
+
+    private WebConsole(Runnable preTask, Consumer<String[]> task, Consumer<Router> routes) {
+        this.preTask = preTask;
+        this.task = task;
+        this.routes = routes;
+    }
+
+    public static synchronized void start(Runnable preTask, Consumer<String[]> task, int port) {
+        start(preTask, task, new HttpServerOptions().setPort(port));
+    }
+
+    public static synchronized void start(Runnable preTask, Consumer<String[]> task, HttpServerOptions options) {
+        start(preTask, task, options, router -> {
+        });
+    }
+
+    /**
+     * Start the web console
+     *
+     * @param preTask optional, it runs every time a browser is connected
+     * @param task    it runs with the parameters from the browser when "Start" is clicked
+     * @param options options of the http server
+     * @param routes  adds more routes e.g. an API, before the route of the web page
+     */
+    public static synchronized void start(Runnable preTask, Consumer<String[]> task, HttpServerOptions options,
+                                          Consumer<Router> routes) {
+        if (instance != null) {
+            return;
+        }
+        instance = new WebConsole(preTask, task, routes);
+        Vertx vertx = Vertx.vertx(new VertxOptions().setMaxWorkerExecuteTime(Long.MAX_VALUE));
+        vertx.deployVerticle(instance)
+                .compose(id -> instance.startWebServer(options))
+                .onSuccess(server -> {
+                    log.info("Web console server started, url: " + getServerUrl(options));
+                    instance.redirectStdOutToWeb();
+                })
+                .onFailure(e -> log.error("Failed to start the web console server", e));
+    }
+
+    private Future<HttpServer> startWebServer(HttpServerOptions options) {
+        HttpServer server = vertx.createHttpServer(options);
+        server.webSocketHandler(this::onWebSocketConnected);
+
+        Router router = Router.router(vertx);
+        routes.accept(router);
+        router.route().handler(StaticHandler.create("web"));
+        server.requestHandler(router);
+        return server.listen();
+    }
+
+    private void redirectStdOutToWeb() {
+        LogBatcher batcher = new LogBatcher(vertx, WebConsole::publish,
+                Long.getLong(PARAM_LOG_BATCH_MS, 100L),
+                Integer.getInteger(PARAM_LOG_BATCH_KB, 64) * 1024,
+                Integer.getInteger(PARAM_LOG_PENDING_KB, 4096) * 1024,
+                Integer.getInteger(PARAM_LOG_COMPRESS_BYTES, 1024));
+        AsyncRunAppender.addSink(batcher::add);
+        System.setOut(new PrintStream(new LogRelay(System.out, batcher), true));
+    }
+
+    private void onWebSocketConnected(ServerWebSocket webSocket) {
+        Viewer viewer = new Viewer(webSocket);
+        ConsoleFrame welcome = LogBatcher.encode(Collections.singletonList("Welcome to the JMeter web runner!"), 0);
+        context.runOnContext(v -> {
+            viewer.write(welcome);
+            welcome.release();
+            viewers.add(viewer);
+        });
+        webSocket.closeHandler(v -> context.runOnContext(x -> viewers.remove(viewer)));
+        webSocket.textMessageHandler(this::onMessageReceived);
+
+        if (preTask != null) {
+            preTask.run();
+        }
+    }
+
+    /**
+     * Publish a frame to all browsers, the frame is released once it's written
+     *
+     * @param frame the encoded frame
+     */
+    static void publish(ConsoleFrame frame) {
+        WebConsole console = instance;
+        if (console == null || console.context == null) {
+            frame.releaseAll();
+            return;
+        }
+        console.context.runOnContext(v -> {
+            try {
+                for (Viewer viewer : console.viewers) {
+                    viewer.send(frame);
+                }
+            } finally {
+                frame.releaseAll();
+            }
+        });
+    }
+
+    private void onMessageReceived(String message) {
+        log.info("Message received: {}", message);
+        if (!message.startsWith(START_PARAMS)) {
+            return;
+        }
+        String[] params = message.substring(START_PARAMS.length()).trim().split("\\s+");
+        vertx.executeBlocking(promise -> {
+                    task.accept(params);
+                    promise.complete();
+                }, false)
+                .onSuccess(v -> log.info("executeBlocking success"))
+                .onFailure(e -> log.error("executeBlocking error", e));
+    }
+
+    private static String getServerUrl(HttpServerOptions options) {
+        String protocol = options.isSsl() ? "https://" : "http://";
+        String host = "0.0.0.0".equals(options.getHost()) ? "127.0.0.1" : options.getHost();
+        return protocol + host + ":" + options.getPort();
+    }
+
+    /**
+     * One browser, its frames are written on the event loop of the console. When the browser can't keep up, the log
+     * batches are dropped for this browser only, and the number of dropped lines is sent once the browser has caught
+     * up. A metrics frame which can't be written is skipped, the browser gets the next key frame instead.
+     */
+    private static class Viewer {
+        private final ServerWebSocket webSocket;
+        private long droppedLines;
+        /** the sequence number of the last metrics frame written, by run */
+        private final Map<Long, Long> metricsSequences = new HashMap<>();
+
+        private Viewer(ServerWebSocket webSocket) {
+            this.webSocket = webSocket;
+        }
+
+        private void send(ConsoleFrame frame) {
+            switch (frame.getChannel()) {
+                case ConsoleFrame.LOG:
+                    if (webSocket.writeQueueFull()) {
+                        droppedLines += frame.getLines();
+                        return;
+                    }
+                    if (droppedLines > 0) {
+                        ConsoleFrame dropped = LogBatcher.encode(Collections.emptyList(), droppedLines);
+                        write(dropped);
+                        dropped.release();
+                        droppedLines = 0;
+                    }
+                    write(frame);
+                    break;
+                case ConsoleFrame.METRICS:
+                    if (webSocket.writeQueueFull()) { // metrics are sent every second, a skipped frame is not resent
+                        return;
+                    }
+                    Long previous = metricsSequences.put(frame.getRunId(), frame.getSequence());
+                    boolean inSequence = previous != null && previous == frame.getSequence() - 1;
+                    write(inSequence || frame.getKeyFrame() == null ? frame : frame.getKeyFrame());
+                    break;
+                default: // e.g. the reports of the plans, they are rare and not sent again, they are not skipped
+                    write(frame);
+            }
+        }
+
+        private void write(ConsoleFrame frame) {
+            frame.retain();
+            webSocket.writeBinaryMessage(frame.buffer(), result -> frame.release());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A target arrival rate over time, made of steps and ramps, e.g. "ramp:0-100:60s,const:100:5m,const:200:30s".
+ * <ul>
+ *     <li>const:RATE:DURATION - RATE arrivals per second for DURATION</li>
+ *     <li>ramp:FROM-TO:DURATION - the rate goes linearly from FROM to TO per second during DURATION</li>
+ * </ul>
+ * A duration is a number followed by ms, s, m or h. The intended time of the n-th arrival is computed directly from n,
+ * so that many threads can take arrivals without a lock.
+ */
+public class ArrivalProfile {
+    private final List<Segment> segments;
+    private final long durationMillis;
+
+    private ArrivalProfile(List<Segment> segments) {
+        this.segments = Collections.unmodifiableList(segments);
+        this.durationMillis = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).endMillis;
+    }
+
+    public static ArrivalProfile parse(String profile) {
+        List<Segment> segments = new ArrayList<>();
+        long startMillis = 0;
+        double startArrivals = 0;
+        for (String part : profile.split(",")) {
+            String[] fields = part.trim().split(":");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Invalid arrival rate segment: " + part);
+            }
+            double fromRate;
+            double toRate;
+            if ("const".equals(fields[0])) {
+                fromRate = toRate = Double.parseDouble(fields[1]);
+            } else if ("ramp".equals(fields[0])) {
+                String[] rates = fields[1].split("-");
+                fromRate = Double.parseDouble(rates[0]);
+                toRate = Double.parseDouble(rates[1]);
+            } else {
+                throw new IllegalArgumentException("Invalid arrival rate segment: " + part);
+            }
+            if (fromRate < 0 || toRate < 0) {
+                throw new IllegalArgumentException("Negative arrival rate: " + part);
+            }
+            Segment segment = new Segment(startMillis, parseDuration(fields[2]), startArrivals, fromRate, toRate);
+            segments.add(segment);
+            startMillis = segment.endMillis;
+            startArrivals = segment.endArrivals;
+        }
+        return new ArrivalProfile(segments);
+    }
+
+    /**
+     * The same profile with all the rates multiplied, e.g. the share of one of several worker processes
+     *
+     * @param factor multiplier of the rates
+     * @return the scaled profile
+     */
+    public ArrivalProfile scale(double factor) {
+        List<Segment> scaled = new ArrayList<>(segments.size());
+        double startArrivals = 0;
+        for (Segment segment : segments) {
+            Segment s = new Segment(segment.startMillis, segment.endMillis - segment.startMillis, startArrivals,
+                    segment.fromRate * factor, segment.toRate * factor);
+            scaled.add(s);
+            startArrivals = s.endArrivals;
+        }
+        return new ArrivalProfile(scaled);
+    }
+
+    /**
+     * The intended time of the n-th arrival, relative to the start of the profile
+     *
+     * @param n zero based arrival number
+     * @return ms after the start, or -1 when the profile has ended before this arrival
+     */
+    public long intendedOffsetMillis(long n) {
+        for (Segment segment : segments) {
+            if (n < segment.endArrivals) {
+                return segment.offsetOf(n - segment.startArrivals);
+            }
+        }
+        return -1;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getTotalArrivals() {
+        return segments.isEmpty() ? 0 : (long) Math.floor(segments.get(segments.size() - 1).endArrivals);
+    }
+
+    /**
+     * Parse a duration like 500ms, 10s, 5m or 1h
+     *
+     * @param duration a number followed by ms, s, m or h
+     * @return the duration in ms
+     */
+    public static long parseDuration(String duration) {
+        String d = duration.trim().toLowerCase(Locale.ROOT);
+        if (d.endsWith("ms")) {
+            return Long.parseLong(d.substring(0, d.length() - 2));
+        }
+        long value = Long.parseLong(d.substring(0, d.length() - 1));
+        switch (d.charAt(d.length() - 1)) {
+            case 's':
+                return value * 1000;
+            case 'm':
+                return value * 60_000;
+            case 'h':
+                return value * 3_600_000;
+            default:
+                throw new IllegalArgumentException("Invalid duration: " + duration);
+        }
+    }
+
+    private static class Segment {
+        private final long startMillis;
+        private final long endMillis;
+        private final double startArrivals;
+        private final double endArrivals;
+        private final double fromRate;
+        private final double toRate;
+        /** rate in arrivals per ms at the start of the segment */
+        private final double rate;
+        /** change of the rate per ms */
+        private final double acceleration;
+
+        private Segment(long startMillis, long durationMillis, double startArrivals, double fromRate, double toRate) {
+            this.startMillis = startMillis;
+            this.endMillis = startMillis + durationMillis;
+            this.startArrivals = startArrivals;
+            this.fromRate = fromRate;
+            this.toRate = toRate;
+            this.rate = fromRate / 1000;
+            this.acceleration = durationMillis == 0 ? 0 : (toRate - fromRate) / 1000 / durationMillis;
+            this.endArrivals = startArrivals + rate * durationMillis + acceleration * durationMillis * durationMillis / 2;
+        }
+
+        /**
+         * Solve rate * t + acceleration * t^2 / 2 = k for t
+         */
+        private long offsetOf(double k) {
+            double t;
+            if (acceleration == 0) {
+                t = k / rate;
+            } else {
+                t = (-rate + Math.sqrt(rate * rate + 2 * acceleration * k)) / acceleration;
+            }
+            return startMillis + (long) t;
+        }
+    }
+}
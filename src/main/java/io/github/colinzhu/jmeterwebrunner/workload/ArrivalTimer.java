@@ -0,0 +1,136 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.timers.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This timer drives the samplers with an open workload. Every sampler execution takes the next arrival of the
+ * profile and waits until the intended start time of that arrival, no matter how long the previous samples took.
+ * <p>
+ * When an arrival is already late when a thread takes it, all threads were busy at its intended time, so a thread
+ * is added to the thread group, up to a max. The intended start time is kept until the sample has occurred, the
+ * delay between the intended and the actual start is recorded as queueing delay, and the latency measured from the
+ * intended start is recorded as the corrected latency of the sample.
+ */
+@Slf4j
+public class ArrivalTimer extends AbstractTestElement implements Timer, SampleListener, TestStateListener, NoThreadClone {
+    private static final long GROWTH_LATENESS_MILLIS = 20;
+    private static final long GROWTH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long HIGHEST_TRACKABLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final transient ArrivalProfile profile;
+    private final transient ResultAggregator results;
+    private final transient int maxThreads;
+    private final transient AtomicLong arrivals = new AtomicLong();
+    private final transient AtomicLong lastGrowthNanos = new AtomicLong();
+    private final transient AtomicInteger addedThreads = new AtomicInteger();
+    private final transient Recorder queueDelay = new Recorder(1, HIGHEST_TRACKABLE_MILLIS, 3);
+    private final transient ThreadLocal<long[]> intendedStart = ThreadLocal.withInitial(() -> new long[1]);
+    private transient volatile long startMillis;
+
+    public ArrivalTimer(ArrivalProfile profile, ResultAggregator results, int maxThreads) {
+        this.profile = profile;
+        this.results = results;
+        this.maxThreads = maxThreads;
+        setName("Arrival timer");
+    }
+
+    @Override
+    public long delay() {
+        JMeterContext context = JMeterContextService.getContext();
+        if (!VirtualThreads.isPlainThreadGroup(context.getThreadGroup())) {
+            return 0; // setUp and tearDown thread groups take no arrivals
+        }
+        long offset = profile.intendedOffsetMillis(arrivals.getAndIncrement());
+        if (offset < 0) {
+            // the profile has ended, the thread stops without sampling again
+            intendedStart.get()[0] = 0;
+            context.getThread().stop();
+            return 0;
+        }
+
+        long intended = startMillis + offset;
+        intendedStart.get()[0] = intended;
+        long delay = intended - System.currentTimeMillis();
+        if (-delay > GROWTH_LATENESS_MILLIS) {
+            addThread(context);
+        }
+        return Math.max(delay, 0);
+    }
+
+    private void addThread(JMeterContext context) {
+        long now = System.nanoTime();
+        long last = lastGrowthNanos.get();
+        if (now - last < GROWTH_INTERVAL_NANOS || !lastGrowthNanos.compareAndSet(last, now)) {
+            return;
+        }
+        AbstractThreadGroup group = context.getThreadGroup();
+        if (group.numberOfActiveThreads() < maxThreads) {
+            group.addNewThread(0, context.getEngine());
+            addedThreads.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent event) {
+        long[] slot = intendedStart.get();
+        if (slot[0] == 0) {
+            return;
+        }
+        SampleResult result = event.getResult();
+        queueDelay.recordValue(Math.min(Math.max(result.getStartTime() - slot[0], 0), HIGHEST_TRACKABLE_MILLIS));
+        results.recordCorrected(result.getSampleLabel(), result.getEndTime() - slot[0]);
+        slot[0] = 0;
+    }
+
+    @Override
+    public void sampleStarted(SampleEvent event) {
+        // not used
+    }
+
+    @Override
+    public void sampleStopped(SampleEvent event) {
+        // not used
+    }
+
+    @Override
+    public void testStarted() {
+        startMillis = System.currentTimeMillis();
+        log.info("Open workload started, {} arrivals in {} s", profile.getTotalArrivals(),
+                profile.getDurationMillis() / 1000);
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        Histogram delays = queueDelay.getIntervalHistogram();
+        log.info("Open workload ended, arrivals taken: {}, threads added: {}, queueing delay ms p50: {}, p99: {}, max: {}",
+                Math.min(arrivals.get(), profile.getTotalArrivals()), addedThreads.get(),
+                delays.getValueAtPercentile(50), delays.getValueAtPercentile(99), delays.getMaxValue());
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+}
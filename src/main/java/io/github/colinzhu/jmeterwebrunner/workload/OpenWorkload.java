@@ -0,0 +1,95 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jmeter.timers.Timer;
+import org.apache.jorphan.collections.HashTree;
+
+import java.util.ArrayList;
+
+/**
+ * This class turns a test plan into an open workload run: the thread groups loop until the end of the arrival
+ * profile, and an ArrivalTimer decides when each sampler starts. The timers of the plan are removed, because their
+ * think times would shift the samples away from the intended arrival times.
+ * <p>
+ * Only plain thread groups are changed, setUp and tearDown thread groups run as defined in the plan, with their timers
+ * and without arrivals. The timers at the plan level are moved into the setUp and tearDown thread groups.
+ */
+public class OpenWorkload {
+    private OpenWorkload() {
+    }
+
+    /**
+     * Apply the arrival profile to the test plan
+     *
+     * @param testPlan   the test plan of the run, already cloned for the run
+     * @param profile    the target arrival rate over time
+     * @param results    the results of the run, to record the corrected latencies
+     * @param maxThreads max number of threads per thread group
+     * @return the timer added to the test plan
+     */
+    public static ArrivalTimer apply(HashTree testPlan, ArrivalProfile profile, ResultAggregator results, int maxThreads) {
+        long durationSeconds = (profile.getDurationMillis() + 999) / 1000;
+        HashTree planTree = testPlan.getTree(testPlan.getArray()[0]);
+        for (ThreadGroup group : findThreadGroups(testPlan)) {
+            LoopController loop = (LoopController) group.getSamplerController();
+            loop.setLoops(LoopController.INFINITE_LOOP_COUNT);
+            loop.setContinueForever(true);
+            group.setRampUp(0);
+            group.setDelay(0);
+            group.setScheduler(true);
+            group.setDuration(durationSeconds);
+            removeTimers(planTree.getTree(group));
+        }
+        moveTimersToOtherGroups(planTree);
+
+        ArrivalTimer timer = new ArrivalTimer(profile, results, maxThreads);
+        testPlan.add(testPlan.getArray()[0], timer);
+        return timer;
+    }
+
+    private static ArrayList<ThreadGroup> findThreadGroups(HashTree testPlan) {
+        ArrayList<ThreadGroup> groups = new ArrayList<>();
+        for (Object element : testPlan.getTree(testPlan.getArray()[0]).list()) {
+            if (VirtualThreads.isPlainThreadGroup(element)) {
+                groups.add((ThreadGroup) element);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * The timers at the plan level apply to every thread group, keep them only for the groups which are not changed
+     */
+    private static void moveTimersToOtherGroups(HashTree planTree) {
+        ArrayList<Timer> timers = new ArrayList<>();
+        for (Object element : planTree.list()) {
+            if (element instanceof Timer) {
+                timers.add((Timer) element);
+            }
+        }
+        for (Timer timer : timers) {
+            planTree.remove(timer);
+        }
+        if (timers.isEmpty()) {
+            return;
+        }
+        for (Object element : planTree.list()) {
+            if (element instanceof AbstractThreadGroup && !VirtualThreads.isPlainThreadGroup(element)) {
+                planTree.getTree(element).add(timers.toArray());
+            }
+        }
+    }
+
+    private static void removeTimers(HashTree tree) {
+        for (Object element : new ArrayList<>(tree.list())) {
+            if (element instanceof Timer) {
+                tree.remove(element);
+            } else {
+                removeTimers(tree.getTree(element));
+            }
+        }
+    }
+}
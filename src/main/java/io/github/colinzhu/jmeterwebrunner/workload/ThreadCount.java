@@ -0,0 +1,32 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import org.apache.jmeter.engine.util.CompoundVariable;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+
+/**
+ * This class reads the number of threads of a thread group before the engine has compiled the functions of the plan.
+ * AbstractThreadGroup.getNumThreads() would read "${__P(users,10)}" as 0, so the functions are resolved here, with
+ * the JMeter properties of this JVM.
+ */
+public class ThreadCount {
+    private ThreadCount() {
+    }
+
+    /**
+     * @param group a thread group of a plan which is not configured into an engine yet
+     * @return the number of threads of the group
+     * @throws IllegalArgumentException if the number of threads is not a number once its functions are resolved, e.g.
+     *                                  a variable which is only defined when the run starts
+     */
+    public static int of(AbstractThreadGroup group) {
+        String expression = group.getPropertyAsString(AbstractThreadGroup.NUM_THREADS).trim();
+        String value = expression.contains("${") ? new CompoundVariable(expression).execute().trim() : expression;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The number of threads of the thread group '" + group.getName()
+                    + "' is not a number: " + expression + (value.equals(expression) ? "" : " = " + value)
+                    + ", use a number or a property with a default, e.g. ${__P(users,10)}");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.ListenerNotifier;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.ListedHashTree;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * A thread group which runs each user on a virtual thread. It only replaces the creation of the threads: the started
+ * threads are registered in the map of ThreadGroup, so stopping, interrupting and waiting for the threads work as for
+ * a normal thread group.
+ * <p>
+ * The ramp-up is done with the initial delay of each user, "delay thread creation until needed" is not used as
+ * creating a virtual thread is cheap.
+ */
+@Slf4j
+public class VirtualThreadGroup extends ThreadGroup {
+    private static final long serialVersionUID = 1L;
+    private static final Field ALL_THREADS;
+
+    static {
+        try {
+            ALL_THREADS = ThreadGroup.class.getDeclaredField("allThreads");
+            ALL_THREADS.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final transient Object addThreadLock = new Object();
+    private transient volatile boolean running;
+    private transient int groupNumber;
+    private transient ListenerNotifier notifier;
+    private transient ListedHashTree threadGroupTree;
+    private transient Map<JMeterThread, Thread> allThreads;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void start(int groupNum, ListenerNotifier notifier, ListedHashTree threadGroupTree, StandardJMeterEngine engine) {
+        this.running = true;
+        this.groupNumber = groupNum;
+        this.notifier = notifier;
+        this.threadGroupTree = threadGroupTree;
+        try {
+            this.allThreads = (Map<JMeterThread, Thread>) ALL_THREADS.get(this);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int numThreads = getNumThreads();
+        int perThreadDelayInMillis = Math.round((float) getRampUp() * 1000 / numThreads);
+        log.info("Starting thread group... number={} threads={} ramp-up={} on virtual threads", groupNumber,
+                numThreads, getRampUp());
+        JMeterContext context = JMeterContextService.getContext();
+        long now = System.currentTimeMillis();
+        for (int threadNum = 0; running && threadNum < numThreads; threadNum++) {
+            startNewThread(engine, threadNum, context.getVariables(), now, threadNum * perThreadDelayInMillis);
+        }
+    }
+
+    @Override
+    public JMeterThread addNewThread(int delay, StandardJMeterEngine engine) {
+        int threadNum;
+        synchronized (addThreadLock) {
+            threadNum = getNumThreads();
+            setNumThreads(threadNum + 1);
+        }
+        JMeterThread thread = startNewThread(engine, threadNum, JMeterContextService.getContext().getVariables(),
+                System.currentTimeMillis(), delay);
+        JMeterContextService.addTotalThreads(1);
+        return thread;
+    }
+
+    private JMeterThread startNewThread(StandardJMeterEngine engine, int threadNum, JMeterVariables variables,
+                                        long now, int delay) {
+        JMeterThread jmThread = makeThread(engine, this, notifier, groupNumber, threadNum, cloneTree(threadGroupTree),
+                variables);
+        scheduleThread(jmThread, now);
+        jmThread.setInitialDelay(delay);
+        Thread thread = VirtualThreads.newThread(jmThread.getThreadName(), jmThread);
+        allThreads.put(jmThread, thread);
+        thread.start();
+        return jmThread;
+    }
+
+    private void scheduleThread(JMeterThread thread, long now) {
+        if (!getScheduler()) {
+            return;
+        }
+        thread.setStartTime(Math.max(getDelay(), 0) * 1000 + now);
+        if (getDuration() > 0) {
+            thread.setEndTime(getDuration() * 1000 + thread.getStartTime());
+        }
+        thread.setScheduled(true);
+    }
+
+    @Override
+    public void tellThreadsToStop(boolean now) {
+        running = false;
+        super.tellThreadsToStop(now);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        super.stop();
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jmeter.testelement.property.PropertyIterator;
+import org.apache.jmeter.threads.PostThreadGroup;
+import org.apache.jmeter.threads.SetupThreadGroup;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.HashTree;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class creates virtual threads on JDK 21+. The build targets Java 1.8, so the JDK 21 API is looked up at
+ * runtime: on older JDKs isSupported() returns false and the runs keep using platform threads.
+ */
+@Slf4j
+public class VirtualThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            unstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {
+            }); // fails on JDK 19 and 20 without --enable-preview
+        } catch (Exception | LinkageError e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a virtual thread which is not started yet
+     *
+     * @param name     thread name
+     * @param runnable the task of the thread
+     * @return the unstarted virtual thread
+     * @throws UnsupportedOperationException if the JDK doesn't support virtual threads
+     */
+    public static Thread newThread(String name, Runnable runnable) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+, current JDK: "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            return (Thread) UNSTARTED.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name), runnable);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create a virtual thread", e);
+        }
+    }
+
+    /**
+     * Run the users of the plain thread groups of the test plan on virtual threads. setUp and tearDown thread groups
+     * keep platform threads. On JDK older than 21 the test plan is not changed.
+     *
+     * @param testPlan the test plan of the run, already cloned for the run
+     * @return number of thread groups switched to virtual threads
+     */
+    public static int apply(HashTree testPlan) {
+        if (!isSupported()) {
+            log.warn("Virtual threads require JDK 21+, current JDK: {}, platform threads are used",
+                    System.getProperty("java.version"));
+            return 0;
+        }
+        HashTree planTree = testPlan.getTree(testPlan.getArray()[0]);
+        List<ThreadGroup> groups = new ArrayList<>();
+        for (Object element : planTree.list()) {
+            if (isPlainThreadGroup(element)) {
+                groups.add((ThreadGroup) element);
+            }
+        }
+        for (ThreadGroup group : groups) {
+            VirtualThreadGroup virtualGroup = new VirtualThreadGroup();
+            PropertyIterator properties = group.propertyIterator();
+            while (properties.hasNext()) {
+                virtualGroup.setProperty(properties.next().clone());
+            }
+            planTree.replaceKey(group, virtualGroup);
+        }
+        return groups.size();
+    }
+
+    /**
+     * @param element a test element
+     * @return true if it's a thread group, but not a setUp or tearDown thread group
+     */
+    public static boolean isPlainThreadGroup(Object element) {
+        return element instanceof ThreadGroup
+                && !(element instanceof SetupThreadGroup)
+                && !(element instanceof PostThreadGroup);
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.colinzhu.jmeterwebrunner.distributed;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.SetupThreadGroup;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserSplitTest {
+    private static final String USERS = "userSplitTest.users";
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @AfterEach
+    void removeProperty() {
+        JMeterUtils.getJMeterProperties().remove(USERS);
+    }
+
+    @Test
+    void remainderGoesToTheFirstWorkers() {
+        assertEquals(4, UserSplit.share(10, 0, 3));
+        assertEquals(3, UserSplit.share(10, 1, 3));
+        assertEquals(3, UserSplit.share(10, 2, 3));
+        assertEquals(1, UserSplit.share(1, 0, 2));
+        assertEquals(0, UserSplit.share(1, 1, 2));
+    }
+
+    @Test
+    void propertyThreadCountIsResolvedBeforeTheSplit() {
+        int[] users = new int[3];
+        int[] setUp = new int[3];
+        for (int worker = 0; worker < 3; worker++) {
+            HashTree plan = plan("${__P(" + USERS + ",10)}");
+            users[worker] = UserSplit.apply(plan, worker, 3);
+            setUp[worker] = group(plan, 0).getNumThreads();
+            assertEquals(users[worker] - setUp[worker], group(plan, 1).getNumThreads());
+        }
+
+        assertEquals(1 + 4, users[0]);
+        assertEquals(3, users[1]);
+        assertEquals(3, users[2]);
+        assertEquals(1, setUp[0] + setUp[1] + setUp[2]);
+    }
+
+    @Test
+    void propertyValueWinsOverTheDefault() {
+        JMeterUtils.setProperty(USERS, " 7 ");
+        HashTree plan = plan("${__P(" + USERS + ",10)}");
+
+        UserSplit.apply(plan, 1, 2);
+
+        assertEquals(3, group(plan, 1).getNumThreads());
+    }
+
+    @Test
+    void nonNumericThreadCountFailsAndLeavesThePlan() {
+        HashTree plan = plan("${users}");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> UserSplit.apply(plan, 0, 2));
+
+        assertTrue(e.getMessage().contains("'Users'"), e.getMessage());
+        assertEquals("1", group(plan, 0).getPropertyAsString(AbstractThreadGroup.NUM_THREADS));
+        assertEquals("${users}", group(plan, 1).getPropertyAsString(AbstractThreadGroup.NUM_THREADS));
+    }
+
+    private static HashTree plan(String users) {
+        HashTree plan = new ListedHashTree();
+        HashTree groups = plan.add(new TestPlan("plan"));
+        groups.add(threadGroup(new SetupThreadGroup(), "setUp", "1"));
+        groups.add(threadGroup(new ThreadGroup(), "Users", users));
+        return plan;
+    }
+
+    private static AbstractThreadGroup threadGroup(AbstractThreadGroup group, String name, String users) {
+        group.setName(name);
+        group.setProperty(AbstractThreadGroup.NUM_THREADS, users);
+        group.setSamplerController(new LoopController());
+        return group;
+    }
+
+    private static AbstractThreadGroup group(HashTree plan, int index) {
+        return (AbstractThreadGroup) plan.getTree(plan.getArray()[0]).getArray()[index];
+    }
+}
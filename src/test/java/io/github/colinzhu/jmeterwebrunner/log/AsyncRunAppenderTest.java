@@ -0,0 +1,75 @@
+package io.github.colinzhu.jmeterwebrunner.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import io.github.colinzhu.jmeterwebrunner.run.RunContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class AsyncRunAppenderTest {
+    private static final int EVENTS = 50_000;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void stopWritesEveryQueuedLineToTheRunLog() throws IOException {
+        AsyncRunAppender appender = new AsyncRunAppender();
+        appender.setContext(new LoggerContext());
+        appender.setQueueSize(EVENTS);
+        appender.setPattern("%msg");
+        appender.setRunLogDir(dir.getPath());
+        appender.setDedupWindowMs(0);
+        appender.setRateLimit(0);
+        // a slow console, so that most of the events are still queued when the appender is stopped
+        UnsynchronizedAppenderBase<ILoggingEvent> console = new UnsynchronizedAppenderBase<ILoggingEvent>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                long end = System.nanoTime() + 40_000;
+                while (System.nanoTime() < end) {
+                    // busy, a sleep would clear the interrupt status of the dispatcher
+                }
+            }
+        };
+        console.start();
+        appender.addAppender(console);
+        appender.start();
+
+        for (int i = 0; i < EVENTS; i++) {
+            appender.doAppend(event("7", "line " + i));
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(RunLogFiles.file(dir, "7").toPath(), StandardCharsets.UTF_8);
+        assertEquals(EVENTS, lines.size());
+        for (int i = 0; i < EVENTS; i++) {
+            assertEquals("line " + i, lines.get(i));
+        }
+        assertEquals(0, AsyncRunAppender.runEnded(7));
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    private static LoggingEvent event(String runId, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerName("sampler");
+        event.setLevel(Level.INFO);
+        event.setMessage(message);
+        event.setThreadName("test");
+        event.setTimeStamp(System.currentTimeMillis());
+        event.setMDCPropertyMap(Collections.singletonMap(RunContext.MDC_RUN_ID, runId));
+        return event;
+    }
+}
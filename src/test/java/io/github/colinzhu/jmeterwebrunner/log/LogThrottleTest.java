@@ -0,0 +1,147 @@
+package io.github.colinzhu.jmeterwebrunner.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import io.github.colinzhu.jmeterwebrunner.run.RunContext;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogThrottleTest {
+
+    @Test
+    void repeatsWithinTheWindowAreCountedInOneSummary() {
+        LogThrottle throttle = new LogThrottle(1000, 0);
+
+        assertTrue(throttle.accept(event("1", "sampler", Level.ERROR, "timeout"), 0));
+        for (int i = 1; i <= 4; i++) {
+            assertFalse(throttle.accept(event("1", "sampler", Level.ERROR, "timeout"), i));
+        }
+        assertEquals(Collections.emptyList(), expire(throttle, 999));
+        assertEquals(Collections.singletonList("x4 in the last 1000 ms: timeout"), expire(throttle, 1000));
+
+        // the message is still repeated: the next occurrence goes to the next window, once it's the line itself
+        LoggingEvent once = event("1", "sampler", Level.ERROR, "timeout");
+        assertFalse(throttle.accept(once, 1100));
+        List<ILoggingEvent> events = new ArrayList<>();
+        throttle.expire(2000, false, events);
+        assertEquals(Collections.singletonList(once), events);
+
+        // a window without repeats ends the message, it's written again
+        assertEquals(Collections.emptyList(), expire(throttle, 3000));
+        assertTrue(throttle.accept(event("1", "sampler", Level.ERROR, "timeout"), 3001));
+    }
+
+    @Test
+    void onlyIdenticalMessagesAreRepeats() {
+        LogThrottle throttle = new LogThrottle(1000, 0);
+
+        assertTrue(throttle.accept(event("1", "sampler", Level.ERROR, "timeout"), 0));
+        assertTrue(throttle.accept(event("2", "sampler", Level.ERROR, "timeout"), 0));
+        assertTrue(throttle.accept(event("1", "other", Level.ERROR, "timeout"), 0));
+        assertTrue(throttle.accept(event("1", "sampler", Level.WARN, "timeout"), 0));
+        assertTrue(throttle.accept(event("1", "sampler", Level.ERROR, "timeout 2"), 0));
+        LoggingEvent withException = event("1", "sampler", Level.ERROR, "timeout");
+        withException.setThrowableProxy(new ThrowableProxy(new IOException("closed")));
+        assertTrue(throttle.accept(withException, 0));
+
+        assertEquals(Collections.emptyList(), expire(throttle, 1000));
+    }
+
+    @Test
+    void eventsOverTheRateOfALoggerAreSuppressedAndCounted() {
+        LogThrottle throttle = new LogThrottle(0, 10);
+
+        int accepted = 0;
+        for (int i = 0; i < 15; i++) {
+            if (throttle.accept(event("1", "noisy", Level.INFO, "line " + i), 0)) {
+                accepted++;
+            }
+        }
+        assertEquals(10, accepted);
+        assertTrue(throttle.accept(event("1", "quiet", Level.INFO, "line"), 0));
+
+        // the bucket refills at the rate, half a second gives 5 events
+        accepted = 0;
+        for (int i = 0; i < 8; i++) {
+            if (throttle.accept(event("1", "noisy", Level.INFO, "line " + i), 500)) {
+                accepted++;
+            }
+        }
+        assertEquals(5, accepted);
+
+        assertEquals(Collections.emptyList(), expire(throttle, 999));
+        assertEquals(Collections.singletonList("8 events of noisy suppressed in the last 1000 ms, over the rate limit of 10/s"),
+                expire(throttle, 1000));
+    }
+
+    @Test
+    void warningsAreNotSuppressedByTheOtherEventsOfTheirLogger() {
+        LogThrottle throttle = new LogThrottle(0, 2);
+
+        assertTrue(throttle.accept(event("1", "noisy", Level.INFO, "line 1"), 0));
+        assertTrue(throttle.accept(event("1", "noisy", Level.INFO, "line 2"), 0));
+        assertFalse(throttle.accept(event("1", "noisy", Level.INFO, "line 3"), 0));
+        assertTrue(throttle.accept(event("1", "noisy", Level.WARN, "warning"), 0));
+        assertTrue(throttle.accept(event("1", "noisy", Level.ERROR, "error 1"), 0));
+        assertFalse(throttle.accept(event("1", "noisy", Level.ERROR, "error 2"), 0));
+
+        List<String> summaries = expire(throttle, 1000);
+        summaries.sort(null);
+        assertEquals(Arrays.asList("1 events of noisy suppressed in the last 1000 ms, over the rate limit of 2/s",
+                "1 warnings and errors of noisy suppressed in the last 1000 ms, over the rate limit of 2/s"), summaries);
+    }
+
+    @Test
+    void expireAllEndsEveryWindow() {
+        LogThrottle throttle = new LogThrottle(1000, 2);
+
+        throttle.accept(event("1", "a", Level.ERROR, "same"), 0);
+        throttle.accept(event("1", "a", Level.ERROR, "same"), 10);
+        throttle.accept(event("1", "b", Level.INFO, "one"), 10);
+        throttle.accept(event("1", "b", Level.INFO, "two"), 10);
+        throttle.accept(event("1", "b", Level.INFO, "three"), 10);
+
+        List<String> summaries = new ArrayList<>();
+        List<ILoggingEvent> events = new ArrayList<>();
+        throttle.expire(100, true, events);
+        for (ILoggingEvent summary : events) {
+            summaries.add(summary.getFormattedMessage());
+            assertEquals("1", summary.getMDCPropertyMap().get(RunContext.MDC_RUN_ID));
+        }
+        summaries.sort(null);
+        assertEquals(2, summaries.size());
+        assertEquals("1 events of b suppressed in the last 90 ms, over the rate limit of 2/s", summaries.get(0));
+        assertEquals("same", summaries.get(1));
+    }
+
+    private static List<String> expire(LogThrottle throttle, long now) {
+        List<ILoggingEvent> events = new ArrayList<>();
+        throttle.expire(now, false, events);
+        List<String> messages = new ArrayList<>();
+        for (ILoggingEvent event : events) {
+            messages.add(event.getFormattedMessage());
+        }
+        return messages;
+    }
+
+    private static LoggingEvent event(String runId, String logger, Level level, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerName(logger);
+        event.setLevel(level);
+        event.setMessage(message);
+        event.setThreadName("test");
+        event.setMDCPropertyMap(Collections.singletonMap(RunContext.MDC_RUN_ID, runId));
+        return event;
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PlanCacheTest {
+    private static final long NO_WEIGHT_LIMIT = Long.MAX_VALUE;
+
+    @TempDir
+    File dir;
+
+    private final List<String> loads = new ArrayList<>();
+
+    @Test
+    void hitReturnsADistinctCloneOfTheLoadedPlan() throws IOException {
+        PlanCache cache = cache(4, NO_WEIGHT_LIMIT);
+        File a = plan("a", "content of a");
+
+        HashTree first = cache.get(a.getPath());
+        HashTree second = cache.get(a.getPath());
+
+        assertEquals(1, loads.size());
+        assertStats(cache, 1, 1, 0, 1);
+        assertNotSame(first, second);
+        assertNotSame(root(first), root(second));
+        assertEquals("a", root(second).getName());
+        root(first).setName("changed by a run");
+        assertEquals("a", root(cache.get(a.getPath())).getName());
+    }
+
+    @Test
+    void changedFileIsLoadedAgainUnlessItsContentIsTheSame() throws IOException {
+        PlanCache cache = cache(4, NO_WEIGHT_LIMIT);
+        File a = plan("a", "content of a");
+        cache.get(a.getPath());
+
+        assertEquals(a.getPath(), a.getCanonicalPath());
+        a.setLastModified(a.lastModified() - 10_000);
+        cache.get(a.getPath());
+        assertEquals(1, loads.size(), "touched, same hash");
+
+        Files.write(a.toPath(), "new content of a".getBytes(StandardCharsets.UTF_8));
+        cache.get(a.getPath());
+        assertEquals(2, loads.size());
+        assertStats(cache, 1, 2, 0, 1);
+    }
+
+    @Test
+    void leastRecentlyUsedPlanIsEvictedFirst() throws IOException {
+        PlanCache cache = cache(2, NO_WEIGHT_LIMIT);
+        File a = plan("a", "a");
+        File b = plan("b", "b");
+        File c = plan("c", "c");
+
+        cache.get(a.getPath());
+        cache.get(b.getPath());
+        cache.get(a.getPath());
+        cache.get(c.getPath()); // evicts b, a was used after it
+        cache.get(a.getPath());
+        cache.get(b.getPath()); // evicts c
+
+        assertEquals(Arrays.asList("a", "b", "c", "b"), loads);
+        assertStats(cache, 2, 4, 2, 2);
+    }
+
+    @Test
+    void plansAreEvictedOverTheWeightLimit() throws IOException {
+        // a plan weighs 4 times the size of its file: 40 bytes here
+        PlanCache cache = cache(10, 100);
+        File a = plan("a", "0123456789");
+        File b = plan("b", "0123456789");
+        File c = plan("c", "0123456789");
+
+        cache.get(a.getPath());
+        cache.get(b.getPath());
+        assertStats(cache, 0, 2, 0, 2);
+        assertEquals(80, cache.getStats().getWeightBytes());
+
+        cache.get(c.getPath());
+        assertStats(cache, 0, 3, 1, 2);
+        assertEquals(80, cache.getStats().getWeightBytes());
+        cache.get(a.getPath());
+        assertEquals(Arrays.asList("a", "b", "c", "a"), loads);
+    }
+
+    @Test
+    void planOverTheWeightLimitIsStillCached() throws IOException {
+        PlanCache cache = cache(10, 10);
+        File big = plan("big", "0123456789");
+
+        cache.get(big.getPath());
+        cache.get(big.getPath());
+
+        assertStats(cache, 1, 1, 0, 1);
+    }
+
+    @Test
+    void readGivesTheCachedTreeWithoutCountingAHit() throws IOException {
+        PlanCache cache = cache(4, NO_WEIGHT_LIMIT);
+        File a = plan("a", "a");
+
+        HashTree first = cache.read(a.getPath(), tree -> tree);
+        HashTree second = cache.read(a.getPath(), tree -> tree);
+        cache.invalidate(a.getPath());
+        cache.read(a.getPath(), tree -> tree);
+
+        assertSame(first, second);
+        assertEquals(Arrays.asList("a", "a"), loads);
+        assertStats(cache, 0, 2, 0, 1);
+    }
+
+    private PlanCache cache(int maxEntries, long maxWeight) {
+        return new PlanCache(file -> {
+            String name = file.getName().replace(".jmx", "");
+            loads.add(name);
+            HashTree tree = new ListedHashTree();
+            tree.add(new TestPlan(name));
+            return tree;
+        }, maxEntries, maxWeight);
+    }
+
+    private File plan(String name, String content) throws IOException {
+        File file = new File(dir.getCanonicalFile(), name + ".jmx");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static TestPlan root(HashTree tree) {
+        return (TestPlan) tree.getArray()[0];
+    }
+
+    private static void assertStats(PlanCache cache, long hits, long misses, long evictions, int entries) {
+        PlanCache.Stats stats = cache.getStats();
+        assertEquals(hits, stats.getHits(), "hits");
+        assertEquals(misses, stats.getMisses(), "misses");
+        assertEquals(evictions, stats.getEvictions(), "evictions");
+        assertEquals(entries, stats.getEntries(), "entries");
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRunner;
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jorphan.collections.HashTree;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlanSnapshotTest {
+    private static final String HASH = "0123456789abcdef";
+
+    @TempDir
+    File dir;
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void snapshotReadsBackAsTheSaveServiceLoad() throws Exception {
+        HashTree loaded = JMeterRunner.loadJmxAsTestPlan(fixture());
+        File file = new File(dir, "snapshot.jmx" + PlanSnapshotLoader.SUFFIX);
+
+        int xmlElements = PlanSnapshot.write(loaded, HASH, file);
+        HashTree read = PlanSnapshot.read(file, HASH);
+
+        assertEquals(1, xmlElements, "the ResultCollector has an object property");
+        assertNotNull(read);
+        assertEquals(PlanTrees.canonical(loaded), PlanTrees.canonical(read));
+        String text = PlanTrees.canonical(read).toString();
+        assertTrue(text.contains("Bearer ${__P(token)}") && text.contains("ünïcödé 试") && text.contains("1700000000000"));
+        assertTrue(text.contains("props.put(\"token\", \"abc\")\nlog.info(\"prepared <${host}>\")"));
+        assertFalse(text.contains("disabled sampler"));
+        assertFalse(new File(dir, file.getName() + ".tmp").exists());
+    }
+
+    @Test
+    void staleSnapshotIsNotRead() throws Exception {
+        HashTree loaded = JMeterRunner.loadJmxAsTestPlan(fixture());
+        File file = new File(dir, "stale" + PlanSnapshotLoader.SUFFIX);
+        PlanSnapshot.write(loaded, HASH, file);
+
+        assertNull(PlanSnapshot.read(file, "another hash"));
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[PlanSnapshot.MAGIC.length] = PlanSnapshot.VERSION + 1;
+        Files.write(file.toPath(), bytes);
+        assertNull(PlanSnapshot.read(file, HASH));
+
+        Files.write(file.toPath(), new byte[]{'J', 'M', 'X'});
+        assertNull(PlanSnapshot.read(file, HASH));
+    }
+
+    @Test
+    void loaderCompilesAndUsesTheSnapshot() throws Exception {
+        File jmx = new File(dir, "plan.jmx");
+        Files.copy(fixture().toPath(), jmx.toPath());
+        PlanSnapshotLoader loader = new PlanSnapshotLoader(JMeterRunner::loadJmxAsTestPlan, false);
+
+        File snapshot = loader.compile(jmx);
+
+        assertEquals(PlanSnapshotLoader.snapshotFile(jmx), snapshot);
+        assertTrue(snapshot.isFile());
+        byte[] magic = new byte[PlanSnapshot.MAGIC.length];
+        System.arraycopy(Files.readAllBytes(snapshot.toPath()), 0, magic, 0, magic.length);
+        assertArrayEquals(PlanSnapshot.MAGIC, magic);
+        assertEquals(PlanTrees.canonical(JMeterRunner.loadJmxAsTestPlan(jmx)), PlanTrees.canonical(loader.load(jmx)));
+    }
+
+    private static File fixture() throws URISyntaxException, IOException {
+        return PlanTrees.fixture("snapshot.jmx");
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.CollectionProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.PropertyIterator;
+import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jorphan.collections.HashTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the test plans of the loaders
+ */
+final class PlanTrees {
+    private PlanTrees() {
+    }
+
+    static File fixture(String name) throws URISyntaxException, IOException {
+        File file = new File(PlanTrees.class.getResource("/plans/" + name).toURI());
+        if (!file.isFile()) {
+            throw new IOException("Missing fixture " + file);
+        }
+        return file;
+    }
+
+    /**
+     * @return the tree in order, each element as its class and its properties, nested ones included
+     */
+    static List<Object> canonical(HashTree tree) {
+        List<Object> nodes = new ArrayList<>();
+        for (Object key : tree.list()) {
+            nodes.add(canonical((TestElement) key));
+            nodes.add(canonical(tree.getTree(key)));
+        }
+        return nodes;
+    }
+
+    private static Object canonical(TestElement element) {
+        if (element == null) {
+            return null;
+        }
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("class", element.getClass().getName());
+        properties.putAll(canonical(element.propertyIterator()));
+        return properties;
+    }
+
+    private static Map<String, Object> canonical(PropertyIterator iterator) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        int index = 0;
+        while (iterator.hasNext()) {
+            JMeterProperty property = iterator.next();
+            String key = index++ + ":" + property.getName() + ":" + property.getClass().getSimpleName();
+            if (property instanceof CollectionProperty) {
+                properties.put(key, canonical(((CollectionProperty) property).iterator()));
+            } else if (property instanceof TestElementProperty) {
+                properties.put(key, canonical(((TestElementProperty) property).getElement()));
+            } else {
+                properties.put(key, property.getObjectValue());
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.config.CSVDataSet;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.protocol.http.sampler.HTTPSamplerProxy;
+import org.apache.jmeter.protocol.java.sampler.JSR223Sampler;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlanValidatorTest {
+    private static final String VALID_SCRIPT = "vars.put('token', 'abc')";
+
+    @TempDir
+    File dir;
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void validPlanHasNoIssues() throws IOException {
+        PlanReport report = validate(plan(csv(data()), sampler("/${host}/${user}/${token}/${__P(validatorTest.path,x)}"),
+                script(VALID_SCRIPT)));
+
+        assertEquals(Collections.emptyList(), report.getErrors());
+        assertEquals(Collections.emptyList(), report.getWarnings());
+        assertEquals(5, report.getElements());
+    }
+
+    @Test
+    void missingCsvFileIsAnError() throws IOException {
+        File missing = new File(dir, "missing.csv");
+
+        PlanReport report = validate(plan(csv(missing), sampler("/${user}")));
+
+        assertOne(report.getErrors(), "plan > Users > CSV: the CSV file " + missing + " doesn't exist");
+        assertEquals(Collections.emptyList(), report.getWarnings());
+    }
+
+    @Test
+    void unknownVariableIsAWarning() throws IOException {
+        PlanReport report = validate(plan(sampler("/${host}/${nope}"), sampler("/${nope}")));
+
+        assertEquals(Collections.emptyList(), report.getErrors());
+        assertOne(report.getWarnings(), "plan > Users > Sampler: the variable ${nope} is not defined in the plan, "
+                + "it's also used by 1 more elements");
+    }
+
+    @Test
+    void propertyWithoutDefaultIsAWarning() throws IOException {
+        PlanReport report = validate(plan(sampler("/${__P(validatorTest.missing)}/${__P(validatorTest.other,1)}")));
+
+        assertOne(report.getWarnings(), "plan > Users > Sampler: the JMeter property \"validatorTest.missing\" is not "
+                + "set and ${__P(validatorTest.missing)} has no default");
+    }
+
+    @Test
+    void scriptWhichDoesNotCompileIsAnError() throws IOException {
+        PlanReport report = validate(plan(script("def total = \n}")));
+
+        assertEquals(1, report.getErrors().size(), report.getErrors().toString());
+        assertTrue(report.getErrors().get(0).startsWith("plan > Users > Script: the script doesn't compile: "),
+                report.getErrors().get(0));
+    }
+
+    @Test
+    void watcherValidatesTheCachedPlanWithoutCloningIt() throws IOException {
+        TestPlan testPlan = new TestPlan("plan");
+        HashTree plan = new ListedHashTree();
+        plan.add(testPlan).add(threadGroup()).add(sampler("/${__P(validatorTest.path,x)}"));
+        PlanCache cache = new PlanCache(file -> plan, 4, 1 << 20);
+        File jmx = jmx();
+        long reuses = JMeterRuntime.getInstance().getStats().getReuseCount();
+
+        PlanReport report = new PlanWatcher(cache, null).validate(jmx.getPath());
+
+        assertFalse(report.hasErrors());
+        assertEquals(reuses, JMeterRuntime.getInstance().getStats().getReuseCount());
+        assertEquals(0, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+        assertTrue(testPlan.getPropertyAsString("TestPlan.user_defined_variables").isEmpty(), "the plan is not changed");
+        cache.get(jmx.getPath());
+        assertEquals(1, cache.getStats().getHits());
+    }
+
+    private PlanReport validate(HashTree plan) throws IOException {
+        return PlanValidator.validate(jmx(), plan, System.currentTimeMillis());
+    }
+
+    private File jmx() throws IOException {
+        File jmx = new File(dir, "plan.jmx");
+        Files.write(jmx.toPath(), "<jmeterTestPlan/>".getBytes(StandardCharsets.UTF_8));
+        return jmx;
+    }
+
+    private File data() throws IOException {
+        File csv = new File(dir, "users.csv");
+        Files.write(csv.toPath(), "alice\nbob\n".getBytes(StandardCharsets.UTF_8));
+        return csv;
+    }
+
+    private static HashTree plan(TestElement... elements) {
+        TestPlan testPlan = new TestPlan("plan");
+        Arguments variables = new Arguments();
+        variables.addArgument("host", "example.com");
+        testPlan.setUserDefinedVariables(variables);
+        HashTree plan = new ListedHashTree();
+        HashTree group = plan.add(testPlan).add(threadGroup());
+        for (TestElement element : elements) {
+            group.add(element);
+        }
+        return plan;
+    }
+
+    private static ThreadGroup threadGroup() {
+        ThreadGroup group = new ThreadGroup();
+        group.setName("Users");
+        group.setSamplerController(new LoopController());
+        return group;
+    }
+
+    private static CSVDataSet csv(File file) {
+        CSVDataSet csv = new CSVDataSet();
+        csv.setName("CSV");
+        csv.setProperty("filename", file.getPath());
+        csv.setProperty("variableNames", "user");
+        return csv;
+    }
+
+    private static HTTPSamplerProxy sampler(String path) {
+        HTTPSamplerProxy sampler = new HTTPSamplerProxy();
+        sampler.setName("Sampler");
+        sampler.setDomain("${host}");
+        sampler.setPath(path);
+        return sampler;
+    }
+
+    private static JSR223Sampler script(String script) {
+        JSR223Sampler sampler = new JSR223Sampler();
+        sampler.setName("Script");
+        sampler.setProperty("scriptLanguage", "groovy");
+        sampler.setProperty("script", script);
+        sampler.setProperty("cacheKey", "true");
+        return sampler;
+    }
+
+    private static void assertOne(List<String> issues, String expected) {
+        assertEquals(Collections.singletonList(expected), issues);
+    }
+}
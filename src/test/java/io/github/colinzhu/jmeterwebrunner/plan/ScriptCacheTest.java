@@ -0,0 +1,157 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.protocol.java.sampler.JSR223Sampler;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testbeans.TestBeanHelper;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.util.JSR223TestElement;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.script.CompiledScript;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptCacheTest {
+    private static final String SCRIPT = "return 'compiled once'";
+
+    @TempDir
+    File dir;
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @AfterEach
+    void clearJMeterCache() throws Exception {
+        jmeterCache().clear();
+    }
+
+    @Test
+    void scriptsAreCompiledOnceForAllRuns() {
+        ScriptCache cache = new ScriptCache(10);
+        HashTree first = plan(sampler(SCRIPT), sampler(SCRIPT), sampler("return 2"));
+
+        ScriptCacheListener listener = cache.prepare(first);
+        ScriptCache.RunStats firstRun = listener.getStats();
+        ScriptCache.RunStats secondRun = cache.prepare(plan(sampler(SCRIPT))).getStats();
+
+        assertEquals(new ScriptCache.RunStats(2, 0, 2, 0, firstRun.getCompileMillis()), firstRun);
+        assertEquals(new ScriptCache.RunStats(1, 1, 0, 0, 0), secondRun);
+        assertEquals(2, cache.getStats().getCompiles());
+        assertEquals(1, cache.getStats().getHits());
+        assertTrue(first.getTree(first.getArray()[0]).list().contains(listener), "added to the test plan");
+    }
+
+    @Test
+    void scriptsLeftToJMeterOrFailingAreNotCached() {
+        ScriptCache cache = new ScriptCache(10);
+        JSR223Sampler notCached = sampler(SCRIPT);
+        notCached.setProperty("cacheKey", "false");
+
+        ScriptCache.RunStats stats = cache.prepare(plan(notCached, sampler("return ("), sampler(""))).getStats();
+
+        assertEquals(new ScriptCache.RunStats(0, 0, 0, 1, 0), stats);
+        assertEquals(0, cache.getStats().getEntries());
+    }
+
+    @Test
+    void leastRecentlyUsedScriptsAreEvictedOverTheBound() {
+        ScriptCache cache = new ScriptCache(2);
+
+        cache.prepare(plan(sampler("return 1"), sampler("return 2")));
+        cache.prepare(plan(sampler("return 1")));
+        cache.prepare(plan(sampler("return 3"))); // evicts return 2, return 1 was used after it
+        ScriptCache.RunStats stats = cache.prepare(plan(sampler("return 1"), sampler("return 2"))).getStats();
+
+        assertEquals(1, stats.getCacheHits());
+        assertEquals(1, stats.getCompiles());
+        assertEquals(new ScriptCache.Stats(2, 4, 2, 2, cache.getStats().getTotalCompileMillis()), cache.getStats());
+    }
+
+    @Test
+    void keysAreTheOnesOfJMeter() throws Exception {
+        File file = new File(dir, "script.groovy");
+        Files.write(file.toPath(), "return 'from a file'".getBytes(StandardCharsets.UTF_8));
+        JSR223Sampler inline = sampler(SCRIPT);
+        JSR223Sampler fromFile = sampler("");
+        fromFile.setProperty("filename", file.getAbsolutePath());
+        ScriptCacheListener listener = new ScriptCache(10).prepare(plan(inline, fromFile));
+        assertEquals(2, listener.getScripts().size());
+
+        listener.testStarted();
+        assertEquals("compiled once", sample(inline).getResponseDataAsString());
+        assertEquals("from a file", sample(fromFile).getResponseDataAsString());
+
+        Map<String, CompiledScript> jmeterCache = jmeterCache();
+        assertEquals(listener.getScripts().keySet(), jmeterCache.keySet(), "JMeter found the scripts by their keys");
+        for (Map.Entry<String, CompiledScript> script : listener.getScripts().entrySet()) {
+            assertSame(script.getValue(), jmeterCache.get(script.getKey()));
+        }
+        listener.testEnded();
+    }
+
+    @Test
+    void endedRunPutsBackTheScriptsOfTheRunsStillRunning() throws Exception {
+        ScriptCache cache = new ScriptCache(10);
+        JSR223Sampler ending = sampler("return 1");
+        ScriptCacheListener endingRun = cache.prepare(plan(ending));
+        ScriptCacheListener running = cache.prepare(plan(sampler("return 2")));
+        endingRun.testStarted();
+        running.testStarted();
+        assertEquals(2, jmeterCache().size());
+
+        ending.testEnded(); // the JSR223 elements clear the map of JMeter before the listener, the last element
+        endingRun.testEnded();
+
+        assertEquals(running.getScripts(), jmeterCache());
+        running.testEnded();
+    }
+
+    private static HashTree plan(JSR223TestElement... elements) {
+        HashTree plan = new ListedHashTree();
+        HashTree children = plan.add(new TestPlan("plan"));
+        for (JSR223TestElement element : elements) {
+            children.add(element);
+        }
+        return plan;
+    }
+
+    private static JSR223Sampler sampler(String script) {
+        JSR223Sampler sampler = new JSR223Sampler();
+        sampler.setName("JSR223 Sampler");
+        sampler.setProperty("scriptLanguage", "groovy");
+        sampler.setProperty("script", script);
+        sampler.setProperty("cacheKey", "true");
+        return sampler;
+    }
+
+    private static SampleResult sample(JSR223Sampler sampler) {
+        TestBeanHelper.prepare(sampler);
+        SampleResult result = sampler.sample(null);
+        assertNotNull(result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, CompiledScript> jmeterCache() throws Exception {
+        Field field = JSR223TestElement.class.getDeclaredField("compiledScriptsCache");
+        field.setAccessible(true);
+        return (Map<String, CompiledScript>) field.get(null);
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.colinzhu.jmeterwebrunner.plan;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRunner;
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.assertions.ResponseAssertion;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.SearchByClass;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingPlanLoaderTest {
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void snapshotFixtureIsLoadedAsBySaveService() throws Exception {
+        File jmx = PlanTrees.fixture("snapshot.jmx");
+
+        assertEquals(PlanTrees.canonical(JMeterRunner.loadJmxAsTestPlan(jmx)),
+                PlanTrees.canonical(new StreamingPlanLoader().load(jmx)));
+    }
+
+    @Test
+    void disabledSubtreesAreLeftOutAsBySaveService() throws Exception {
+        File jmx = PlanTrees.fixture("disabled.jmx");
+
+        HashTree plan = new StreamingPlanLoader().load(jmx);
+
+        assertEquals(PlanTrees.canonical(JMeterRunner.loadJmxAsTestPlan(jmx)), PlanTrees.canonical(plan));
+        String text = PlanTrees.canonical(plan).toString();
+        for (String disabled : new String[]{"disabled group", "disabled transaction", "only child", "disabled assertion",
+                "disabled last element"}) {
+            assertFalse(text.contains(disabled), disabled);
+        }
+        assertTrue(text.contains("X-Old-Name") && text.contains("a & b")
+                && text.contains("throughput:StringProperty=60"), text);
+    }
+
+    @Test
+    void renamedClassIsTheTestClassAsInSaveService() throws Exception {
+        HashTree plan = new StreamingPlanLoader().load(PlanTrees.fixture("disabled.jmx"));
+        SearchByClass<ResponseAssertion> search = new SearchByClass<>(ResponseAssertion.class);
+        plan.traverse(search);
+
+        assertEquals(1, search.getSearchResults().size());
+        ResponseAssertion assertion = search.getSearchResults().iterator().next();
+        assertEquals("assertion of an old version", assertion.getName());
+        // TestElementConverter sets the updated class name over the testclass attribute
+        assertEquals(ResponseAssertion.class.getName(), assertion.getPropertyAsString(TestElement.TEST_CLASS));
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryResultWriterTest {
+    private static final String BIG_MESSAGE = repeat('x', 1536 * 1024);
+
+    @TempDir
+    File dir;
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void varintsRoundTripAtTheirEdges() throws IOException {
+        long[] values = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, 1L << 32, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 5, 5, 9, 10, 10};
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (int i = 0; i < values.length; i++) {
+            int start = buffer.position();
+            BinaryResultFormat.putVarLong(buffer, values[i]);
+            assertEquals(sizes[i], buffer.position() - start, "size of " + values[i]);
+        }
+        buffer.flip();
+        ByteArrayInputStream stream = new ByteArrayInputStream(buffer.array(), 0, buffer.limit());
+        for (long value : values) {
+            assertEquals(value, BinaryResultFormat.readVarLong(buffer));
+            assertEquals(value, BinaryResultFormat.readVarLong(stream));
+        }
+        assertThrows(EOFException.class, () -> BinaryResultFormat.readVarLong(stream));
+
+        for (long value : new long[]{0, -1, 1, -64, 63, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            assertEquals(value, BinaryResultFormat.unZigZag(BinaryResultFormat.zigZag(value)));
+        }
+        assertEquals(1, BinaryResultFormat.zigZag(-1));
+        assertEquals(2, BinaryResultFormat.zigZag(1));
+    }
+
+    @Test
+    void samplesRoundTripThroughTheFile() throws IOException {
+        File file = new File(dir, "results.bin");
+        List<SampleResult> samples = samples();
+        write(file, samples);
+
+        List<BinaryResultReader.Sample> read = new ArrayList<>();
+        try (BinaryResultReader reader = new BinaryResultReader(file)) {
+            BinaryResultReader.Sample sample = new BinaryResultReader.Sample();
+            while (reader.next(sample)) {
+                read.add(sample);
+                sample = new BinaryResultReader.Sample();
+            }
+        }
+
+        assertEquals(samples.size(), read.size());
+        for (int i = 0; i < samples.size(); i++) {
+            SampleResult expected = samples.get(i);
+            BinaryResultReader.Sample actual = read.get(i);
+            assertEquals(expected.getTimeStamp(), actual.getTimeStamp(), "timeStamp of " + i);
+            assertEquals(expected.getTime(), actual.getElapsed(), "elapsed of " + i);
+            assertEquals(expected.getLatency(), actual.getLatency());
+            assertEquals(expected.getConnectTime(), actual.getConnect());
+            assertEquals(expected.getBytesAsLong(), actual.getBytes());
+            assertEquals(expected.getSentBytes(), actual.getSentBytes());
+            assertEquals(expected.getGroupThreads(), actual.getGroupThreads());
+            assertEquals(expected.getAllThreads(), actual.getAllThreads());
+            assertEquals(expected.isSuccessful(), actual.isSuccess());
+            assertEquals(expected.getSampleLabel(), actual.getLabel());
+            assertEquals(expected.getResponseCode(), actual.getResponseCode());
+            assertEquals(expected.getThreadName(), actual.getThreadName());
+            assertEquals(expected.isSuccessful() ? "" : expected.getResponseMessage(), actual.getResponseMessage());
+        }
+        // the dictionary ids follow the order of first appearance
+        assertEquals(0, read.get(0).getLabelId());
+        assertEquals(1, read.get(1).getLabelId());
+        assertEquals(0, read.get(2).getLabelId());
+    }
+
+    @Test
+    void convertWritesCsvAndXml() throws IOException {
+        File file = new File(dir, "results.bin");
+        write(file, samples());
+
+        File csv = new File(dir, "results.csv");
+        assertEquals(5, BinaryResultConverter.convert(file, csv));
+        List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+        assertEquals(6, lines.size());
+        assertEquals(BinaryResultConverter.CSV_HEADER, lines.get(0));
+        assertEquals("1700000000000,120,home,200,,Thread Group 1-1,true,5000000000,300,2,4,100,10", lines.get(1));
+        assertEquals("1700000000050,7,login,500,\"Bad \"\"token\"\", retry\",Thread Group 1-2,false,10,0,2,4,5,0",
+                lines.get(2));
+        assertTrue(lines.get(4).startsWith("1699999999990,1,sparkles ✨ 试,200,"), lines.get(4));
+
+        File xml = new File(dir, "results.xml");
+        assertEquals(5, BinaryResultConverter.convert(file, xml));
+        String content = new String(Files.readAllBytes(xml.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n"));
+        assertTrue(content.endsWith("</testResults>\n"));
+        assertTrue(content.contains("<sample t=\"7\" lt=\"5\" ct=\"0\" ts=\"1700000000050\" s=\"false\" lb=\"login\" "
+                + "rc=\"500\" rm=\"Bad &quot;token&quot;, retry\" tn=\"Thread Group 1-2\" by=\"10\" sby=\"0\" sc=\"1\" "
+                + "ec=\"1\" ng=\"2\" na=\"4\"/>"), content);
+        assertEquals(5, content.split("<sample ").length - 1);
+    }
+
+    @Test
+    void truncatedFileIsReported() throws IOException {
+        File file = new File(dir, "results.bin");
+        write(file, samples());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (BinaryResultReader reader = new BinaryResultReader(file)) {
+            BinaryResultReader.Sample sample = new BinaryResultReader.Sample();
+            assertThrows(EOFException.class, () -> {
+                while (reader.next(sample)) {
+                    assertFalse(sample.getLabel().isEmpty());
+                }
+            });
+        }
+
+        Files.write(file.toPath(), "JWRX\1".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IOException.class, () -> new BinaryResultReader(file).close());
+    }
+
+    private static void write(File file, List<SampleResult> samples) {
+        BinaryResultWriter writer = new BinaryResultWriter(file);
+        writer.testStarted();
+        for (SampleResult sample : samples) {
+            writer.sampleOccurred(new SampleEvent(sample, "Thread Group"));
+        }
+        writer.testEnded();
+    }
+
+    /**
+     * Repeated labels, a failure with a message to escape, a timestamp going back, a record bigger than the write
+     * buffer and non-ASCII strings
+     */
+    private static List<SampleResult> samples() {
+        SampleResult home = sample("home", 1_700_000_000_000L, 120, "Thread Group 1-1");
+        home.setLatency(100);
+        home.setConnectTime(10);
+        home.setBytes(5_000_000_000L);
+        home.setSentBytes(300);
+
+        SampleResult login = sample("login", 1_700_000_000_050L, 7, "Thread Group 1-2");
+        login.setSuccessful(false);
+        login.setResponseCode("500");
+        login.setResponseMessage("Bad \"token\", retry");
+        login.setLatency(5);
+        login.setBytes(10L);
+
+        SampleResult big = sample("home", 1_700_000_000_040L, 3, "Thread Group 1-1");
+        big.setSuccessful(false);
+        big.setResponseCode("500");
+        big.setResponseMessage(BIG_MESSAGE);
+
+        SampleResult unicode = sample("sparkles ✨ 试", 1_699_999_999_990L, 1, "Thread Group 1-1");
+        SampleResult last = sample("login", 1_700_000_001_000L, 2, "Thread Group 1-2");
+        return new ArrayList<>(Arrays.asList(home, login, big, unicode, last));
+    }
+
+    private static SampleResult sample(String label, long timeStamp, long elapsed, String threadName) {
+        SampleResult result = SampleRingBufferTest.sample(label, timeStamp, elapsed);
+        result.setThreadName(threadName);
+        result.setResponseMessage("OK");
+        result.setGroupThreads(2);
+        result.setAllThreads(4);
+        return result;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
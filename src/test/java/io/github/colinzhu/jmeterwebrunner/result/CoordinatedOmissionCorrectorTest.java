@@ -0,0 +1,137 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jmeter.timers.ConstantThroughputTimer;
+import org.apache.jmeter.timers.poissonarrivals.PreciseThroughputTimer;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CoordinatedOmissionCorrectorTest {
+    /** a sample of 10 s is back-filled every expected interval: 10 samples for 1 s */
+    private static final long SLOW_SAMPLE_MILLIS = 10_000;
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @AfterEach
+    void clearContext() {
+        JMeterContextService.getContext().clear();
+    }
+
+    @Test
+    void constantThroughputTimerOfThisThreadOnly() {
+        ThreadGroup group = threadGroup("${__P(coordinatedOmissionTest.users,4)}");
+
+        // 600 samples per minute for each thread: every 100 ms
+        assertEquals(100, correctedSamples(plan(group, throughputTimer(600, 0)), group));
+    }
+
+    @Test
+    void constantThroughputTimerSharedByAllThreads() {
+        ThreadGroup group = threadGroup("${__P(coordinatedOmissionTest.users,4)}");
+        HashTree plan = plan(group, throughputTimer(600, 1));
+        plan.getTree(plan.getArray()[0]).add(threadGroup("6"));
+
+        // 600 samples per minute shared by 10 threads: every second for each thread
+        assertEquals(10, correctedSamples(plan, group));
+    }
+
+    @Test
+    void constantThroughputTimerSharedByTheThreadsOfTheGroup() {
+        ThreadGroup group = threadGroup("4");
+
+        // 600 samples per minute shared by 4 threads: every 400 ms
+        assertEquals(25, correctedSamples(plan(group, throughputTimer(600, 2)), group));
+    }
+
+    @Test
+    void preciseThroughputTimer() {
+        ThreadGroup group = threadGroup("4");
+        PreciseThroughputTimer timer = new PreciseThroughputTimer();
+        timer.setProperty("throughput", "20");
+        timer.setProperty("throughputPeriod", "10");
+
+        // 20 samples per 10 s shared by 4 threads: every 2 s
+        assertEquals(5, correctedSamples(plan(group, timer), group));
+    }
+
+    @Test
+    void timerSharedByUnknownThreadsIsIgnored() {
+        ThreadGroup group = threadGroup("${users}");
+
+        // no pacing, the first sample of a thread is recorded once
+        assertEquals(1, correctedSamples(plan(group, throughputTimer(600, 2)), group));
+    }
+
+    @Test
+    void withoutTimerTheThinkTimeIsTheExpectedInterval() {
+        ThreadGroup group = threadGroup("1");
+        ResultAggregator results = new ResultAggregator();
+        CoordinatedOmissionCorrector corrector = CoordinatedOmissionCorrector.create(plan(group, null), results);
+        JMeterContextService.getContext().setThreadGroup(group);
+
+        corrector.sampleOccurred(sample(1_000, 1_010));
+        // 50 ms after the end of the previous one, the median of the group is not known yet
+        corrector.sampleOccurred(sample(1_060, 1_560));
+
+        LabelStats.Snapshot snapshot = results.snapshot().get(0);
+        assertEquals(1 + 10, snapshot.getCorrectedCount(), "500 ms back-filled every 50 ms");
+        assertEquals(500, snapshot.getCorrectedMax());
+    }
+
+    private static long correctedSamples(HashTree plan, AbstractThreadGroup group) {
+        ResultAggregator results = new ResultAggregator();
+        CoordinatedOmissionCorrector corrector = CoordinatedOmissionCorrector.create(plan, results);
+        JMeterContextService.getContext().setThreadGroup(group);
+
+        corrector.sampleOccurred(sample(1_000, 1_000 + SLOW_SAMPLE_MILLIS));
+
+        return results.snapshot().get(0).getCorrectedCount();
+    }
+
+    private static HashTree plan(ThreadGroup group, TestElement timer) {
+        HashTree plan = new ListedHashTree();
+        HashTree groupTree = plan.add(new TestPlan("plan")).add(group);
+        if (timer != null) {
+            groupTree.add(timer);
+        }
+        return plan;
+    }
+
+    private static ThreadGroup threadGroup(String threads) {
+        ThreadGroup group = new ThreadGroup();
+        group.setName("Users");
+        group.setProperty(AbstractThreadGroup.NUM_THREADS, threads);
+        group.setSamplerController(new LoopController());
+        return group;
+    }
+
+    private static ConstantThroughputTimer throughputTimer(double perMinute, int calcMode) {
+        ConstantThroughputTimer timer = new ConstantThroughputTimer();
+        timer.setProperty("throughput", String.valueOf(perMinute));
+        timer.setProperty("calcMode", String.valueOf(calcMode));
+        return timer;
+    }
+
+    private static SampleEvent sample(long start, long end) {
+        SampleResult result = SampleResult.createTestSample(start, end);
+        result.setSampleLabel("request");
+        result.setSuccessful(true);
+        return new SampleEvent(result, "Users");
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultAggregatorTest {
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void snapshotHasTheLabelsSortedAndTheTotal() {
+        ResultAggregator results = new ResultAggregator();
+        for (int millis = 1; millis <= 100; millis++) {
+            sample(results, "b", millis, millis % 50 != 0);
+        }
+        sample(results, "a", 1000, true);
+
+        List<LabelStats.Snapshot> snapshots = results.snapshot();
+
+        assertEquals(3, snapshots.size());
+        assertEquals("a", snapshots.get(0).getLabel());
+        LabelStats.Snapshot b = snapshots.get(1);
+        assertEquals(100, b.getCount());
+        assertEquals(2, b.getErrors());
+        assertEquals(0.02, b.getErrorRate());
+        assertEquals(1500, b.getBytes());
+        assertEquals(1, b.getMin());
+        assertEquals(50, b.getP50());
+        assertEquals(99, b.getP99());
+        assertEquals(100, b.getMax());
+        assertEquals(50.5, b.getMean());
+        assertEquals(0, b.getCorrectedCount());
+        LabelStats.Snapshot total = snapshots.get(2);
+        assertEquals(ResultAggregator.TOTAL, total.getLabel());
+        assertEquals(101, total.getCount());
+        assertEquals(1000, total.getMax());
+    }
+
+    @Test
+    void tickHasOnlyTheSamplesSinceThePreviousTick() {
+        ResultAggregator results = new ResultAggregator();
+        for (int i = 0; i < 10; i++) {
+            sample(results, "a", 20, true);
+        }
+        MetricsTick first = results.tick();
+        sample(results, "b", 40, false);
+        MetricsTick second = results.tick();
+        MetricsTick third = results.tick();
+
+        assertEquals(10, first.getTotal().getCount());
+        assertEquals(1, first.getLabels().size());
+        assertEquals(1, second.getLabels().size());
+        assertEquals("b", second.getLabels().get(0).getLabel());
+        assertEquals(1, second.getTotal().getErrors());
+        assertEquals(40.0, second.getTotal().getMean());
+        assertEquals(0, third.getTotal().getCount());
+        assertEquals(0.0, third.getTotal().getMean());
+        assertTrue(third.getLabels().isEmpty());
+    }
+
+    @Test
+    void mergedDeltasAddUpToTheWorkerStats() {
+        ResultAggregator worker = new ResultAggregator();
+        ResultAggregator coordinator = new ResultAggregator();
+        // recorded before the first delta, the first delta starts from everything recorded so far
+        sample(worker, "a", 10, true);
+        merge(worker.deltas(), coordinator);
+        sample(worker, "a", 30, false);
+        sample(worker, "b", 200, true);
+        merge(worker.deltas(), coordinator);
+
+        assertTrue(worker.deltas().isEmpty());
+        assertEquals(worker.snapshot(), coordinator.snapshot());
+        assertEquals(3, coordinator.snapshot().get(2).getCount());
+        assertEquals(2, coordinator.tick().getLabels().size(), "the merged samples are in the next tick");
+    }
+
+    @Test
+    void correctedHistogramsAreOnlySentWhenUsed() {
+        ResultAggregator worker = new ResultAggregator();
+        ResultAggregator coordinator = new ResultAggregator();
+        sample(worker, "a", 10, true);
+        List<LabelStats.Delta> plain = worker.deltas();
+
+        assertNull(plain.get(0).getCorrected());
+
+        merge(plain, coordinator);
+        worker.recordCorrected("a", 100, 10);
+        List<LabelStats.Delta> corrected = worker.deltas();
+        merge(corrected, coordinator);
+
+        assertEquals(1, corrected.size(), "a delta of corrected latencies only is not empty");
+        assertNotNull(corrected.get(0).getCorrected());
+        LabelStats.Snapshot a = coordinator.snapshot().get(0);
+        assertEquals(1, a.getCount());
+        assertEquals(10, a.getCorrectedCount(), "100 ms back-filled every 10 ms");
+        assertEquals(100, a.getCorrectedMax());
+        assertEquals(10, coordinator.snapshot().get(1).getCorrectedCount());
+        assertEquals(worker.snapshot(), coordinator.snapshot());
+    }
+
+    private static void merge(List<LabelStats.Delta> deltas, ResultAggregator into) {
+        deltas.forEach(into::merge);
+    }
+
+    private static void sample(ResultAggregator results, String label, long millis, boolean successful) {
+        SampleResult result = SampleResult.createTestSample(millis);
+        result.setSampleLabel(label);
+        result.setSuccessful(successful);
+        result.setBytes(10L);
+        result.setSentBytes(5);
+        results.sampleOccurred(new SampleEvent(result, "group"));
+    }
+}
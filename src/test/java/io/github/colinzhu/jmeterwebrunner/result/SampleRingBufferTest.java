@@ -0,0 +1,156 @@
+package io.github.colinzhu.jmeterwebrunner.result;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SampleRingBufferTest {
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void slotsAreReusedInOrderAcrossTheWrapAround() {
+        SampleRingBuffer ring = new SampleRingBuffer(4);
+        List<String> read = new ArrayList<>();
+
+        publish(ring, 0, 3);
+        assertEquals(3, ring.drain(slot -> read.add(slot.label), 10));
+        publish(ring, 3, 4);
+        assertEquals(2, ring.drain(slot -> read.add(slot.label), 2));
+        publish(ring, 7, 2);
+        assertEquals(4, ring.drain(slot -> read.add(slot.label), 10));
+
+        assertEquals(Arrays.asList("s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8"), read);
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.drain(slot -> read.add(slot.label), 10));
+        assertEquals(0, ring.getFullWaits());
+    }
+
+    @Test
+    void slotCopiesTheSavedFields() {
+        SampleRingBuffer ring = new SampleRingBuffer(2);
+        SampleResult failed = sample("login", 1_000_000L, 250);
+        failed.setSuccessful(false);
+        failed.setResponseCode("500");
+        failed.setResponseMessage("Internal Server Error");
+        failed.setLatency(200);
+        failed.setConnectTime(20);
+        failed.setBytes(1234L);
+        failed.setSentBytes(56);
+        failed.setAllThreads(10);
+        failed.setGroupThreads(5);
+        ring.publish(failed);
+        SampleResult ok = sample("home", 1_000_100L, 5);
+        ok.setResponseMessage("OK");
+        ring.publish(ok);
+
+        List<SampleRingBuffer.Slot> slots = new ArrayList<>();
+        ring.drain(slot -> {
+            if (slots.isEmpty()) {
+                assertEquals("login", slot.label);
+                assertEquals(1_000_000L, slot.timeStamp);
+                assertEquals(250, slot.elapsed);
+                assertEquals(200, slot.latency);
+                assertEquals(20, slot.connect);
+                assertEquals(1234, slot.bytes);
+                assertEquals(56, slot.sentBytes);
+                assertEquals(5, slot.groupThreads);
+                assertEquals(10, slot.allThreads);
+                assertFalse(slot.success);
+                assertEquals("500", slot.responseCode);
+                assertEquals("Internal Server Error", slot.responseMessage);
+            } else {
+                assertTrue(slot.success);
+                assertNull(slot.responseMessage, "the message of a successful sample is not saved");
+            }
+            slots.add(slot);
+        }, 10);
+        assertEquals(2, slots.size());
+    }
+
+    @Test
+    void publisherWaitsForTheWriterWhenFull() throws InterruptedException {
+        SampleRingBuffer ring = new SampleRingBuffer(2);
+        publish(ring, 0, 2);
+        Thread publisher = new Thread(() -> publish(ring, 2, 1));
+        publisher.start();
+        publisher.join(100);
+        assertTrue(publisher.isAlive(), "the third sample must wait for a free slot");
+        assertTrue(ring.getFullWaits() > 0);
+
+        List<String> read = new ArrayList<>();
+        ring.drain(slot -> read.add(slot.label), 1);
+        publisher.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(publisher.isAlive());
+        ring.drain(slot -> read.add(slot.label), 10);
+        assertEquals(Arrays.asList("s0", "s1", "s2"), read);
+    }
+
+    @Test
+    void concurrentPublishersLoseNothing() throws InterruptedException {
+        int publishers = 4;
+        int perPublisher = 20_000;
+        SampleRingBuffer ring = new SampleRingBuffer(16);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            String name = "publisher-" + p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perPublisher; i++) {
+                    SampleResult result = sample("s", i, 1);
+                    result.setThreadName(name);
+                    ring.publish(result);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long[] next = new long[publishers];
+        int total = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (total < publishers * perPublisher && System.nanoTime() < deadline) {
+            total += ring.drain(slot -> {
+                int p = slot.threadName.charAt(slot.threadName.length() - 1) - '0';
+                assertEquals(next[p]++, slot.timeStamp, "the samples of one thread are read in order");
+            }, 1000);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(publishers * perPublisher, total);
+        for (long count : next) {
+            assertEquals(perPublisher, count);
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    private static void publish(SampleRingBuffer ring, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            ring.publish(sample("s" + i, i, 1));
+        }
+    }
+
+    static SampleResult sample(String label, long timeStamp, long elapsed) {
+        SampleResult result = new SampleResult(timeStamp, elapsed);
+        result.setSampleLabel(label);
+        result.setSuccessful(true);
+        result.setResponseCode("200");
+        result.setThreadName("Thread Group 1-1");
+        return result;
+    }
+}
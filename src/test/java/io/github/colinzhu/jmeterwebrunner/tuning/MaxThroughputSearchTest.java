@@ -0,0 +1,151 @@
+package io.github.colinzhu.jmeterwebrunner.tuning;
+
+import io.github.colinzhu.jmeterwebrunner.JMeterRuntime;
+import io.github.colinzhu.jmeterwebrunner.result.ResultAggregator;
+import io.github.colinzhu.jmeterwebrunner.run.RunOptions;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.testelement.TestPlan;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MaxThroughputSearchTest {
+
+    @BeforeAll
+    static void initJMeter() {
+        JMeterRuntime.getInstance().ensureInitialized();
+    }
+
+    @Test
+    void searchGoesOnWhileTheThroughputGrows() {
+        MaxThroughputSearch search = search();
+
+        assertNull(search.addStage(stage(1, 100, null)));
+        assertNull(search.addStage(stage(2, 180, null)));
+        assertNull(search.addStage(stage(3, 190, null))); // +5.6%
+    }
+
+    @Test
+    void searchStopsAtThePlateau() {
+        MaxThroughputSearch search = search();
+        search.addStage(stage(1, 100, null));
+        search.addStage(stage(2, 180, null));
+
+        String stop = search.addStage(stage(3, 188, null)); // +4.4%
+
+        assertTrue(stop.startsWith("the throughput has plateaued at stage 3"), stop);
+        assertEquals(2, search.getBest().getStage());
+    }
+
+    @Test
+    void searchStopsWhenTheSlaIsBroken() {
+        MaxThroughputSearch search = search();
+        search.addStage(stage(1, 100, null));
+
+        assertEquals("the SLA is broken at stage 2: p99 450 ms", search.addStage(stage(2, 300, "p99 450 ms")));
+        assertEquals(1, search.getBest().getStage());
+    }
+
+    @Test
+    void searchByRateStopsWhenTheRateIsNotReached() {
+        MaxThroughputSearch search = search("findMaxStep=100/s");
+
+        assertNull(search.addStage(stage(1, 95, null)));
+        String stop = search.addStage(stage(2, 179, null));
+
+        assertTrue(stop.startsWith("stage 2 reached only 179.0 of 200.0/s"), stop);
+    }
+
+    @Test
+    void bestIsTheLowestLoadNearTheHighestThroughput() {
+        MaxThroughputSearch search = search();
+        search.addStage(stage(1, 100, null));
+        search.addStage(stage(2, 196, null));
+        search.addStage(stage(3, 200, null));
+        search.addStage(stage(4, 250, "errors 3.00%"));
+
+        // stage 2 is within 5% of stage 3, the broken stage 4 doesn't count
+        assertEquals(2, search.getBest().getStage());
+    }
+
+    @Test
+    void noBestWhenNoStageMetTheSla() {
+        MaxThroughputSearch search = search();
+        search.addStage(stage(1, 100, "p99 450 ms"));
+
+        assertNull(search.getBest());
+    }
+
+    @Test
+    void propertyThreadCountIsTheStep() {
+        MaxThroughputSearch search = search();
+        HashTree plan = plan("${__P(maxThroughputSearchTest.users,10)}");
+
+        search.prepare(plan, 0);
+
+        UserStepTimer timer = userStepTimer(plan);
+        assertEquals(10, timer.usersAt(1));
+        assertEquals(20, timer.usersAt(2));
+    }
+
+    @Test
+    void explicitStepIsAddedToThePlanUsers() {
+        MaxThroughputSearch search = search("findMaxStep=5");
+        HashTree plan = plan("${__P(maxThroughputSearchTest.users,10)}");
+
+        search.prepare(plan, 0);
+
+        assertEquals(20, userStepTimer(plan).usersAt(3));
+    }
+
+    @Test
+    void groupWithoutUsersNeedsAStep() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> search().prepare(plan("0"), 0));
+
+        assertTrue(e.getMessage().contains(RunOptions.FIND_MAX_STEP), e.getMessage());
+        assertEquals(5, userStepTimerOf(search("findMaxStep=5"), plan("0")).usersAt(2));
+    }
+
+    private static MaxThroughputSearch search(String... options) {
+        String[] args = new String[options.length + 2];
+        args[0] = "test.jmx";
+        args[1] = RunOptions.FIND_MAX + "=p99<300ms";
+        System.arraycopy(options, 0, args, 2, options.length);
+        return MaxThroughputSearch.create(RunOptions.parse(args), new ResultAggregator());
+    }
+
+    private static LoadStage stage(int stage, double throughput, String violation) {
+        return new LoadStage(stage, stage * 100, stage * 10, throughput, 10, 100, 0, violation);
+    }
+
+    private static HashTree plan(String users) {
+        ThreadGroup group = new ThreadGroup();
+        group.setName("Users");
+        group.setProperty(AbstractThreadGroup.NUM_THREADS, users);
+        group.setSamplerController(new LoopController());
+        HashTree plan = new ListedHashTree();
+        plan.add(new TestPlan("plan")).add(group);
+        return plan;
+    }
+
+    private static UserStepTimer userStepTimerOf(MaxThroughputSearch search, HashTree plan) {
+        search.prepare(plan, 0);
+        return userStepTimer(plan);
+    }
+
+    private static UserStepTimer userStepTimer(HashTree plan) {
+        Object timer = plan.getTree(plan.getArray()[0]).getArray()[1];
+        assertSame(UserStepTimer.class, timer.getClass());
+        return (UserStepTimer) timer;
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.colinzhu.jmeterwebrunner.tuning;
+
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SlaTest {
+
+    @Test
+    void percentileConditionsUseTheirUnits() {
+        Histogram elapsed = histogram(100, 990, 1200, 10);
+
+        assertNull(Sla.parse("p99 < 1201").check(elapsed, 0));
+        assertNull(Sla.parse("P99.9<2s").check(elapsed, 0));
+        assertEquals("p99 1200 ms", Sla.parse("p99<1200ms").check(elapsed, 0));
+        assertEquals("p99 1200 ms", Sla.parse("p99<1s").check(elapsed, 0));
+        assertNull(Sla.parse("p50<1s").check(elapsed, 0));
+        assertEquals("p50 990 ms", Sla.parse("p50<990").check(elapsed, 0));
+    }
+
+    @Test
+    void meanAndErrorConditions() {
+        Histogram elapsed = histogram(100, 200, 300, 50); // mean 200 ms
+
+        assertNull(Sla.parse("mean<201ms").check(elapsed, 0));
+        assertEquals("mean 200.0 ms", Sla.parse("mean<200").check(elapsed, 0));
+        assertNull(Sla.parse("errors<1%").check(elapsed, 0.0099));
+        assertEquals("errors 1.00%", Sla.parse("errors<1%").check(elapsed, 0.01));
+        assertEquals("errors 5.00%", Sla.parse("errors<0.05").check(elapsed, 0.05));
+    }
+
+    @Test
+    void allBrokenConditionsAreReported() {
+        Sla sla = Sla.parse(" p99<300ms, errors<1% ");
+
+        assertEquals("p99<300ms, errors<1%", sla.toString());
+        assertEquals("p99 990 ms, errors 2.00%", sla.check(histogram(100, 990, 990, 10), 0.02));
+    }
+
+    @Test
+    void invalidConditionsAreRejected() {
+        for (String sla : new String[]{"p99>300", "p99", "latency<300", "p0<300", "p101<300", "p99<300<400", ""}) {
+            assertThrows(IllegalArgumentException.class, () -> Sla.parse(sla), sla);
+        }
+    }
+
+    /**
+     * @return 100 samples: count samples of the given value, the others half low and half high
+     */
+    private static Histogram histogram(long low, long value, long high, int count) {
+        Histogram histogram = new Histogram(1, TimeUnit.HOURS.toMillis(1), 3);
+        histogram.recordValueWithCount(low, (100 - count) / 2);
+        histogram.recordValueWithCount(value, count);
+        histogram.recordValueWithCount(high, 100 - count - (100 - count) / 2);
+        return histogram;
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.run.RunStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsoleFrameTest {
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    @Test
+    void constantsMatchThePage() throws IOException {
+        String page = page();
+
+        assertEquals(ConsoleFrame.VERSION, constant(page, "PROTOCOL_VERSION"));
+        assertEquals(ConsoleFrame.LOG, constant(page, "CHANNEL_LOG"));
+        assertEquals(ConsoleFrame.METRICS, constant(page, "CHANNEL_METRICS"));
+        assertEquals(ConsoleFrame.PLAN, constant(page, "CHANNEL_PLAN"));
+        assertEquals(ConsoleFrame.FLAG_DEFLATE, constant(page, "FLAG_DEFLATE"));
+
+        Matcher statuses = Pattern.compile("const RUN_STATUS = \\[([^]]*)]").matcher(page);
+        assertTrue(statuses.find());
+        List<String> expected = Arrays.stream(RunStatus.values()).map(status -> '"' + status.name() + '"')
+                .collect(Collectors.toList());
+        assertEquals(expected, Arrays.asList(statuses.group(1).split(",\\s*")));
+        assertEquals(expected.stream().map(status -> status.replace("\"", "")).collect(Collectors.toList()),
+                Arrays.asList(FrameReader.RUN_STATUS));
+    }
+
+    @Test
+    void headerHasTheRunIdUpToTheLargestSafeInteger() throws DataFormatException {
+        long[] runIds = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, 1L << 32, MAX_SAFE_INTEGER};
+        for (long runId : runIds) {
+            ConsoleFrame frame = new ConsoleFrame(ConsoleFrame.METRICS, runId, 0, 4);
+            try {
+                FrameReader.Header header = FrameReader.readFrame(frame.buffer().getBytes());
+                assertEquals(ConsoleFrame.VERSION, header.version);
+                assertEquals(ConsoleFrame.METRICS, header.channel);
+                assertEquals(0, header.flags);
+                assertEquals(runId, header.run, "run id " + runId);
+                assertTrue(header.payload.atEnd());
+                assertEquals(0, frame.getPayloadBytes());
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    @Test
+    void varintsDecodeAsThePageDecodesThem() throws DataFormatException {
+        long[] values = {0, 1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, Integer.MAX_VALUE, 1L << 31,
+                1L << 32, 1L << 49, MAX_SAFE_INTEGER, 1L << 53};
+        long[] signedValues = {0, -1, 1, -64, 63, -65, 64, Integer.MIN_VALUE, Integer.MAX_VALUE, -(1L << 40),
+                -(1L << 52), (1L << 52) - 1};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 3, 4, 5, 5, 5, 8, 8, 8};
+        ConsoleFrame frame = new ConsoleFrame(ConsoleFrame.METRICS, 7, 0, 16);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                int before = frame.getPayloadBytes();
+                frame.writeVarint(values[i]);
+                assertEquals(sizes[i], frame.getPayloadBytes() - before, "size of " + values[i]);
+            }
+            for (long value : signedValues) {
+                frame.writeSigned(value);
+            }
+            frame.writeByte(0xFF).writeString("").writeString(null).writeString("héllo wörld ✓ 🚀");
+
+            FrameReader reader = FrameReader.readFrame(frame.buffer().getBytes()).payload;
+            for (long value : values) {
+                assertEquals(value, reader.varint(), "varint " + value);
+            }
+            for (long value : signedValues) {
+                assertEquals(value, reader.signed(), "signed " + value);
+            }
+            assertEquals(0xFF, reader.readByte());
+            assertEquals("", reader.string());
+            assertEquals("", reader.string());
+            assertEquals("héllo wörld ✓ 🚀", reader.string());
+            assertTrue(reader.atEnd());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    void textFrameIsTheUtf8Payload() throws DataFormatException {
+        String json = "{\"plan\":\"tëst.jmx\",\"errors\":[\"资源\"]}";
+        ConsoleFrame frame = ConsoleFrame.text(ConsoleFrame.PLAN, 3, json);
+        try {
+            FrameReader.Header header = FrameReader.readFrame(frame.buffer().getBytes());
+            assertEquals(ConsoleFrame.PLAN, header.channel);
+            assertEquals(3, header.run);
+            assertEquals(json, new String(header.payload.rest(), StandardCharsets.UTF_8));
+            assertEquals(json.getBytes(StandardCharsets.UTF_8).length, frame.getPayloadBytes());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    void logFrameRoundTrips() throws DataFormatException {
+        List<String> lines = Arrays.asList("first line", "", "second ✓ line", "third");
+        List<String> runs = Arrays.asList("12", null, "not a run", String.valueOf(MAX_SAFE_INTEGER));
+        ConsoleFrame frame = LogBatcher.encode(lines, runs, 300);
+        try {
+            FrameReader.Header header = FrameReader.readFrame(frame.buffer().getBytes());
+            assertEquals(ConsoleFrame.LOG, header.channel);
+            assertEquals(0, header.run);
+            FrameReader.Log log = FrameReader.readLog(header.payload);
+            assertTrue(header.payload.atEnd());
+            assertEquals(300, log.dropped);
+            assertEquals(lines, log.lines);
+            assertEquals(Arrays.asList(12.0, 0.0, 0.0, (double) MAX_SAFE_INTEGER), log.runs);
+            assertEquals(lines.size(), frame.getLines());
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    void deflatedFrameInflatesToTheSamePayload() throws DataFormatException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add("2026-10-17 12:00:00,000 INFO  Thread Group 1-" + (i % 10) + " sample " + i + " took 12 ms");
+        }
+        ConsoleFrame plain = LogBatcher.encode(lines, 0);
+        int plainBytes = plain.getPayloadBytes();
+        ConsoleFrame frame = plain.deflate(new Deflater(Deflater.BEST_SPEED));
+        try {
+            assertNotSame(plain, frame);
+            assertTrue(frame.getPayloadBytes() < plainBytes / 4, frame.getPayloadBytes() + " of " + plainBytes);
+            assertEquals(lines.size(), frame.getLines());
+            FrameReader.Header header = FrameReader.readFrame(frame.buffer().getBytes());
+            assertEquals(ConsoleFrame.FLAG_DEFLATE, header.flags);
+            assertEquals(ConsoleFrame.LOG, header.channel);
+            FrameReader.Log log = FrameReader.readLog(header.payload);
+            assertTrue(header.payload.atEnd());
+            assertEquals(lines, log.lines);
+            assertEquals(Collections.nCopies(lines.size(), 0.0), log.runs);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    void frameWhichDoesNotShrinkIsNotDeflated() throws DataFormatException {
+        ConsoleFrame plain = LogBatcher.encode(Collections.singletonList("x"), 0);
+        byte[] bytes = plain.buffer().getBytes();
+        ConsoleFrame frame = plain.deflate(new Deflater());
+        try {
+            assertSame(plain, frame);
+            assertArrayEquals(bytes, frame.buffer().getBytes());
+            assertEquals(0, FrameReader.readFrame(bytes).flags);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static String page() throws IOException {
+        try (InputStream in = ConsoleFrameTest.class.getResourceAsStream("/web/index.html")) {
+            if (in == null) {
+                throw new IOException("Missing /web/index.html");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int length; (length = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int constant(String page, String name) {
+        Matcher matcher = Pattern.compile("\\b" + name + " = (\\d+)").matcher(page);
+        assertTrue(matcher.find(), name);
+        return Integer.parseInt(matcher.group(1));
+    }
+}
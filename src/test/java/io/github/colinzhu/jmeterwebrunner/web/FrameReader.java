@@ -0,0 +1,200 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A port of the frame decoder of index.html, statement by statement, so that the tests decode the frames the way the
+ * browsers do: the varints are summed as doubles like the JS numbers, and the metrics state of a run is kept between
+ * frames.
+ */
+class FrameReader {
+    static final String[] RUN_STATUS = {"QUEUED", "RUNNING", "COMPLETED", "STOPPED", "FAILED", "CANCELLED"};
+
+    private final byte[] bytes;
+    private int pos;
+
+    FrameReader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    int readByte() {
+        return bytes[pos++] & 0xFF;
+    }
+
+    double varint() {
+        double value = 0;
+        double scale = 1;
+        int b;
+        do {
+            b = bytes[pos++] & 0xFF;
+            value += (b & 0x7F) * scale;
+            scale *= 128;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    double signed() {
+        double value = varint();
+        return value % 2 != 0 ? -(value + 1) / 2 : value / 2;
+    }
+
+    String string() {
+        int length = (int) varint();
+        String text = new String(bytes, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return text;
+    }
+
+    byte[] rest() {
+        return Arrays.copyOfRange(bytes, pos, bytes.length);
+    }
+
+    boolean atEnd() {
+        return pos == bytes.length;
+    }
+
+    static class Header {
+        int version;
+        int channel;
+        int flags;
+        double run;
+        FrameReader payload;
+    }
+
+    static class Log {
+        double dropped;
+        List<Double> runs = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+    }
+
+    static class Metrics {
+        double run;
+        String status;
+        double[] totals;
+        /** label name -> throughput (x100), errors, p95 and p99 */
+        Map<String, double[]> labels = new LinkedHashMap<>();
+        /** cpu, system cpu, gc, allocation (all x100), threads and lag, or null */
+        double[] generator;
+        String saturation;
+    }
+
+    private static class MetricsState {
+        double sequence;
+        Map<Double, String> labels = new HashMap<>();
+        double[] totals = new double[6];
+        Map<Double, double[]> labelValues = new HashMap<>();
+    }
+
+    /** run id -> the metrics state, like metricsState of the page */
+    private final Map<Double, MetricsState> metricsState = new HashMap<>();
+
+    /**
+     * @return the header of the frame, and its payload inflated if needed
+     */
+    static Header readFrame(byte[] data) throws DataFormatException {
+        FrameReader header = new FrameReader(data);
+        Header frame = new Header();
+        frame.version = header.readByte();
+        frame.channel = header.readByte();
+        frame.flags = header.readByte();
+        frame.run = header.varint();
+        byte[] payload = header.rest();
+        if ((frame.flags & ConsoleFrame.FLAG_DEFLATE) != 0) {
+            payload = inflate(payload);
+        }
+        frame.payload = new FrameReader(payload);
+        return frame;
+    }
+
+    static Log readLog(FrameReader reader) {
+        Log log = new Log();
+        log.dropped = reader.varint();
+        double count = reader.varint();
+        for (int i = 0; i < count; i++) {
+            log.runs.add(reader.varint());
+            log.lines.add(reader.string());
+        }
+        return log;
+    }
+
+    /**
+     * @return the metrics, or null if the previous frame is missing
+     */
+    Metrics readMetrics(double run, FrameReader reader) {
+        double sequence = reader.varint();
+        boolean key = reader.readByte() == 1;
+        String status = RUN_STATUS[reader.readByte()];
+        MetricsState state = metricsState.get(run);
+        if (key || state == null || state.sequence != sequence - 1) {
+            if (!key) {
+                return null;
+            }
+            state = new MetricsState();
+            metricsState.put(run, state);
+        }
+        state.sequence = sequence;
+        for (double i = reader.varint(); i > 0; i--) {
+            double id = reader.varint();
+            state.labels.put(id, reader.string());
+        }
+        Metrics metrics = new Metrics();
+        metrics.run = run;
+        metrics.status = status;
+        metrics.totals = new double[6];
+        for (int i = 0; i < metrics.totals.length; i++) {
+            metrics.totals[i] = (key ? 0 : state.totals[i]) + reader.signed();
+        }
+        Map<Double, double[]> labelValues = new HashMap<>();
+        for (double i = reader.varint(); i > 0; i--) {
+            double id = reader.varint();
+            double[] previous = key ? null : state.labelValues.get(id);
+            double[] values = new double[4];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = (previous != null ? previous[j] : 0) + reader.signed();
+            }
+            labelValues.put(id, values);
+            metrics.labels.put(state.labels.get(id), values);
+        }
+        state.totals = metrics.totals;
+        state.labelValues = labelValues;
+        if (reader.readByte() == 1) {
+            metrics.generator = new double[6];
+            for (int i = 0; i < metrics.generator.length; i++) {
+                metrics.generator[i] = reader.signed();
+            }
+            metrics.saturation = reader.string();
+        }
+        if (!"RUNNING".equals(status)) {
+            metricsState.remove(run);
+        }
+        return metrics;
+    }
+
+    private static byte[] inflate(byte[] payload) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(chunk);
+                if (length == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated deflate payload");
+                }
+                out.write(chunk, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
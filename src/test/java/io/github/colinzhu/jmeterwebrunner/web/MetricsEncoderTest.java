@@ -0,0 +1,165 @@
+package io.github.colinzhu.jmeterwebrunner.web;
+
+import io.github.colinzhu.jmeterwebrunner.monitor.GeneratorSample;
+import io.github.colinzhu.jmeterwebrunner.result.LabelStats;
+import io.github.colinzhu.jmeterwebrunner.result.MetricsTick;
+import io.github.colinzhu.jmeterwebrunner.run.RunStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsEncoderTest {
+    private static final long RUN_ID = 42;
+
+    private final List<ConsoleFrame> frames = new ArrayList<>();
+
+    @AfterEach
+    void releaseFrames() {
+        frames.forEach(ConsoleFrame::releaseAll);
+    }
+
+    @Test
+    void deltaFramesDecodeToTheTicks() throws DataFormatException {
+        MetricsEncoder encoder = new MetricsEncoder(RUN_ID);
+        MetricsTick[] ticks = {
+                tick(1000, 2.0, 10, label("login", 40, 1, 120, 300), label("search", 160, 0, 80, 95)),
+                tick(2000, 1.0, 12, label("search", 150, 4, 70, 2000), label("checkout ✓", 5, 5, 900, 900)),
+                tick(3000, 1.0, 3),
+                tick(4000, 1.0, 0, label("login", 1, 0, 5, 5))};
+        GeneratorSample[] generators = {
+                generator(35.5, 60.25, 1.5, 812.75, 140, 3, ""),
+                generator(99.0, -1, 12.0, 0, 150, 250, "CPU 99% > 90%"),
+                null,
+                generator(0.5, 10, 0, 1.01, 20, 0, "")};
+        RunStatus[] statuses = {RunStatus.RUNNING, RunStatus.RUNNING, RunStatus.RUNNING, RunStatus.COMPLETED};
+
+        FrameReader page = new FrameReader(new byte[0]);
+        for (int i = 0; i < ticks.length; i++) {
+            ConsoleFrame delta = encode(encoder, statuses[i], ticks[i], generators[i]);
+            assertEquals(i + 1, delta.getSequence());
+            assertNotNull(delta.getKeyFrame());
+
+            // the first frame of a run is sent as its key frame, then the delta frames
+            FrameReader.Metrics metrics = read(page, i == 0 ? delta.getKeyFrame() : delta);
+            assertMetrics(statuses[i], ticks[i], generators[i], metrics);
+            // a browser which has just connected gets the key frame
+            assertMetrics(statuses[i], ticks[i], generators[i], read(new FrameReader(new byte[0]), delta.getKeyFrame()));
+        }
+    }
+
+    @Test
+    void deltaFrameAfterAMissedFrameIsSkipped() throws DataFormatException {
+        MetricsEncoder encoder = new MetricsEncoder(RUN_ID);
+        FrameReader page = new FrameReader(new byte[0]);
+        ConsoleFrame first = encode(encoder, RunStatus.RUNNING, tick(1000, 1, 1, label("a", 10, 0, 5, 6)), null);
+        encode(encoder, RunStatus.RUNNING, tick(2000, 1, 2, label("b", 20, 0, 7, 8)), null);
+        ConsoleFrame third = encode(encoder, RunStatus.RUNNING, tick(3000, 1, 3, label("a", 5, 1, 4, 9)), null);
+
+        assertNull(read(page, first), "a delta frame without a previous frame");
+        assertNotNull(read(page, first.getKeyFrame()));
+        assertNull(read(page, third), "the second frame is missing");
+        FrameReader.Metrics metrics = read(page, third.getKeyFrame());
+        assertMetrics(RunStatus.RUNNING, tick(3000, 1, 3, label("a", 5, 1, 4, 9)), null, metrics);
+    }
+
+    @Test
+    void deltaValuesAreSmall() {
+        MetricsEncoder encoder = new MetricsEncoder(RUN_ID);
+        GeneratorSample generator = generator(40, 50, 1, 100, 150, 2, "");
+        encode(encoder, RunStatus.RUNNING, tick(1_700_000_000_000L, 1, 500, label("a", 9000, 10, 250, 900)), generator);
+        ConsoleFrame delta = encode(encoder, RunStatus.RUNNING,
+                tick(1_700_000_001_000L, 1, 501, label("a", 9010, 9, 251, 899)), generator);
+
+        // sequence, kind, status and no new label, the totals (time and throughput +1000 in 2 bytes each), the label
+        // count, the label (id, throughput +1000 in 2 bytes), then the generator which is not a delta
+        assertTrue(delta.getPayloadBytes() < delta.getKeyFrame().getPayloadBytes());
+        assertEquals(4 + (2 + 2 + 1 + 1 + 1 + 1) + 1 + (1 + 2 + 1 + 1 + 1) + (1 + 2 + 2 + 2 + 3 + 2 + 1 + 1),
+                delta.getPayloadBytes());
+    }
+
+    private ConsoleFrame encode(MetricsEncoder encoder, RunStatus status, MetricsTick tick, GeneratorSample generator) {
+        ConsoleFrame frame = encoder.encode(status, tick, generator);
+        frames.add(frame);
+        return frame;
+    }
+
+    private static FrameReader.Metrics read(FrameReader page, ConsoleFrame frame) throws DataFormatException {
+        FrameReader.Header header = FrameReader.readFrame(frame.buffer().getBytes());
+        assertEquals(ConsoleFrame.METRICS, header.channel);
+        assertEquals(RUN_ID, header.run);
+        FrameReader.Metrics metrics = page.readMetrics(header.run, header.payload);
+        if (metrics != null) {
+            assertTrue(header.payload.atEnd());
+        }
+        return metrics;
+    }
+
+    private static void assertMetrics(RunStatus status, MetricsTick tick, GeneratorSample generator,
+                                      FrameReader.Metrics metrics) {
+        assertNotNull(metrics);
+        assertEquals(status.name(), metrics.status);
+        assertArrayEquals(new double[]{
+                tick.getTime(),
+                Math.round(tick.getThroughput() * 100),
+                Math.round(tick.getErrorRate() * 10000),
+                tick.getActiveThreads(),
+                tick.getTotal().getP95(),
+                tick.getTotal().getP99()}, metrics.totals);
+        assertEquals(tick.getLabels().size(), metrics.labels.size());
+        for (LabelStats.Tick label : tick.getLabels()) {
+            assertArrayEquals(new double[]{
+                    Math.round(label.getCount() / tick.getSeconds() * 100),
+                    label.getErrors(),
+                    label.getP95(),
+                    label.getP99()}, metrics.labels.get(label.getLabel()), label.getLabel());
+        }
+        if (generator == null) {
+            assertNull(metrics.generator);
+            return;
+        }
+        assertArrayEquals(new double[]{
+                Math.round(generator.getCpuPercent() * 100),
+                Math.round(generator.getSystemCpuPercent() * 100),
+                Math.round(generator.getGcPercent() * 100),
+                Math.round(generator.getAllocationMbPerSecond() * 100),
+                generator.getThreads(),
+                generator.getSchedulingLagMillis()}, metrics.generator);
+        assertEquals(generator.getSaturation(), metrics.saturation);
+    }
+
+    private static MetricsTick tick(long time, double seconds, int activeThreads, LabelStats.Tick... labels) {
+        long count = 0;
+        long errors = 0;
+        long p95 = 0;
+        long p99 = 0;
+        for (LabelStats.Tick label : labels) {
+            count += label.getCount();
+            errors += label.getErrors();
+            p95 = Math.max(p95, label.getP95());
+            p99 = Math.max(p99, label.getP99());
+        }
+        LabelStats.Tick total = new LabelStats.Tick("TOTAL", count, errors, 0, p95, p99);
+        return new MetricsTick(time, seconds, activeThreads, total,
+                labels.length == 0 ? Collections.emptyList() : Arrays.asList(labels));
+    }
+
+    private static LabelStats.Tick label(String label, long count, long errors, long p95, long p99) {
+        return new LabelStats.Tick(label, count, errors, 0, p95, p99);
+    }
+
+    private static GeneratorSample generator(double cpu, double systemCpu, double gc, double allocation, int threads,
+                                             long lag, String saturation) {
+        return new GeneratorSample(0, cpu, systemCpu, gc, allocation, threads, lag, saturation);
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.colinzhu.jmeterwebrunner.workload;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArrivalProfileTest {
+
+    @Test
+    void constantRateSpacesTheArrivalsEvenly() {
+        ArrivalProfile profile = ArrivalProfile.parse("const:10:5s");
+
+        assertEquals(5000, profile.getDurationMillis());
+        assertEquals(50, profile.getTotalArrivals());
+        for (int n = 0; n < 50; n++) {
+            assertEquals(n * 100L, profile.intendedOffsetMillis(n), "arrival " + n);
+        }
+        assertEquals(-1, profile.intendedOffsetMillis(50));
+    }
+
+    @Test
+    void rampFollowsTheIntegralOfTheRate() {
+        // 0 to 100/s in 10 s: n arrivals after t ms with n = 100 / 10000 / 1000 * t^2 / 2
+        ArrivalProfile profile = ArrivalProfile.parse("ramp:0-100:10s");
+
+        assertEquals(500, profile.getTotalArrivals());
+        assertEquals(447, profile.intendedOffsetMillis(1));
+        assertEquals(632, profile.intendedOffsetMillis(2));
+        assertEquals(5000, profile.intendedOffsetMillis(125));
+        assertEquals(9989, profile.intendedOffsetMillis(499));
+        assertEquals(-1, profile.intendedOffsetMillis(500));
+    }
+
+    @Test
+    void laterSegmentsStartWhereThePreviousOneEnded() {
+        ArrivalProfile profile = ArrivalProfile.parse("const:10:1s, const:20:1s");
+
+        assertEquals(2000, profile.getDurationMillis());
+        assertEquals(30, profile.getTotalArrivals());
+        assertEquals(900, profile.intendedOffsetMillis(9));
+        assertEquals(1000, profile.intendedOffsetMillis(10));
+        assertEquals(1100, profile.intendedOffsetMillis(12));
+        assertEquals(-1, profile.intendedOffsetMillis(30));
+    }
+
+    @Test
+    void scaleKeepsTheTimesAndSharesTheArrivals() {
+        ArrivalProfile profile = ArrivalProfile.parse("const:10:5s,const:20:5s").scale(0.5);
+
+        assertEquals(10_000, profile.getDurationMillis());
+        assertEquals(75, profile.getTotalArrivals());
+        assertEquals(200, profile.intendedOffsetMillis(1));
+        assertEquals(5000, profile.intendedOffsetMillis(25));
+        assertEquals(5100, profile.intendedOffsetMillis(26));
+    }
+
+    @Test
+    void parseDurationUnits() {
+        assertEquals(500, ArrivalProfile.parseDuration("500ms"));
+        assertEquals(10_000, ArrivalProfile.parseDuration("10s"));
+        assertEquals(300_000, ArrivalProfile.parseDuration("5m"));
+        assertEquals(3_600_000, ArrivalProfile.parseDuration(" 1H "));
+        assertThrows(IllegalArgumentException.class, () -> ArrivalProfile.parseDuration("5d"));
+    }
+
+    @Test
+    void invalidSegmentsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ArrivalProfile.parse("10/s"));
+        assertThrows(IllegalArgumentException.class, () -> ArrivalProfile.parse("step:10:5s"));
+        assertThrows(IllegalArgumentException.class, () -> ArrivalProfile.parse("const:-1:5s"));
+    }
+}